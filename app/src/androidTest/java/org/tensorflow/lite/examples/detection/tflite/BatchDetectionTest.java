@@ -0,0 +1,192 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks on the device that {@link Classifier#recognizeImages} returns the same detections from
+ * one batched inference, from the input-by-input fallback and from {@link Classifier#detect} on
+ * each input, and that {@link BatchDetectionRunner} writes those detections for every image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchDetectionTest {
+  // The prepackaged SSD model, as DetectorActivity loads it.
+  private static final String MODEL_FILE = "detect.tflite";
+  private static final String LABELS_FILE = "file:///android_asset/labelmap.txt";
+  private static final int INPUT_SIZE = 300;
+
+  private static final int BATCH_SIZE = 3;
+  // Batched kernels may sum in another order than single ones on a float model.
+  private static final float SCORE_TOLERANCE = 1e-4f;
+  private static final float BOX_TOLERANCE = 0.05f;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private TFLiteObjectDetectionAPIModel detector;
+  private Bitmap[] images;
+  private ByteBuffer[] inputs;
+  private Detections[] perInput;
+
+  @Before
+  public void setUp() throws IOException {
+    detector =
+        (TFLiteObjectDetectionAPIModel)
+            TFLiteObjectDetectionAPIModel.create(
+                InstrumentationRegistry.getTargetContext().getAssets(),
+                MODEL_FILE,
+                LABELS_FILE,
+                INPUT_SIZE);
+    // Keep every detection the model outputs, so that there is something to compare on any image.
+    detector.setDetectionQuery(new DetectionQuery().setMinScore(0));
+    images = new Bitmap[BATCH_SIZE];
+    inputs = new ByteBuffer[BATCH_SIZE];
+    perInput = new Detections[BATCH_SIZE];
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      images[i] = createImage(i);
+      inputs[i] = detector.allocateInputBuffer();
+      detector.preprocess(images[i], inputs[i]);
+      perInput[i] = detector.detect(inputs[i]).copy();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    detector.close();
+  }
+
+  @Test
+  public void batchedMatchesPerInput() {
+    final Detections[] batched = detector.recognizeImages(inputs, BATCH_SIZE);
+    assumeTrue("Model does not take a batch", detector.isBatchingSupported());
+
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      assertDetectionsEqual("image " + i, perInput[i], batched[i]);
+    }
+  }
+
+  @Test
+  public void fallbackMatchesPerInput() {
+    detector.disableBatching();
+    final Detections[] fallback = detector.recognizeImages(inputs, BATCH_SIZE);
+
+    assertFalse(detector.isBatchingSupported());
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      assertDetectionsEqual("image " + i, perInput[i], fallback[i]);
+    }
+  }
+
+  @Test
+  public void runnerWritesDetectionsOfEveryImage() throws IOException {
+    // Images of the input size are decoded unscaled, so their inputs match the ones above.
+    final File[] files = new File[BATCH_SIZE + 1];
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      files[i] = folder.newFile("image" + i + ".png");
+      try (OutputStream out = new FileOutputStream(files[i])) {
+        images[i].compress(Bitmap.CompressFormat.PNG, 100, out);
+      }
+    }
+    files[BATCH_SIZE] = folder.newFile("broken.png");
+    try (OutputStream out = new FileOutputStream(files[BATCH_SIZE])) {
+      out.write(new byte[] {'n', 'o', 't', ' ', 'a', 'n', ' ', 'i', 'm', 'a', 'g', 'e'});
+    }
+    final File output = new File(folder.getRoot(), "detections.dets");
+
+    // Batches of two leave the broken image alone in a short last batch.
+    final BatchDetectionRunner.Summary summary =
+        new BatchDetectionRunner(detector, 2, 2).run(files, output);
+
+    assertEquals(files.length, summary.images);
+    assertEquals(1, summary.failed);
+    final List<BatchDetectionRunner.Record> records =
+        BatchDetectionRunner.read(output, new String[0]);
+    assertEquals(files.length, records.size());
+    long detectionCount = 0;
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      final BatchDetectionRunner.Record record = records.get(i);
+      assertEquals(files[i].getPath(), record.path);
+      assertEquals(INPUT_SIZE, record.width);
+      assertEquals(INPUT_SIZE, record.height);
+      assertDetectionsEqual(record.path, perInput[i], record.detections);
+      detectionCount += record.detections.count;
+    }
+    assertEquals(detectionCount, summary.detections);
+    assertEquals(files[BATCH_SIZE].getPath(), records.get(BATCH_SIZE).path);
+    assertNull(records.get(BATCH_SIZE).detections);
+  }
+
+  /** Returns a decodable test image: a gradient with a few solid blocks, different per seed. */
+  private static Bitmap createImage(final int seed) {
+    final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+    for (int y = 0; y < INPUT_SIZE; ++y) {
+      for (int x = 0; x < INPUT_SIZE; ++x) {
+        int r = x * 255 / INPUT_SIZE;
+        int g = y * 255 / INPUT_SIZE;
+        int b = (seed * 85 + (x + y) / 4) & 0xff;
+        for (int k = 0; k < 3; ++k) {
+          final int left = 30 + ((seed * 7 + k * 11) % 9) * 25;
+          final int top = 20 + ((seed * 5 + k * 13) % 7) * 30;
+          if (x >= left && x < left + 60 && y >= top && y < top + 90) {
+            r = 60 * k;
+            g = 255 - 80 * k;
+            b = 40 * seed;
+          }
+        }
+        pixels[y * INPUT_SIZE + x] = 0xff000000 | (r << 16) | (g << 8) | (b & 0xff);
+      }
+    }
+    final Bitmap image = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Bitmap.Config.ARGB_8888);
+    image.setPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+    return image;
+  }
+
+  private static void assertDetectionsEqual(
+      final String message, final Detections expected, final Detections actual) {
+    assertEquals(message + ": count", expected.count, actual.count);
+    for (int i = 0; i < expected.count; ++i) {
+      final String detection = message + ": detection " + i;
+      assertEquals(detection + " class", expected.classIds[i], actual.classIds[i]);
+      assertEquals(detection + " score", expected.scores[i], actual.scores[i], SCORE_TOLERANCE);
+      for (int j = 0; j < 4; ++j) {
+        assertEquals(
+            detection + " coordinate " + j,
+            expected.boxes[4 * i + j],
+            actual.boxes[4 * i + j],
+            BOX_TOLERANCE);
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures how detection throughput scales with the number of pooled interpreters on the device.
+ * For each pool size, as many threads as there are members call {@link Classifier#detect} on the
+ * prepackaged model, each member running an equal share of the cores. Calls per second are reported
+ * as instrumentation status under {@code calls_per_second_<poolSize>}. Skipped unless asked for, so
+ * it does nothing in a plain test run:
+ *
+ * <pre>
+ * adb shell am instrument -w -r \
+ *     -e class org.tensorflow.lite.examples.detection.tflite.DetectorPoolThroughputTest \
+ *     -e benchmark true [-e maxPoolSize 4] [-e calls 50] \
+ *     org.tensorflow.lite.examples.detection.test/android.support.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorPoolThroughputTest {
+  // The prepackaged SSD model, as DetectorActivity loads it.
+  private static final String MODEL_FILE = "detect.tflite";
+  private static final String LABELS_FILE = "file:///android_asset/labelmap.txt";
+  private static final int INPUT_SIZE = 300;
+  private static final int WARMUP_CALLS = 5;
+
+  @Test
+  public void throughputByPoolSize() throws IOException, InterruptedException {
+    final Bundle arguments = InstrumentationRegistry.getArguments();
+    assumeTrue("No benchmark argument given", arguments.getString("benchmark") != null);
+    final int maxPoolSize = Integer.parseInt(arguments.getString("maxPoolSize", "4"));
+    final int calls = Integer.parseInt(arguments.getString("calls", "50"));
+    final int cpus = Runtime.getRuntime().availableProcessors();
+
+    final Bundle results = new Bundle();
+    for (int poolSize = 1; poolSize <= maxPoolSize; ++poolSize) {
+      final Classifier detector =
+          TFLiteObjectDetectionAPIModel.createPool(
+              InstrumentationRegistry.getTargetContext().getAssets(),
+              MODEL_FILE,
+              LABELS_FILE,
+              INPUT_SIZE,
+              poolSize);
+      try {
+        detector.setNumThreads(Math.max(1, cpus / poolSize));
+        final double rate = callsPerSecond(detector, poolSize, calls);
+        results.putDouble("calls_per_second_" + poolSize, rate);
+      } finally {
+        detector.close();
+      }
+    }
+    InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+  }
+
+  /** Runs the given number of calls on each of callers threads and returns the combined rate. */
+  private static double callsPerSecond(
+      final Classifier detector, final int callers, final int calls) throws InterruptedException {
+    final Thread[] threads = new Thread[callers];
+    final long[] elapsedNs = new long[callers];
+    for (int t = 0; t < callers; ++t) {
+      final int caller = t;
+      // A blank frame: SSD inference time does not depend on the content.
+      final ByteBuffer input = detector.allocateInputBuffer();
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < WARMUP_CALLS; ++i) {
+                  detector.detect(input);
+                }
+                final long startNs = System.nanoTime();
+                for (int i = 0; i < calls; ++i) {
+                  detector.detect(input);
+                }
+                elapsedNs[caller] = System.nanoTime() - startNs;
+              });
+      threads[t].start();
+    }
+    double rate = 0;
+    for (int t = 0; t < callers; ++t) {
+      threads[t].join();
+      rate += calls / (elapsedNs[t] / 1e9);
+    }
+    return rate;
+  }
+}
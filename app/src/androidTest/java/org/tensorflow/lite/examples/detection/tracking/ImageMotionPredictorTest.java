@@ -0,0 +1,140 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.runner.AndroidJUnit4;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Replays a gyroscope trace through {@link ImageMotionPredictor} at camera frame times, checking
+ * the predicted image shift against the rotation the trace holds.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageMotionPredictorTest {
+  private static final String TRACE = "gyro_pan_tilt.csv";
+  private static final long TRACE_START_NS = 1_000_000_000L;
+  // Phases of the trace, relative to its start.
+  private static final long PAN_START_NS = 200_000_000L;
+  private static final long TILT_START_NS = 700_000_000L;
+  private static final long TRACE_END_NS = 1_000_000_000L;
+  private static final float PAN_RATE = 0.6f;
+
+  private static final long FRAME_INTERVAL_NS = 33_333_333L;
+  private static final int FRAME_WIDTH = 640;
+  // A 60 degree field of view over 640 px: 320 px / tan(30 degrees).
+  private static final float FOCAL_LENGTH = 554.2563f;
+  // Shifts of a point straight ahead over one frame interval, worked out by hand: the camera turns
+  // by rate * 33.3 ms, so the point lies that angle off the optical axis at depth d and projects to
+  // FOCAL_LENGTH * (d sin(angle)) / (d cos(angle)) px from the center.
+  private static final float PAN_SHIFT_PX = 11.0866f;
+  private static final float TILT_SHIFT_PX = -7.3905f;
+  // Shifts over the whole pan and tilt: 0.6 rad/s for 500 ms and -0.4 rad/s for the 300 ms up to
+  // the last frame, each small angle contributing FOCAL_LENGTH times itself.
+  private static final float TOTAL_PAN_SHIFT_PX = 166.28f;
+  private static final float TOTAL_TILT_SHIFT_PX = -66.51f;
+  private static final float TOLERANCE_PX = 0.01f;
+
+  private RecordedRotationSource trace;
+  private final float[] displacement = new float[2];
+
+  @Before
+  public void loadTrace() throws IOException {
+    try (InputStream in = getClass().getClassLoader().getResourceAsStream(TRACE)) {
+      trace = RecordedRotationSource.load(in);
+    }
+  }
+
+  @Test
+  public void panShiftsSceneSideways() {
+    final ImageMotionPredictor predictor = new ImageMotionPredictor(trace, FOCAL_LENGTH, 0);
+    final long fromNs = TRACE_START_NS + PAN_START_NS;
+    final long toNs = fromNs + FRAME_INTERVAL_NS;
+    assertTrue(predictor.predict(fromNs, toNs, displacement));
+    assertEquals(PAN_SHIFT_PX, displacement[0], TOLERANCE_PX);
+    assertEquals(0, displacement[1], TOLERANCE_PX);
+    // Well into the pan, so the speed window holds no still samples.
+    assertEquals(PAN_RATE, predictor.getAngularSpeed(fromNs + 4 * FRAME_INTERVAL_NS), 1e-6f);
+  }
+
+  @Test
+  public void tiltShiftsSceneVertically() {
+    final ImageMotionPredictor predictor = new ImageMotionPredictor(trace, FOCAL_LENGTH, 0);
+    final long fromNs = TRACE_START_NS + TILT_START_NS;
+    final long toNs = fromNs + FRAME_INTERVAL_NS;
+    assertTrue(predictor.predict(fromNs, toNs, displacement));
+    assertEquals(0, displacement[0], TOLERANCE_PX);
+    assertEquals(TILT_SHIFT_PX, displacement[1], TOLERANCE_PX);
+  }
+
+  @Test
+  public void sensorOrientationRotatesShift() {
+    final ImageMotionPredictor predictor = new ImageMotionPredictor(trace, FOCAL_LENGTH, 90);
+    final long fromNs = TRACE_START_NS + PAN_START_NS;
+    final long toNs = fromNs + FRAME_INTERVAL_NS;
+    assertTrue(predictor.predict(fromNs, toNs, displacement));
+    // A sensor mounted 90 degrees clockwise sees the upright rightward shift as upward.
+    assertEquals(0, displacement[0], TOLERANCE_PX);
+    assertEquals(-PAN_SHIFT_PX, displacement[1], TOLERANCE_PX);
+  }
+
+  @Test
+  public void frameByFrameShiftsAddUpOverTheTrace() {
+    final ImageMotionPredictor predictor = new ImageMotionPredictor(trace, FOCAL_LENGTH, 0);
+    float totalX = 0;
+    float totalY = 0;
+    long previousNs = TRACE_START_NS;
+    for (long frameNs = TRACE_START_NS + FRAME_INTERVAL_NS;
+        frameNs <= TRACE_START_NS + TRACE_END_NS;
+        frameNs += FRAME_INTERVAL_NS) {
+      assertTrue(predictor.predict(previousNs, frameNs, displacement));
+      totalX += displacement[0];
+      totalY += displacement[1];
+      previousNs = frameNs;
+    }
+    // Per-frame shifts are tangents of small angles, so they add up to the focal length times the
+    // whole rotation rather than to the tangent of it.
+    assertEquals(TOTAL_PAN_SHIFT_PX, totalX, 0.1f);
+    assertEquals(TOTAL_TILT_SHIFT_PX, totalY, 0.1f);
+  }
+
+  @Test
+  public void noPredictionBeforeTrace() {
+    final ImageMotionPredictor predictor = new ImageMotionPredictor(trace, FOCAL_LENGTH, 0);
+    displacement[0] = 7;
+    assertFalse(
+        predictor.predict(TRACE_START_NS - FRAME_INTERVAL_NS, TRACE_START_NS, displacement));
+    assertEquals(7, displacement[0], 0);
+  }
+
+  @Test
+  public void focalLengthFromFieldOfView() {
+    assertEquals(FOCAL_LENGTH, ImageMotionPredictor.getFocalLength(FRAME_WIDTH, 60), 1e-3f);
+  }
+
+  @Test
+  public void focalLengthFromLens() {
+    // A 3.6 mm lens on 4.8 mm of sensor sees 4.8 / 3.6 of its distance across, over 640 px.
+    assertEquals(480, ImageMotionPredictor.getFocalLength(FRAME_WIDTH, 3.6f, 4.8f), 1e-3f);
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection;
+
+import android.app.IntentService;
+import android.content.Intent;
+import java.io.File;
+import java.io.IOException;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.BatchDetectionRunner;
+import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.DetectionQuery;
+import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+
+/**
+ * Headless entry point for {@link BatchDetectionRunner}: detects objects in every image of a
+ * directory on the device with the prepackaged model and writes the results file, without opening
+ * the camera. The service requires the DUMP permission, which the shell holds, so it is started
+ * over adb and reports its summary to the log:
+ *
+ * <pre>
+ * adb push frames/. /sdcard/Android/data/org.tensorflow.lite.examples.detection/files/batch
+ * adb shell am startservice \
+ *     -n org.tensorflow.lite.examples.detection/.BatchDetectionService \
+ *     [--es imageDir DIR] [--es output FILE] [--ei batchSize 4] [--ei workers 2] \
+ *     [--ef minScore 0.5]
+ * </pre>
+ *
+ * The images are read from the app's external "batch" directory unless imageDir is given, and the
+ * results are written to detections.dets in the image directory unless output is given.
+ */
+public class BatchDetectionService extends IntentService {
+  private static final Logger LOGGER = new Logger();
+
+  public static final String EXTRA_IMAGE_DIR = "imageDir";
+  public static final String EXTRA_OUTPUT = "output";
+  public static final String EXTRA_BATCH_SIZE = "batchSize";
+  public static final String EXTRA_WORKERS = "workers";
+  public static final String EXTRA_MIN_SCORE = "minScore";
+
+  private static final String DEFAULT_IMAGE_DIR = "batch";
+  private static final String DEFAULT_OUTPUT = "detections.dets";
+
+  public BatchDetectionService() {
+    super("BatchDetectionService");
+  }
+
+  @Override
+  protected void onHandleIntent(final Intent intent) {
+    if (intent == null) {
+      return;
+    }
+    final String imageDir = intent.getStringExtra(EXTRA_IMAGE_DIR);
+    final File directory =
+        imageDir != null ? new File(imageDir) : getExternalFilesDir(DEFAULT_IMAGE_DIR);
+    if (directory == null) {
+      LOGGER.e("External storage is not available");
+      return;
+    }
+    final String outputPath = intent.getStringExtra(EXTRA_OUTPUT);
+    final File output =
+        outputPath != null ? new File(outputPath) : new File(directory, DEFAULT_OUTPUT);
+
+    Classifier detector = null;
+    try {
+      final File[] images = BatchDetectionRunner.listImages(directory);
+      LOGGER.i("Detecting objects in %d images of %s", images.length, directory);
+      detector =
+          TFLiteObjectDetectionAPIModel.create(
+              getAssets(),
+              DetectorActivity.TF_OD_API_MODEL_FILE,
+              DetectorActivity.TF_OD_API_LABELS_FILE,
+              DetectorActivity.TF_OD_API_INPUT_SIZE);
+      detector.setDetectionQuery(
+          new DetectionQuery().setMinScore(intent.getFloatExtra(EXTRA_MIN_SCORE, 0.5f)));
+      final BatchDetectionRunner runner =
+          new BatchDetectionRunner(
+              detector,
+              intent.getIntExtra(EXTRA_BATCH_SIZE, 4),
+              intent.getIntExtra(EXTRA_WORKERS, 2));
+      final BatchDetectionRunner.Summary summary = runner.run(images, output);
+      LOGGER.i("Wrote %s: %s", output, summary);
+    } catch (final IOException | RuntimeException e) {
+      LOGGER.e(e, "Batch detection of %s failed", directory);
+    } finally {
+      if (detector != null) {
+        detector.close();
+      }
+    }
+  }
+}
@@ -33,6 +33,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.support.annotation.NonNull;
 import android.support.design.widget.BottomSheetBehavior;
@@ -53,6 +54,7 @@ import android.widget.Toast;
 import java.nio.ByteBuffer;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.SharpnessGate;
 
 import static android.content.ContentValues.TAG;
 
@@ -66,18 +68,67 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+  // Motion-blurred frames are flagged on intake, see isFrameSharp(). Sharpness is measured on every
+  // SHARPNESS_SAMPLE_STEP-th pixel; frames below SHARPNESS_THRESHOLD of the recent average are
+  // blurred, but at least one frame every SHARPNESS_MAX_LATENCY_MS is passed regardless.
+  private static final int SHARPNESS_SAMPLE_STEP = 4;
+  private static final float SHARPNESS_THRESHOLD = 0.5f;
+  private static final long SHARPNESS_MAX_LATENCY_MS = 250;
+  // Camera2 image timestamps further than this from the realtime clock are taken to be on another
+  // timebase, and the arrival time is used instead.
+  private static final long MAX_CAPTURE_CLOCK_SKEW_NS = 1000000000L;
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private boolean debug = false;
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
+  // Camera2 id of the camera in use, also chosen when frames come from the legacy API.
+  private String cameraId;
   private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
+  // Planes of the frame being processed. Camera2 planes are read in place and are only valid until
+  // readyForNextImage() closes the Image.
+  private ByteBuffer[] yuvPlanes = new ByteBuffer[3];
+  // The legacy camera hands out a reused NV21 array; its wrapper is kept for getLuminance().
+  private byte[] nv21Bytes;
+  private final ByteBuffer[] nv21Planes = new ByteBuffer[3];
   private int[] rgbBytes = null;
+  private int rgbFrameWidth;
+  private int rgbFrameHeight;
   private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  // Capture time of the frame being processed, see getFrameTimestampNs().
+  private long frameTimestampNs;
+  private SharpnessGate sharpnessGate;
+  private boolean frameSharp = true;
+  // Set when the camera picks a preview size, so that the frame buffers are resized on the thread
+  // processing frames before the next one.
+  private volatile boolean previewSizeChanged = false;
   private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+  // The frame source currently being processed, released by the callbacks below. Both callbacks
+  // are allocated once rather than per frame.
+  private Camera previewCamera;
+  private Image currentImage;
+  private final Runnable returnPreviewBuffer =
+      new Runnable() {
+        @Override
+        public void run() {
+          previewCamera.addCallbackBuffer(nv21Bytes);
+          isProcessingFrame = false;
+        }
+      };
+  private final Runnable closeCurrentImage =
+      new Runnable() {
+        @Override
+        public void run() {
+          // The planes are read in place, so the Image can only go back to the reader now.
+          yuvPlanes[0] = yuvPlanes[1] = yuvPlanes[2] = null;
+          currentImage.close();
+          currentImage = null;
+          isProcessingFrame = false;
+        }
+      };
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
@@ -174,21 +225,199 @@ public abstract class CameraActivity extends AppCompatActivity
   }
 
   protected int[] getRgbBytes() {
-    imageConverter.run();
+    convertRgbFrame();
     return rgbBytes;
   }
 
+  /** Width of the frame returned by {@link #getRgbBytes()}, after any downsampling. */
+  protected int getRgbFrameWidth() {
+    return rgbFrameWidth;
+  }
+
+  /** Height of the frame returned by {@link #getRgbBytes()}, after any downsampling. */
+  protected int getRgbFrameHeight() {
+    return rgbFrameHeight;
+  }
+
+  /**
+   * Integer factor by which {@link #getRgbBytes()} downsamples each dimension of the preview. A
+   * factor of 2 uses 2x2 box filtering, larger factors nearest-neighbour sampling.
+   */
+  protected int getRgbFrameDownsampling() {
+    return 1;
+  }
+
+  /**
+   * Whether motion-blurred frames are flagged by {@link #isFrameSharp()}. If not, every frame is
+   * reported sharp and no sharpness is measured.
+   */
+  protected boolean useSharpnessGate() {
+    return true;
+  }
+
+  /** Sizes the RGB frame and the sharpness gate for the current preview size. */
+  private void allocateFrameBuffers() {
+    final int downsampling = getRgbFrameDownsampling();
+    rgbFrameWidth = ImageUtils.getDownsampledLength(previewWidth, downsampling);
+    rgbFrameHeight = ImageUtils.getDownsampledLength(previewHeight, downsampling);
+    rgbBytes = new int[rgbFrameWidth * rgbFrameHeight];
+    sharpnessGate =
+        useSharpnessGate()
+            ? new SharpnessGate(
+                previewWidth,
+                previewHeight,
+                SHARPNESS_SAMPLE_STEP,
+                SHARPNESS_THRESHOLD,
+                SHARPNESS_MAX_LATENCY_MS)
+            : null;
+    frameSharp = true;
+  }
+
+  private void convertRgbFrame() {
+    final int downsampling = getRgbFrameDownsampling();
+    if (downsampling == 2) {
+      ImageUtils.convertYUV420ToARGB8888Box2x2(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          rgbBytes);
+    } else if (downsampling > 2) {
+      ImageUtils.convertYUV420ToARGB8888Nearest(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          rgbFrameWidth,
+          rgbFrameHeight,
+          rgbBytes);
+    } else if (!useCamera2API) {
+      ImageUtils.convertYUV420SPToARGB8888(nv21Bytes, previewWidth, previewHeight, rgbBytes);
+    } else if (uvPixelStride == 2) {
+      // Pick a kernel specialized for the chroma layout the device delivered.
+      ImageUtils.convertYUV420SemiPlanarToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          rgbBytes);
+    } else if (uvPixelStride == 1) {
+      ImageUtils.convertYUV420PlanarToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          rgbBytes);
+    } else {
+      ImageUtils.convertYUV420ToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          rgbBytes);
+    }
+  }
+
+  /**
+   * Converts the current frame directly into a model input buffer, skipping the full-frame RGB
+   * conversion done by {@link #getRgbBytes()}. Must be called before {@link #readyForNextImage()}.
+   */
+  protected void convertToInputTensor(
+      final float[] inputToFrameValues,
+      final int inputSize,
+      final byte[] quantizedLookup,
+      final float[] normalizedLookup,
+      final ByteBuffer out) {
+    out.rewind();
+    if (useCamera2API) {
+      ImageUtils.convertYUV420ToInputTensor(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          inputToFrameValues,
+          inputSize,
+          quantizedLookup,
+          normalizedLookup,
+          out);
+    } else {
+      ImageUtils.convertYUV420SPToInputTensor(
+          nv21Bytes,
+          previewWidth,
+          previewHeight,
+          inputToFrameValues,
+          inputSize,
+          quantizedLookup,
+          normalizedLookup,
+          out);
+    }
+  }
+
+  private void measureSharpness() {
+    if (sharpnessGate != null) {
+      frameSharp = sharpnessGate.accept(yuvPlanes[0], yRowStride);
+    }
+  }
+
+  /**
+   * Whether the current frame is sharp enough to be worth inferring, as judged on intake. Blurred
+   * frames should be dropped before conversion; at least one frame per maximum latency window is
+   * reported sharp.
+   */
+  protected boolean isFrameSharp() {
+    return frameSharp;
+  }
+
+  /** Returns the sharpness gate's statistics, or null if it is disabled. */
+  protected String getSharpnessStatString() {
+    return sharpnessGate != null ? sharpnessGate.getStatString() : null;
+  }
+
+  /**
+   * Capture time of the current frame on the {@link SystemClock#elapsedRealtimeNanos()} clock,
+   * which sensor events are also stamped with. Camera2 frames carry their sensor timestamp; legacy
+   * frames, and cameras stamping frames on another timebase, the time they reached the app.
+   */
+  protected long getFrameTimestampNs() {
+    return frameTimestampNs;
+  }
+
   protected int getLuminanceStride() {
     return yRowStride;
   }
 
-  protected byte[] getLuminance() {
-    return yuvBytes[0];
+  /** Returns the Y plane of the current frame, valid until {@link #readyForNextImage()}. */
+  protected ByteBuffer getLuminance() {
+    return yuvPlanes[0];
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
+    // The legacy API has no capture time; the callback is the closest to it.
+    final long arrivalNs = SystemClock.elapsedRealtimeNanos();
     if (isProcessingFrame) {
       LOGGER.w("Dropping frame!");
       return;
@@ -200,7 +429,7 @@ public abstract class CameraActivity extends AppCompatActivity
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
+        allocateFrameBuffers();
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
@@ -209,25 +438,23 @@ public abstract class CameraActivity extends AppCompatActivity
     }
 
     isProcessingFrame = true;
-    yuvBytes[0] = bytes;
+    if (nv21Bytes != bytes) {
+      // View the NV21 array as planes: Y, then interleaved V and U.
+      final int frameSize = previewWidth * previewHeight;
+      nv21Bytes = bytes;
+      nv21Planes[0] = ByteBuffer.wrap(bytes);
+      nv21Planes[1] = ByteBuffer.wrap(bytes, frameSize + 1, bytes.length - frameSize - 1).slice();
+      nv21Planes[2] = ByteBuffer.wrap(bytes, frameSize, bytes.length - frameSize).slice();
+    }
+    System.arraycopy(nv21Planes, 0, yuvPlanes, 0, 3);
     yRowStride = previewWidth;
+    uvRowStride = previewWidth;
+    uvPixelStride = 2;
+    frameTimestampNs = arrivalNs;
+    measureSharpness();
 
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
-
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
+    previewCamera = camera;
+    postInferenceCallback = returnPreviewBuffer;
     processImage();
   }
 
@@ -238,8 +465,9 @@ public abstract class CameraActivity extends AppCompatActivity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
+    if (rgbBytes == null || previewSizeChanged) {
+      previewSizeChanged = false;
+      allocateFrameBuffers();
     }
     try {
       final Image image = reader.acquireLatestImage();
@@ -255,36 +483,20 @@ public abstract class CameraActivity extends AppCompatActivity
       isProcessingFrame = true;
       Trace.beginSection("imageAvailable");
       final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
+      for (int i = 0; i < planes.length; ++i) {
+        yuvPlanes[i] = planes[i].getBuffer();
+      }
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
-
-      postInferenceCallback =
-          new Runnable() {
-            @Override
-            public void run() {
-              image.close();
-              isProcessingFrame = false;
-            }
-          };
+      uvRowStride = planes[1].getRowStride();
+      uvPixelStride = planes[1].getPixelStride();
+      final long arrivalNs = SystemClock.elapsedRealtimeNanos();
+      final long captureNs = image.getTimestamp();
+      frameTimestampNs =
+          Math.abs(arrivalNs - captureNs) <= MAX_CAPTURE_CLOCK_SKEW_NS ? captureNs : arrivalNs;
+      measureSharpness();
+
+      currentImage = image;
+      postInferenceCallback = closeCurrentImage;
 
       processImage();
     } catch (final Exception e) {
@@ -339,10 +551,9 @@ public abstract class CameraActivity extends AppCompatActivity
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  /** Posts r to the inference thread, returning false if the thread is not running. */
+  protected synchronized boolean runInBackground(final Runnable r) {
+    return handler != null && handler.post(r);
   }
 
   @Override
@@ -428,7 +639,7 @@ public abstract class CameraActivity extends AppCompatActivity
   }
 
   protected void setFragment() {
-    String cameraId = chooseCamera();
+    cameraId = chooseCamera();
 
     Fragment fragment;
     if (useCamera2API) {
@@ -439,6 +650,7 @@ public abstract class CameraActivity extends AppCompatActivity
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
                   previewHeight = size.getWidth();
                   previewWidth = size.getHeight();
+                  previewSizeChanged = true;
                   CameraActivity.this.onPreviewSizeChosen(size, rotation);
                 }
               },
@@ -456,16 +668,17 @@ public abstract class CameraActivity extends AppCompatActivity
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
-    // Because of the variable row stride it's not possible to know in
-    // advance the actual necessary dimensions of the yuv planes.
-    for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
+  /** Returns the Camera2 characteristics of the camera in use, or null if they are unavailable. */
+  protected CameraCharacteristics getCameraCharacteristics() {
+    if (cameraId == null) {
+      return null;
+    }
+    final CameraManager manager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+    try {
+      return manager.getCameraCharacteristics(cameraId);
+    } catch (final CameraAccessException e) {
+      LOGGER.e(e, "Not allowed to access camera");
+      return null;
     }
   }
 
@@ -532,6 +745,12 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  /** Reflects an interpreter configuration chosen by the app, rather than the user, in the UI. */
+  protected void showInterpreterConfiguration(final int numThreads, final boolean useNNAPI) {
+    threadsTextView.setText(String.valueOf(numThreads));
+    apiSwitchCompat.setChecked(useNNAPI);
+  }
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
@@ -0,0 +1,265 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import org.tensorflow.lite.examples.detection.env.Clock;
+import org.tensorflow.lite.examples.detection.env.FramePipeline;
+import org.tensorflow.lite.examples.detection.env.SceneChangeGate;
+import org.tensorflow.lite.examples.detection.tflite.AsyncDetector;
+import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
+import org.tensorflow.lite.examples.detection.tracking.DetectionScheduler;
+import org.tensorflow.lite.examples.detection.tracking.LuminancePatchTracker;
+import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+
+/**
+ * The detection loop of {@link DetectorActivity}, from a camera frame arriving to its detections
+ * being tracked. Every frame moves the tracks on; frames the schedule and the gates pick are
+ * converted into a pipeline buffer and detected asynchronously, and their detections are tracked
+ * in frame order.
+ *
+ * <p>Everything the loop touches per frame is preallocated, so its steady state does not
+ * allocate.
+ */
+public class DetectionLoop {
+  /** What the loop needs from the camera and the UI. */
+  public interface Host {
+    /** Whether the current camera frame is sharp enough to detect. */
+    boolean isFrameSharp();
+
+    /**
+     * Converts the current camera frame into {@code frame.input} on the camera thread, then lets
+     * the camera have the frame back.
+     */
+    void convert(FramePipeline.Frame frame);
+
+    /**
+     * Called with a frame's detections, still in detector input coordinates, just before they are
+     * tracked. Runs on an inference worker.
+     */
+    void onDetected(Detections detections);
+
+    /** Called once a detection request is done and every finished frame tracked. */
+    void onRequestDone(AsyncDetector.Request request);
+  }
+
+  private final Host host;
+  private final MultiBoxTracker tracker;
+  private final DetectionScheduler scheduler;
+  private final FramePipeline pipeline;
+  private final AsyncDetector detector;
+  // Maps detections back into the frame; see the constructor.
+  private final float[] cropToFrameValues = new float[9];
+  private LuminancePatchTracker patchTracker;
+  private SceneChangeGate sceneChangeGate;
+  private long inferenceDeadlineNs = Long.MAX_VALUE;
+
+  // Request for the frame in each pipeline buffer, kept until it is that frame's turn to be
+  // tracked. Also guards tracking.
+  private final AsyncDetector.Request[] frameRequests;
+  private final RectF location = new RectF();
+
+  /**
+   * @param inputs Pipeline buffers, see {@link FramePipeline}.
+   * @param workers Maximum number of frames detected at once.
+   * @param executor Runs detection requests.
+   * @param clock Clock that capture times are given on.
+   * @param cropToFrameTransform Maps detections from the detector input into the frame. It may
+   *     only scale, translate and rotate by multiples of 90 degrees, so that boxes stay boxes.
+   */
+  public DetectionLoop(
+      final Classifier classifier,
+      final ByteBuffer[] inputs,
+      final int workers,
+      final Executor executor,
+      final Clock clock,
+      final MultiBoxTracker tracker,
+      final DetectionScheduler scheduler,
+      final Matrix cropToFrameTransform,
+      final Host host) {
+    this.host = host;
+    this.tracker = tracker;
+    this.scheduler = scheduler;
+    pipeline = new FramePipeline(inputs, workers, clock);
+    detector = new AsyncDetector(classifier, executor, this::onRequestDone, inputs.length, clock);
+    frameRequests = new AsyncDetector.Request[inputs.length];
+    cropToFrameTransform.getValues(cropToFrameValues);
+  }
+
+  /** Follows tracks from frame to frame by matching luminance patches. Off by default. */
+  public void setPatchTracker(final LuminancePatchTracker patchTracker) {
+    this.patchTracker = patchTracker;
+  }
+
+  /** Skips detection on frames that barely differ from the last detected one. Off by default. */
+  public void setSceneChangeGate(final SceneChangeGate sceneChangeGate) {
+    this.sceneChangeGate = sceneChangeGate;
+  }
+
+  /**
+   * Skips detection requests still queued this long after their frame was captured. Unlimited by
+   * default.
+   */
+  public void setInferenceDeadline(final long nanos) {
+    inferenceDeadlineNs = nanos;
+  }
+
+  /** See {@link FramePipeline#setMaxResultAge}. */
+  public void setMaxResultAge(final long nanos) {
+    pipeline.setMaxResultAge(nanos);
+  }
+
+  public FramePipeline getPipeline() {
+    return pipeline;
+  }
+
+  public AsyncDetector getDetector() {
+    return detector;
+  }
+
+  /** Keeps detection requests that have not started from running, for example on pause. */
+  public void cancelQueued() {
+    detector.cancelQueued();
+  }
+
+  /**
+   * Moves the tracks on to a camera frame, then converts and submits the frame for detection
+   * unless the schedule or a gate skips it. Runs on the camera thread.
+   *
+   * @param timestamp Frame number.
+   * @param captureNs When the camera captured the frame, on the loop's clock.
+   * @return true if the frame was handed to {@link Host#convert}; otherwise the caller must let
+   *     the camera have it back.
+   */
+  public boolean processFrame(
+      final long timestamp,
+      final long captureNs,
+      final ByteBuffer luminance,
+      final int luminanceStride) {
+    if (patchTracker != null) {
+      patchTracker.nextFrame(luminance, luminanceStride, timestamp);
+      tracker.advance(timestamp, patchTracker);
+    } else {
+      tracker.advance(timestamp);
+    }
+    if (!scheduler.shouldDetect(tracker.getTrackedCount() > 0)) {
+      // The tracker predicts this frame's boxes.
+      return false;
+    }
+    if (!host.isFrameSharp()) {
+      // Motion blur would only produce bad detections; detect the next sharp frame instead.
+      scheduler.requestDetection();
+      return false;
+    }
+    if (sceneChangeGate != null
+        && sceneChangeGate.isUnchanged(luminance, luminanceStride, timestamp)) {
+      // Nothing changed since the last used detection, so the objects it matched still stand.
+      tracker.holdTracks(sceneChangeGate.getReferenceTimestamp(), timestamp);
+      // Check the next frame rather than waiting out the detection interval.
+      scheduler.requestDetection();
+      return false;
+    }
+
+    // Converts while the previous frame is still being inferred; frames are only dropped when
+    // every pipeline buffer is busy.
+    final FramePipeline.Frame frame = pipeline.acquireForConversion(captureNs);
+    if (frame == null) {
+      scheduler.requestDetection();
+      return false;
+    }
+    frame.timestamp = timestamp;
+    if (sceneChangeGate != null) {
+      sceneChangeGate.saveSignature(frame.index);
+    }
+    host.convert(frame);
+    if (pipeline.publish(frame)) {
+      startInference();
+    }
+    return true;
+  }
+
+  /** Submits the latest converted frame to the detector for a worker the pipeline has started. */
+  private void startInference() {
+    final FramePipeline.Frame frame = pipeline.takeForInference();
+    if (frame != null) {
+      detector.recognizeAsync(frame, frame.captureNs + inferenceDeadlineNs);
+    }
+  }
+
+  /**
+   * Hands every finished frame to the tracker in frame order once a detection request is done,
+   * then starts on the next frame.
+   */
+  private void onRequestDone(final AsyncDetector.Request request) {
+    final FramePipeline.Frame frame = request.getFrame();
+    frameRequests[frame.index] = request;
+
+    final boolean scheduleAgain = pipeline.finishInference(frame);
+    synchronized (frameRequests) {
+      FramePipeline.Frame finished;
+      while ((finished = pipeline.pollFinished()) != null) {
+        // Null if the request was skipped, cancelled or failed.
+        final Detections detections = frameRequests[finished.index].getDetections();
+        if (detections != null) {
+          trackDetections(detections, finished.timestamp);
+          if (sceneChangeGate != null) {
+            // Later frames are compared to the one whose detections the tracker now holds.
+            sceneChangeGate.markInferred(finished.index);
+          }
+        }
+        pipeline.recycle(finished);
+      }
+    }
+    if (scheduleAgain) {
+      startInference();
+    }
+    host.onRequestDone(request);
+  }
+
+  /** Maps a frame's detections into the frame and tracks them. Called in frame order. */
+  private void trackDetections(final Detections detections, final long timestamp) {
+    host.onDetected(detections);
+    // The detector already applied the query, so only map the boxes into the frame.
+    for (int i = 0; i < detections.count; ++i) {
+      detections.getBox(i, location);
+      mapToFrame(location);
+      detections.set(i, location, detections.classIds[i], detections.scores[i]);
+    }
+    tracker.trackResults(detections, timestamp);
+  }
+
+  /**
+   * Maps a box into the frame like Matrix.mapRect would, from the transform's values. Two
+   * opposite corners are enough, as the transform keeps boxes axis-aligned.
+   */
+  private void mapToFrame(final RectF box) {
+    final float[] m = cropToFrameValues;
+    final float x0 =
+        m[Matrix.MSCALE_X] * box.left + m[Matrix.MSKEW_X] * box.top + m[Matrix.MTRANS_X];
+    final float y0 =
+        m[Matrix.MSKEW_Y] * box.left + m[Matrix.MSCALE_Y] * box.top + m[Matrix.MTRANS_Y];
+    final float x1 =
+        m[Matrix.MSCALE_X] * box.right + m[Matrix.MSKEW_X] * box.bottom + m[Matrix.MTRANS_X];
+    final float y1 =
+        m[Matrix.MSKEW_Y] * box.right + m[Matrix.MSCALE_Y] * box.bottom + m[Matrix.MTRANS_Y];
+    box.set(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1));
+  }
+}
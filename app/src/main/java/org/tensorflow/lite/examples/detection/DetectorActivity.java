@@ -24,24 +24,46 @@ import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
+import android.hardware.SensorManager;
+import android.hardware.camera2.CameraCharacteristics;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
+import android.util.SizeF;
 import android.util.TypedValue;
 import android.widget.Toast;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
+import org.tensorflow.lite.examples.detection.env.Clock;
+import org.tensorflow.lite.examples.detection.env.FrameDumper;
+import org.tensorflow.lite.examples.detection.env.FramePipeline;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.SceneChangeGate;
+import org.tensorflow.lite.examples.detection.tflite.AsyncDetector;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.DetectionQuery;
+import org.tensorflow.lite.examples.detection.tflite.DetectorCache;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterAutoTuner;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
 import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
+import org.tensorflow.lite.examples.detection.tracking.DetectionScheduler;
+import org.tensorflow.lite.examples.detection.tracking.GyroscopeRotationSource;
+import org.tensorflow.lite.examples.detection.tracking.ImageMotionPredictor;
+import org.tensorflow.lite.examples.detection.tracking.LuminancePatchTracker;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
 /**
@@ -52,42 +74,159 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private static final Logger LOGGER = new Logger();
 
   // Configuration values for the prepackaged SSD model.
-  private static final int TF_OD_API_INPUT_SIZE = 300;
-  private static final boolean TF_OD_API_IS_QUANTIZED = true;
-  private static final String TF_OD_API_MODEL_FILE = "detect.tflite";
-  private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
+  static final int TF_OD_API_INPUT_SIZE = 300;
+  static final String TF_OD_API_MODEL_FILE = "detect.tflite";
+  static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
   private static final DetectorMode MODE = DetectorMode.TF_OD_API;
+  // Times the interpreter across thread counts and NNAPI on first launch and keeps the fastest.
+  private static final boolean AUTO_TUNE_INTERPRETER = true;
+  // Re-tunes even if a configuration is cached for this model and device.
+  private static final boolean FORCE_INTERPRETER_RETUNE = false;
   // Minimum detection confidence to track a detection.
   private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.50f;
+  // Only these classes are decoded; the tracker acts on nothing else.
+  private static final String[] TRACKED_LABELS_TF_OD_API = {"person"};
   private static final boolean MAINTAIN_ASPECT = false;
   // ============================
   // Screensize of MOVERIO BT-300 is 1280*720 // Using smaller size to avoid the lag
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
   // ============================
   private static final boolean SAVE_PREVIEW_BITMAP = true;
+  // Frames are dumped in the background: every Nth detector input (0 for none), at most this many
+  // queued. A long press on the preview dumps the next input as well.
+  private static final int SAVE_PREVIEW_INTERVAL = 30;
+  private static final int SAVE_PREVIEW_QUEUE_SIZE = 4;
+  // Dumps rotate through this many files, overwriting the oldest.
+  private static final int SAVE_PREVIEW_MAX_FILES = 20;
+  private static final FrameDumper.Format SAVE_PREVIEW_FORMAT = FrameDumper.Format.PNG;
+  // Converts camera frames straight into the detector input instead of going through Bitmaps.
+  private static final boolean USE_FUSED_PREPROCESSING = true;
+  // Uses the table-driven YUV to RGB kernel, which is bit-exact with the integer one.
+  private static final boolean USE_YUV_LOOKUP_TABLE = true;
+  // Number of row bands full-frame YUV conversion is split across.
+  private static final int YUV_CONVERSION_PARALLELISM =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+  // Factor by which the RGB preview frame is downsampled while converting. The detector input is
+  // only TF_OD_API_INPUT_SIZE square, so converting every preview pixel is wasted work.
+  private static final int RGB_FRAME_DOWNSAMPLING = 2;
+  // Interpreters, and threads running them, that infer alternate frames concurrently.
+  private static final int INFERENCE_WORKERS = 2;
+  // Detector inputs in flight: one being converted, one waiting and one per worker.
+  private static final int PIPELINE_DEPTH = INFERENCE_WORKERS + 2;
+  // Threads tried per interpreter when tuning: the thread count buttons go up to 9, and the
+  // concurrent interpreters share the cores between them.
+  private static final int MAX_TUNED_THREADS =
+      Math.min(9, Math.max(1, Runtime.getRuntime().availableProcessors() / INFERENCE_WORKERS));
+  // A detection request still queued for a worker this long after its frame was captured is
+  // skipped, as a newer frame will be along before its result could be shown.
+  private static final long INFERENCE_DEADLINE_MS = 150;
+  // Results older than this when their turn to be tracked comes are dropped instead of moving the
+  // boxes backwards.
+  private static final long MAX_RESULT_AGE_MS = 400;
+  // Follows tracked boxes on every camera frame by matching patches of the luminance plane.
+  private static final boolean USE_PATCH_TRACKING = true;
+  // Detect every Nth camera frame while objects are tracked; the tracker predicts the others, so
+  // detection only has to re-anchor it.
+  private static final int DETECTION_INTERVAL = USE_PATCH_TRACKING ? 3 : 2;
+  // Skips detection on frames whose luminance signature barely differs from the last detected
+  // frame, for example while the wearer stands still, but reruns it at least every
+  // SCENE_REFRESH_INTERVAL frames.
+  private static final boolean USE_SCENE_CHANGE_GATE = true;
+  private static final float SCENE_CHANGE_THRESHOLD = 4.0f;
+  private static final int SCENE_REFRESH_INTERVAL = 30;
+  // Skips detection on motion-blurred frames, which only produce bad detections.
+  private static final boolean USE_SHARPNESS_GATE = true;
+  // Shifts tracked boxes by the image motion the gyroscope predicts for head turns, and detects
+  // every frame while the head turns fast but only every STEADY_DETECTION_INTERVAL frames while
+  // it is still. Falls back to DETECTION_INTERVAL on devices without a gyroscope.
+  private static final boolean USE_GYROSCOPE = true;
+  // Assumed when the camera reports no lens focal length and sensor size.
+  private static final float CAMERA_HORIZONTAL_FOV_DEGREES = 60.0f;
+  private static final int STEADY_DETECTION_INTERVAL = 6;
+  private static final int FAST_DETECTION_INTERVAL = 1;
+  // Angular speeds, in rad/s, at and beyond which the head counts as still and as turning fast.
+  private static final float STEADY_ANGULAR_SPEED = 0.1f;
+  private static final float FAST_ANGULAR_SPEED = 1.0f;
+  // Frames further apart than this, for example across a pause, get no camera motion.
+  private static final long MAX_CAMERA_MOTION_GAP_MS = 200;
+  // Log pipeline throughput and stage occupancy every this many inferences.
+  private static final int PIPELINE_STATS_INTERVAL = 100;
   private static final float TEXT_SIZE_DIP = 10;
   OverlayView trackingOverlay;
   private static final String TAG = "ContentValues";
   private Integer sensorOrientation;
 
   private Classifier detector;
+  // Set on the UI thread once the background load finishes.
+  private Classifier loadedDetector;
+  private ByteBuffer[] loadedInputs;
+
+  // Startup timeline, in uptime milliseconds.
+  private long createTimeMs;
+  private long cameraReadyMs;
+  private volatile long modelReadyMs;
+  private boolean firstDetectionDone = false;
 
   private long lastProcessingTimeMs;
+  // Inference time currently shown, so the label is only rebuilt when it changes.
+  private long shownProcessingTimeMs = -1;
   private Bitmap rgbFrameBitmap = null;
+  private int rgbFrameWidth;
+  private int rgbFrameHeight;
   private Bitmap croppedBitmap = null;
   private Bitmap cropCopyBitmap = null;
 
-  private boolean computingDetection = false;
-
   private long timestamp = 0;
 
+  // Maps the frame onto the detector input, including the detector's fixed 270 degree rotation.
   private Matrix frameToCropTransform;
+  // Same as frameToCropTransform, but from the downsampled RGB frame.
+  private Matrix rgbFrameToCropTransform;
+  // Maps detections back into the frame. This deliberately excludes the 270 degree rotation, as
+  // the tracker's display mapping is calibrated against it.
   private Matrix cropToFrameTransform;
+  private final float[] inputToFrameValues = new float[9];
+
+  // Reused for every frame drawn into croppedBitmap and for the debug copy of it.
+  private Canvas cropCanvas;
+  private Canvas cropCopyCanvas;
+  private Paint cropCopyPaint;
+
+  // Null until the model is loaded; read by the camera thread.
+  private volatile DetectionLoop detectionLoop;
+  private final DetectionLoop.Host loopHost = new LoopHost();
+  // Runs detection requests; bounded so that submitting one does not allocate.
+  private volatile ExecutorService inferenceWorkers;
+  // Reused for debug drawing of every detection.
+  private final RectF debugBox = new RectF();
+  private final Runnable showDetectionInfo = this::showDetectionInfo;
+  private String frameInfo;
+  private String cropInfo;
 
   private MultiBoxTracker tracker;
+  private LuminancePatchTracker patchTracker;
+  private SceneChangeGate sceneChangeGate;
+  private GyroscopeRotationSource gyroscope;
+  private ImageMotionPredictor motionPredictor;
+  // Capture time of the previous frame, on the sensor clock; 0 before the first.
+  private long lastFrameTimeNs = 0;
+  private final float[] cameraMotion = new float[2];
+  private final DetectionScheduler detectionScheduler = new DetectionScheduler(DETECTION_INTERVAL);
+
+  private FrameDumper frameDumper;
 
   private BorderedText borderedText;
 
+  @Override
+  protected void onCreate(final Bundle savedInstanceState) {
+    createTimeMs = SystemClock.uptimeMillis();
+    new Thread(this::loadDetector, "model-loader").start();
+    if (USE_GYROSCOPE) {
+      gyroscope = new GyroscopeRotationSource((SensorManager) getSystemService(SENSOR_SERVICE));
+    }
+    super.onCreate(savedInstanceState);
+  }
+
   @Override
   public void onPreviewSizeChosen(final Size size, final int rotation) {
     final float textSizePx =
@@ -97,26 +236,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     borderedText.setTypeface(Typeface.MONOSPACE);
     tracker = new MultiBoxTracker(this);
 
-    int cropSize = TF_OD_API_INPUT_SIZE;
-
-    try {
-      detector =
-          TFLiteObjectDetectionAPIModel.create(
-              getAssets(),
-              TF_OD_API_MODEL_FILE,
-              TF_OD_API_LABELS_FILE,
-              TF_OD_API_INPUT_SIZE,
-              TF_OD_API_IS_QUANTIZED);
-      cropSize = TF_OD_API_INPUT_SIZE;
-    } catch (final IOException e) {
-      e.printStackTrace();
-      LOGGER.e(e, "Exception initializing classifier!");
-      Toast toast =
-          Toast.makeText(
-              getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-      toast.show();
-      finish();
-    }
+    cameraReadyMs = SystemClock.uptimeMillis();
+    final int cropSize = TF_OD_API_INPUT_SIZE;
 
     previewWidth = size.getWidth();
     previewHeight = size.getHeight();
@@ -125,7 +246,13 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+    frameInfo = previewWidth + "x" + previewHeight;
+    cropInfo = cropSize + "x" + cropSize;
+    ImageUtils.setUseLookupTable(USE_YUV_LOOKUP_TABLE);
+    ImageUtils.setConversionParallelism(YUV_CONVERSION_PARALLELISM);
+    rgbFrameWidth = ImageUtils.getDownsampledLength(previewWidth, RGB_FRAME_DOWNSAMPLING);
+    rgbFrameHeight = ImageUtils.getDownsampledLength(previewHeight, RGB_FRAME_DOWNSAMPLING);
+    rgbFrameBitmap = Bitmap.createBitmap(rgbFrameWidth, rgbFrameHeight, Config.ARGB_8888);
     croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
 
@@ -138,6 +265,43 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
+    // Tracked boxes are in the unrotated space, so they reach the frame through the detector input.
+    final Matrix trackerToLuminance = new Matrix(frameToCropTransform);
+
+    // Fold the rotation the detector expects into the frame transform, so its input is produced
+    // with a single draw.
+    frameToCropTransform.postRotate(270, cropSize / 2.0f, cropSize / 2.0f);
+    final Matrix inputToFrameTransform = new Matrix();
+    frameToCropTransform.invert(inputToFrameTransform);
+    inputToFrameTransform.getValues(inputToFrameValues);
+    trackerToLuminance.postConcat(inputToFrameTransform);
+
+    rgbFrameToCropTransform = new Matrix(frameToCropTransform);
+    rgbFrameToCropTransform.preScale(
+        previewWidth / (float) rgbFrameWidth, previewHeight / (float) rgbFrameHeight);
+
+    cropCanvas = new Canvas(croppedBitmap);
+    cropCopyBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+    cropCopyCanvas = new Canvas(cropCopyBitmap);
+    cropCopyPaint = new Paint();
+    cropCopyPaint.setColor(Color.RED);
+    cropCopyPaint.setStyle(Style.STROKE);
+    cropCopyPaint.setStrokeWidth(2.0f);
+
+    if (frameDumper != null) {
+      frameDumper.close();
+    }
+    if (SAVE_PREVIEW_BITMAP) {
+      frameDumper =
+          new FrameDumper(
+              ImageUtils.getSaveDirectory(),
+              cropSize,
+              cropSize,
+              SAVE_PREVIEW_QUEUE_SIZE,
+              SAVE_PREVIEW_FORMAT,
+              SAVE_PREVIEW_INTERVAL,
+              SAVE_PREVIEW_MAX_FILES);
+    }
 
     //====================================
       Context c1 = this; // To get the context for vibrations on the device
@@ -153,7 +317,187 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                 tracker.drawDebug(canvas);
               }
             });
+    trackingOverlay.setOnLongClickListener(
+        v -> {
+          final FrameDumper dumper = frameDumper;
+          if (dumper == null) {
+            return false;
+          }
+          dumper.trigger();
+          return true;
+        });
     tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    if (USE_PATCH_TRACKING || gyroscope != null) {
+      tracker.setLuminanceTransform(trackerToLuminance);
+    }
+    if (USE_PATCH_TRACKING) {
+      patchTracker = new LuminancePatchTracker(previewWidth, previewHeight);
+    }
+    if (gyroscope != null) {
+      // Predicts on the luminance plane, which is what the tracker takes camera motion in.
+      motionPredictor =
+          new ImageMotionPredictor(
+              gyroscope,
+              getFocalLength(previewWidth, previewHeight),
+              rotation);
+    }
+    if (USE_SCENE_CHANGE_GATE) {
+      sceneChangeGate =
+          new SceneChangeGate(
+              previewWidth,
+              previewHeight,
+              SCENE_CHANGE_THRESHOLD,
+              SCENE_REFRESH_INTERVAL,
+              PIPELINE_DEPTH);
+    }
+    startDetectionIfReady();
+  }
+
+  /**
+   * Returns the focal length of the camera in pixels of frames of the given size, from the lens
+   * focal length and sensor size that Camera2 reports, or from CAMERA_HORIZONTAL_FOV_DEGREES if
+   * it reports neither.
+   */
+  private float getFocalLength(final int frameWidth, final int frameHeight) {
+    final CameraCharacteristics characteristics = getCameraCharacteristics();
+    if (characteristics != null) {
+      final float[] focalLengths =
+          characteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+      final SizeF physicalSize =
+          characteristics.get(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+      final Size pixelArray =
+          characteristics.get(CameraCharacteristics.SENSOR_INFO_PIXEL_ARRAY_SIZE);
+      final Rect activeArray =
+          characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+      if (focalLengths != null
+          && focalLengths.length > 0
+          && physicalSize != null
+          && pixelArray != null
+          && activeArray != null) {
+        // The physical size covers the whole pixel array. Frames span the width of the active
+        // array, unless they are narrower in aspect, in which case its sides are cropped off.
+        final float spannedPx =
+            Math.min(activeArray.width(), (float) activeArray.height() * frameWidth / frameHeight);
+        final float sensorWidthMm = physicalSize.getWidth() * spannedPx / pixelArray.getWidth();
+        // Without optical zoom, which is the norm, there is a single focal length.
+        final float focalLength =
+            ImageMotionPredictor.getFocalLength(frameWidth, focalLengths[0], sensorWidthMm);
+        LOGGER.i(
+            "Focal length %.1f px from a %.2f mm lens on %.2f mm of sensor",
+            focalLength,
+            focalLengths[0],
+            sensorWidthMm);
+        return focalLength;
+      }
+    }
+    LOGGER.w(
+        "No lens focal length or sensor size, assuming a %.0f degree field of view",
+        CAMERA_HORIZONTAL_FOV_DEGREES);
+    return ImageMotionPredictor.getFocalLength(frameWidth, CAMERA_HORIZONTAL_FOV_DEGREES);
+  }
+
+  /** Loads the model in the background, in parallel with opening the camera. */
+  private void loadDetector() {
+    final Classifier loaded;
+    final ByteBuffer[] inputs = new ByteBuffer[PIPELINE_DEPTH];
+    try {
+      // A detector left over from before the activity was recreated is reused as it is.
+      loaded =
+          DetectorCache.acquire(
+              DetectorCache.key(
+                  TF_OD_API_MODEL_FILE,
+                  TF_OD_API_LABELS_FILE,
+                  TF_OD_API_INPUT_SIZE,
+                  INFERENCE_WORKERS),
+              () -> {
+                final Classifier created =
+                    TFLiteObjectDetectionAPIModel.createPool(
+                        getAssets(),
+                        TF_OD_API_MODEL_FILE,
+                        TF_OD_API_LABELS_FILE,
+                        TF_OD_API_INPUT_SIZE,
+                        INFERENCE_WORKERS);
+                // The first inference allocates the interpreter's tensors, so pay for it on a
+                // blank input rather than on the first camera frame, once per pooled interpreter.
+                final ByteBuffer blank = created.allocateInputBuffer();
+                for (int i = 0; i < INFERENCE_WORKERS; ++i) {
+                  created.detect(blank);
+                }
+                return created;
+              });
+      for (int i = 0; i < inputs.length; ++i) {
+        inputs[i] = loaded.allocateInputBuffer();
+      }
+      if (AUTO_TUNE_INTERPRETER) {
+        tuneInterpreter(loaded, inputs[0]);
+      }
+    } catch (final IOException e) {
+      LOGGER.e(e, "Exception initializing classifier!");
+      runOnUiThread(
+          () -> {
+            Toast toast =
+                Toast.makeText(
+                    getApplicationContext(),
+                    "Classifier could not be initialized",
+                    Toast.LENGTH_SHORT);
+            toast.show();
+            finish();
+          });
+      return;
+    }
+    modelReadyMs = SystemClock.uptimeMillis();
+
+    runOnUiThread(
+        () -> {
+          if (isDestroyed()) {
+            DetectorCache.release(loaded);
+            return;
+          }
+          loadedDetector = loaded;
+          loadedInputs = inputs;
+          startDetectionIfReady();
+        });
+  }
+
+  /**
+   * Starts detection once both the model is loaded and the preview size is known, whichever
+   * comes last. Runs on the UI thread.
+   */
+  private void startDetectionIfReady() {
+    if (loadedDetector == null || cropToFrameTransform == null || detectionLoop != null) {
+      return;
+    }
+
+    // Push filtering down into the detector. The tracker's minimum size is in frame pixels, so it
+    // is mapped back through the same transform detections are mapped out with.
+    final Matrix frameToDetectionTransform = new Matrix();
+    cropToFrameTransform.invert(frameToDetectionTransform);
+    final RectF minBoxSize = new RectF(0, 0, MultiBoxTracker.MIN_SIZE, MultiBoxTracker.MIN_SIZE);
+    frameToDetectionTransform.mapRect(minBoxSize);
+    loadedDetector.setDetectionQuery(
+        new DetectionQuery()
+            .setMinScore(MINIMUM_CONFIDENCE_TF_OD_API)
+            .setAllowedLabels(TRACKED_LABELS_TF_OD_API)
+            .setMinBoxSize(minBoxSize.width(), minBoxSize.height()));
+
+    detector = loadedDetector;
+    final DetectionLoop loop =
+        new DetectionLoop(
+            loadedDetector,
+            loadedInputs,
+            INFERENCE_WORKERS,
+            this::executeInference,
+            Clock.ELAPSED_REALTIME,
+            tracker,
+            detectionScheduler,
+            cropToFrameTransform,
+            loopHost);
+    loop.setPatchTracker(patchTracker);
+    loop.setSceneChangeGate(sceneChangeGate);
+    loop.setInferenceDeadline(TimeUnit.MILLISECONDS.toNanos(INFERENCE_DEADLINE_MS));
+    loop.setMaxResultAge(TimeUnit.MILLISECONDS.toNanos(MAX_RESULT_AGE_MS));
+    // Publishing the loop is what lets frames through to the detector.
+    detectionLoop = loop;
   }
 
   @Override
@@ -162,78 +506,223 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     final long currTimestamp = timestamp;
     trackingOverlay.postInvalidate();
 
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
+    final DetectionLoop loop = detectionLoop;
+    if (loop == null) {
+      // The model is still loading.
       readyForNextImage();
       return;
     }
-    computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
 
+    final long frameTimeNs = getFrameTimestampNs();
+    if (motionPredictor != null && lastFrameTimeNs != 0) {
+      if (frameTimeNs - lastFrameTimeNs
+              <= TimeUnit.MILLISECONDS.toNanos(MAX_CAMERA_MOTION_GAP_MS)
+          && motionPredictor.predict(lastFrameTimeNs, frameTimeNs, cameraMotion)) {
+        tracker.addCameraMotion(currTimestamp, cameraMotion[0], cameraMotion[1]);
+      }
+      detectionScheduler.setAngularSpeed(motionPredictor.getAngularSpeed(frameTimeNs));
+    }
+    lastFrameTimeNs = frameTimeNs;
 
-    readyForNextImage();
+    if (!loop.processFrame(currTimestamp, frameTimeNs, getLuminance(), getLuminanceStride())) {
+      readyForNextImage();
+    }
+  }
 
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+  private void executeInference(final Runnable request) {
+    final ExecutorService workers = inferenceWorkers;
+    if (workers == null) {
+      throw new RejectedExecutionException("Paused");
+    }
+    workers.execute(request);
+  }
 
-    // For examining the actual TF input.
-    if (SAVE_PREVIEW_BITMAP) {
-      ImageUtils.saveBitmap(croppedBitmap);
+  /** Converts and dumps the frames the detection loop picks, and reports on what it detected. */
+  private class LoopHost implements DetectionLoop.Host {
+    @Override
+    public boolean isFrameSharp() {
+      return DetectorActivity.this.isFrameSharp();
     }
 
-    runInBackground(
-            () -> {
-              LOGGER.i("Running detection on image " + currTimestamp);
-              final long startTime = SystemClock.uptimeMillis();
-  //================================
-              // Rotating the bitmap before passing it to the object detection API
-              Matrix matrix = new Matrix();
-              matrix.postRotate(270);
+    @Override
+    public void convert(final FramePipeline.Frame frame) {
+      if (USE_FUSED_PREPROCESSING) {
+        convertToInputTensor(
+            inputToFrameValues,
+            detector.getInputSize(),
+            detector.getQuantizedLookup(),
+            detector.getNormalizedLookup(),
+            frame.input);
+      }
+      final boolean dumpFrame = frameDumper != null && frameDumper.sample();
+      final boolean drawCroppedBitmap = !USE_FUSED_PREPROCESSING || dumpFrame || isDebug();
+      if (drawCroppedBitmap) {
+        rgbFrameBitmap.setPixels(
+            getRgbBytes(), 0, rgbFrameWidth, 0, 0, rgbFrameWidth, rgbFrameHeight);
+      }
 
-              Bitmap rotatedBitmap = Bitmap.createBitmap(croppedBitmap, 0, 0, croppedBitmap.getWidth() , croppedBitmap.getHeight(), matrix, true);
+      readyForNextImage();
 
-              final List<Classifier.Recognition> results = detector.recognizeImage(rotatedBitmap);
-  //================================
+      if (drawCroppedBitmap) {
+        cropCanvas.drawBitmap(rgbFrameBitmap, rgbFrameToCropTransform, null);
+      }
+      if (!USE_FUSED_PREPROCESSING) {
+        // croppedBitmap is already rotated the way the object detection API expects.
+        detector.preprocess(croppedBitmap, frame.input);
+      }
+
+      // For examining the actual TF input.
+      if (dumpFrame) {
+        frameDumper.submit(croppedBitmap, frame.timestamp);
+      }
+    }
 
-              lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+    @Override
+    public void onDetected(final Detections detections) {
+      if (isDebug()) {
+        // The camera thread may already have drawn a newer frame into croppedBitmap.
+        cropCopyCanvas.drawBitmap(croppedBitmap, 0, 0, null);
+        for (int i = 0; i < detections.count; ++i) {
+          detections.getBox(i, debugBox);
+          cropCopyCanvas.drawRect(debugBox, cropCopyPaint);
+        }
+      }
+
+      if (!firstDetectionDone) {
+        firstDetectionDone = true;
+        LOGGER.i(
+            "Startup timeline: camera ready %d ms, model ready %d ms, first detection %d ms",
+            cameraReadyMs - createTimeMs,
+            modelReadyMs - createTimeMs,
+            SystemClock.uptimeMillis() - createTimeMs);
+      }
+    }
 
-              cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-              final Canvas canvas1 = new Canvas(cropCopyBitmap);
-              final Paint paint = new Paint();
-              paint.setColor(Color.RED);
-              paint.setStyle(Style.STROKE);
-              paint.setStrokeWidth(2.0f);
+    @Override
+    public void onRequestDone(final AsyncDetector.Request request) {
+      if (request.getFailure() != null) {
+        LOGGER.e(
+            request.getFailure(), "Detection failed on frame %d", request.getFrame().timestamp);
+      } else if (request.getDetections() != null) {
+        lastProcessingTimeMs = TimeUnit.NANOSECONDS.toMillis(request.getInferenceTimeNs());
+      }
+      trackingOverlay.postInvalidate();
+
+      final DetectionLoop loop = detectionLoop;
+      if (loop.getPipeline().getInferredFrames() % PIPELINE_STATS_INTERVAL == 0) {
+        LOGGER.i("Pipeline: %s", loop.getPipeline().getStatString());
+        LOGGER.i("Detector: %s", loop.getDetector().getStatString());
+        LOGGER.i("Detection: %s", detectionScheduler.getStatString());
+        if (patchTracker != null) {
+          LOGGER.i("Patch tracking: %s", patchTracker.getStatString());
+        }
+        if (sceneChangeGate != null) {
+          LOGGER.i("Scene change gate: %s", sceneChangeGate.getStatString());
+        }
+        final String sharpnessStats = getSharpnessStatString();
+        if (sharpnessStats != null) {
+          LOGGER.i("Sharpness gate: %s", sharpnessStats);
+        }
+      }
+
+      runOnUiThread(showDetectionInfo);
+    }
+  }
 
-              float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-              final List<Classifier.Recognition> mappedRecognitions =
-                      new LinkedList<>();
+  private void showDetectionInfo() {
+    showFrameInfo(frameInfo);
+    showCropInfo(cropInfo);
+    final long processingTimeMs = lastProcessingTimeMs;
+    if (processingTimeMs != shownProcessingTimeMs) {
+      shownProcessingTimeMs = processingTimeMs;
+      showInference(processingTimeMs + "ms");
+    }
+  }
 
-              for (final Classifier.Recognition result : results) {
-                final RectF location = result.getLocation();
+  private void tuneInterpreter(final Classifier loaded, final ByteBuffer input) throws IOException {
+    final InterpreterAutoTuner tuner =
+        new InterpreterAutoTuner(
+            this,
+            InterpreterAutoTuner.computeKey(getAssets(), TF_OD_API_MODEL_FILE, INFERENCE_WORKERS));
+    final InterpreterAutoTuner.Configuration configuration =
+        tuner.getOrTune(
+            loaded, input, MAX_TUNED_THREADS, INFERENCE_WORKERS, FORCE_INTERPRETER_RETUNE);
+    runOnUiThread(
+        () -> showInterpreterConfiguration(configuration.numThreads, configuration.useNNAPI));
+  }
 
-                if (location != null && result.getConfidence() >= minimumConfidence) {
-                  canvas1.drawRect(location, paint);
+  @Override
+  public synchronized void onResume() {
+    super.onResume();
+    inferenceWorkers =
+        new ThreadPoolExecutor(
+            INFERENCE_WORKERS,
+            INFERENCE_WORKERS,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(INFERENCE_WORKERS),
+            r -> new Thread(r, "inference-worker"));
+    if (gyroscope != null && gyroscope.start()) {
+      detectionScheduler.setIntervalRange(
+          FAST_DETECTION_INTERVAL,
+          STEADY_DETECTION_INTERVAL,
+          STEADY_ANGULAR_SPEED,
+          FAST_ANGULAR_SPEED);
+    } else {
+      if (gyroscope != null) {
+        LOGGER.w("No gyroscope, detecting at a fixed interval");
+      }
+      detectionScheduler.setInterval(DETECTION_INTERVAL);
+    }
+  }
 
-                    cropToFrameTransform.mapRect(location);
-                  result.setLocation(location);
-                  mappedRecognitions.add(result);
-                }
-              }
+  @Override
+  public synchronized void onPause() {
+    // Let running inferences finish. Requests submitted after this are rejected, and queued ones
+    // are cancelled rather than run.
+    inferenceWorkers.shutdown();
+    if (detectionLoop != null) {
+      detectionLoop.cancelQueued();
+    }
+    try {
+      inferenceWorkers.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      LOGGER.e(e, "Exception!");
+    }
+    inferenceWorkers = null;
+    if (gyroscope != null) {
+      gyroscope.stop();
+    }
+    super.onPause();
+  }
 
-              tracker.trackResults(mappedRecognitions, currTimestamp);
-              trackingOverlay.postInvalidate();
+  @Override
+  public synchronized void onDestroy() {
+    if (frameDumper != null) {
+      LOGGER.i(
+          "Frame dumps written: %d, dropped: %d, failed: %d",
+          frameDumper.getWrittenCount(),
+          frameDumper.getDroppedCount(),
+          frameDumper.getFailedCount());
+      frameDumper.close();
+      frameDumper = null;
+    }
+    // The inference threads have already stopped in onPause, so nothing is using the detector.
+    if (loadedDetector != null) {
+      DetectorCache.release(loadedDetector);
+      loadedDetector = null;
+    }
+    super.onDestroy();
+  }
 
-              computingDetection = false;
+  @Override
+  protected int getRgbFrameDownsampling() {
+    return RGB_FRAME_DOWNSAMPLING;
+  }
 
-              runOnUiThread(
-                      () -> {
-                        showFrameInfo(previewWidth + "x" + previewHeight);
-                        showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                        showInference(lastProcessingTimeMs + "ms");
-                      });
-            });
+  @Override
+  protected boolean useSharpnessGate() {
+    return USE_SHARPNESS_GATE;
   }
 
   @Override
@@ -254,11 +743,21 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   @Override
   protected void setUseNNAPI(final boolean isChecked) {
-    runInBackground(() -> detector.setUseNNAPI(isChecked));
+    runInBackground(
+        () -> {
+          if (detector != null) {
+            detector.setUseNNAPI(isChecked);
+          }
+        });
   }
 
   @Override
   protected void setNumThreads(final int numThreads) {
-    runInBackground(() -> detector.setNumThreads(numThreads));
+    runInBackground(
+        () -> {
+          if (detector != null) {
+            detector.setNumThreads(numThreads);
+          }
+        });
   }
 }
@@ -0,0 +1,27 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.os.SystemClock;
+
+/** Source of monotonic time, so that time-dependent classes can be driven off-device. */
+public interface Clock {
+  /** Time since boot, including deep sleep; the clock camera frames and sensor events use. */
+  Clock ELAPSED_REALTIME = SystemClock::elapsedRealtimeNanos;
+
+  long nanoTime();
+}
@@ -0,0 +1,263 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Saves sampled frames to disk for analysis without blocking the caller. Frames are copied into a
+ * small pool of pixel buffers and written by a background thread. When the queue is full the
+ * oldest pending frame is dropped in favour of the new one. Files are named after a ring of slots,
+ * so a long session overwrites its oldest dumps instead of filling the storage.
+ */
+public class FrameDumper {
+  private static final Logger LOGGER = new Logger();
+
+  /** On-disk format of dumped frames. */
+  public enum Format {
+    /** Compressed PNG; smallest files, but the most expensive to encode. */
+    PNG,
+    /** Uncompressed ARGB_8888 pixels, one big-endian int per pixel. */
+    RAW
+  }
+
+  private final File directory;
+  private final int width;
+  private final int height;
+  private final Format format;
+  private final int sampleInterval;
+  private final int maxFiles;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<Dump> pending;
+  private final ArrayDeque<Dump> free;
+  private final Thread writerThread;
+  private boolean closed = false;
+
+  // Only touched by the thread calling sample().
+  private long sampledFrames = 0;
+  private volatile boolean triggered = false;
+  // Only touched by the writer thread.
+  private long nextSlot = 0;
+
+  private long writtenCount = 0;
+  private long droppedCount = 0;
+  private long failedCount = 0;
+
+  /**
+   * @param directory Directory frames are written to. It is created if needed.
+   * @param width Width of the frames that will be submitted.
+   * @param height Height of the frames that will be submitted.
+   * @param capacity Maximum number of frames waiting to be written.
+   * @param format On-disk format.
+   * @param sampleInterval Dump every Nth frame passed to {@link #sample()}, or only triggered
+   *     frames if 0.
+   * @param maxFiles Number of files dumps rotate through.
+   */
+  public FrameDumper(
+      final File directory,
+      final int width,
+      final int height,
+      final int capacity,
+      final Format format,
+      final int sampleInterval,
+      final int maxFiles) {
+    this.directory = directory;
+    this.width = width;
+    this.height = height;
+    this.format = format;
+    this.sampleInterval = Math.max(0, sampleInterval);
+    this.maxFiles = Math.max(1, maxFiles);
+
+    pending = new ArrayDeque<>(capacity);
+    free = new ArrayDeque<>(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      free.add(new Dump(width * height));
+    }
+
+    writerThread = new Thread(this::writeLoop, "frame-dumper");
+    writerThread.setPriority(Thread.MIN_PRIORITY);
+    writerThread.start();
+  }
+
+  /**
+   * Requests that the next sampled frame is dumped regardless of the sampling interval. May be
+   * called from any thread.
+   */
+  public void trigger() {
+    triggered = true;
+  }
+
+  /**
+   * Advances the frame count and returns whether the current frame should be passed to {@link
+   * #submit}. Lets callers skip preparing frames that would not be dumped.
+   */
+  public boolean sample() {
+    ++sampledFrames;
+    if (triggered) {
+      triggered = false;
+      return true;
+    }
+    return sampleInterval > 0 && sampledFrames % sampleInterval == 0;
+  }
+
+  /**
+   * Copies the bitmap's pixels and queues them for writing. Only the pixel copy happens on the
+   * calling thread.
+   */
+  public void submit(final Bitmap bitmap, final long frameIndex) {
+    final Dump dump;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      if (!free.isEmpty()) {
+        dump = free.poll();
+      } else {
+        // Drop the oldest pending frame and reuse its buffer.
+        dump = pending.poll();
+        ++droppedCount;
+        if (dump == null) {
+          // Every buffer is being written right now.
+          return;
+        }
+      }
+    }
+
+    bitmap.getPixels(dump.pixels, 0, width, 0, 0, width, height);
+    dump.frameIndex = frameIndex;
+
+    synchronized (lock) {
+      pending.add(dump);
+      lock.notifyAll();
+    }
+  }
+
+  public long getWrittenCount() {
+    synchronized (lock) {
+      return writtenCount;
+    }
+  }
+
+  /** Number of frames that were sampled but never written because the queue was full. */
+  public long getDroppedCount() {
+    synchronized (lock) {
+      return droppedCount;
+    }
+  }
+
+  public long getFailedCount() {
+    synchronized (lock) {
+      return failedCount;
+    }
+  }
+
+  /** Stops accepting frames and discards those not yet written. */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      droppedCount += pending.size();
+      pending.clear();
+      lock.notifyAll();
+    }
+  }
+
+  private void writeLoop() {
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      LOGGER.w("Could not create %s", directory);
+    }
+    final Bitmap bitmap =
+        format == Format.PNG ? Bitmap.createBitmap(width, height, Config.ARGB_8888) : null;
+    final ByteBuffer rawBuffer =
+        format == Format.RAW ? ByteBuffer.allocateDirect(width * height * 4) : null;
+
+    while (true) {
+      final Dump dump;
+      synchronized (lock) {
+        while (pending.isEmpty() && !closed) {
+          try {
+            lock.wait();
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+        if (closed) {
+          return;
+        }
+        dump = pending.poll();
+      }
+
+      final long slot = nextSlot++ % maxFiles;
+      boolean written = false;
+      try {
+        if (format == Format.PNG) {
+          bitmap.setPixels(dump.pixels, 0, width, 0, 0, width, height);
+          writePng(bitmap, new File(directory, "preview_" + slot + ".png"));
+        } else {
+          rawBuffer.clear();
+          rawBuffer.asIntBuffer().put(dump.pixels);
+          writeRaw(
+              rawBuffer,
+              new File(directory, "preview_" + slot + "_" + width + "x" + height + ".argb"));
+        }
+        LOGGER.d("Dumped frame %d to slot %d", dump.frameIndex, slot);
+        written = true;
+      } catch (final IOException e) {
+        LOGGER.e(e, "Failed to dump frame %d", dump.frameIndex);
+      }
+
+      synchronized (lock) {
+        if (written) {
+          ++writtenCount;
+        } else {
+          ++failedCount;
+        }
+        free.add(dump);
+      }
+    }
+  }
+
+  private static void writePng(final Bitmap bitmap, final File file) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+    }
+  }
+
+  private static void writeRaw(final ByteBuffer pixels, final File file) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file);
+        FileChannel channel = out.getChannel()) {
+      while (pixels.hasRemaining()) {
+        channel.write(pixels);
+      }
+    }
+  }
+
+  private static class Dump {
+    final int[] pixels;
+    long frameIndex;
+
+    Dump(final int size) {
+      pixels = new int[size];
+    }
+  }
+}
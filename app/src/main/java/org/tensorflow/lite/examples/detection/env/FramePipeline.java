@@ -0,0 +1,279 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands preprocessed frames from the conversion stage (the camera thread) to the inference stage,
+ * so the next frame can be converted while the current one is being inferred.
+ *
+ * <p>Frames cycle through a fixed pool of input buffers. Between the stages there is a single
+ * hand-off slot with a latest-frame-wins policy: a newly converted frame replaces one that is
+ * still waiting, and the replaced frame goes straight back to the pool.
+ *
+ * <p>Up to a fixed number of inference workers may run at once. Whoever starts a worker is
+ * responsible for scheduling it. Workers can finish out of order, so finished frames are handed
+ * out oldest first, and only once no older frame is still being inferred.
+ *
+ * <p>Frames are aged from their camera capture time. A finished frame older than the {@link
+ * #setMaxResultAge maximum result age} is recycled instead of handed out:
+ *
+ * <pre>
+ *   Frame frame = pipeline.acquireForConversion(captureNs);  // camera thread
+ *   ... convert into frame.input ...
+ *   if (pipeline.publish(frame)) schedule a worker;
+ *
+ *   Frame frame = pipeline.takeForInference();               // worker
+ *   ... run the detector on frame.input ...
+ *   boolean again = pipeline.finishInference(frame);
+ *   while ((frame = pipeline.pollFinished()) != null) {
+ *     ... consume the result of frame ...
+ *     pipeline.recycle(frame);
+ *   }
+ *   if (again) schedule a worker;
+ * </pre>
+ */
+public class FramePipeline {
+  /** A pooled input buffer and the frame it currently holds. */
+  public static class Frame {
+    /** Position of this frame's buffer in the array passed to the constructor. */
+    public final int index;
+    public final ByteBuffer input;
+    public long timestamp;
+    /** When the camera captured the frame, on the pipeline's clock. */
+    public long captureNs;
+    private long stageStartNs;
+    private boolean finished;
+
+    Frame(final int index, final ByteBuffer input) {
+      this.index = index;
+      this.input = input;
+    }
+  }
+
+  private final int maxWorkers;
+  private final Clock clock;
+  private final ArrayBlockingQueue<Frame> free;
+  private final AtomicReference<Frame> pending = new AtomicReference<>();
+  private final AtomicInteger runningWorkers = new AtomicInteger();
+  // Frames taken for inference and not yet recycled, in the order they were taken.
+  private final ArrayDeque<Frame> inferring;
+  private volatile long maxResultAgeNs = Long.MAX_VALUE;
+
+  // Metrics.
+  private final long startNs;
+  private final AtomicLong convertBusyNs = new AtomicLong();
+  private final AtomicLong inferenceBusyNs = new AtomicLong();
+  private final AtomicLong pendingOccupiedNs = new AtomicLong();
+  private final AtomicLong convertedFrames = new AtomicLong();
+  private final AtomicLong inferredFrames = new AtomicLong();
+  private final AtomicLong supersededFrames = new AtomicLong();
+  private final AtomicLong starvedFrames = new AtomicLong();
+  private final AtomicLong staleFrames = new AtomicLong();
+
+  /**
+   * @param inputs Buffers to cycle frames through. maxWorkers + 2 are enough for one frame being
+   *     converted, one waiting and one being inferred per worker.
+   * @param maxWorkers Maximum number of inference workers running at once.
+   */
+  public FramePipeline(final ByteBuffer[] inputs, final int maxWorkers) {
+    this(inputs, maxWorkers, Clock.ELAPSED_REALTIME);
+  }
+
+  /** @param clock Clock that capture times are given on. */
+  public FramePipeline(final ByteBuffer[] inputs, final int maxWorkers, final Clock clock) {
+    this.maxWorkers = maxWorkers;
+    this.clock = clock;
+    startNs = clock.nanoTime();
+    free = new ArrayBlockingQueue<>(inputs.length);
+    inferring = new ArrayDeque<>(inputs.length);
+    for (int i = 0; i < inputs.length; ++i) {
+      free.add(new Frame(i, inputs[i]));
+    }
+  }
+
+  /**
+   * Drops finished frames that are older than this when their turn comes, so stale results are
+   * never consumed. Unlimited by default.
+   */
+  public void setMaxResultAge(final long nanos) {
+    maxResultAgeNs = nanos;
+  }
+
+  /**
+   * Returns a frame to convert into, or null if every buffer is in use, in which case the camera
+   * frame should be dropped.
+   *
+   * @param captureNs When the camera captured the frame, on the pipeline's clock.
+   */
+  public Frame acquireForConversion(final long captureNs) {
+    final Frame frame = free.poll();
+    if (frame == null) {
+      starvedFrames.incrementAndGet();
+      return null;
+    }
+    frame.captureNs = captureNs;
+    frame.stageStartNs = clock.nanoTime();
+    return frame;
+  }
+
+  /** Gives back a frame from {@link #acquireForConversion} without publishing it. */
+  public void abandon(final Frame frame) {
+    free.offer(frame);
+  }
+
+  /**
+   * Hands a converted frame to the inference stage, replacing any frame still waiting there.
+   *
+   * @return true if a worker was started and the caller must now schedule it.
+   */
+  public boolean publish(final Frame frame) {
+    final long now = clock.nanoTime();
+    convertBusyNs.addAndGet(now - frame.stageStartNs);
+    convertedFrames.incrementAndGet();
+    frame.stageStartNs = now;
+
+    final Frame replaced = pending.getAndSet(frame);
+    if (replaced != null) {
+      pendingOccupiedNs.addAndGet(now - replaced.stageStartNs);
+      supersededFrames.incrementAndGet();
+      free.offer(replaced);
+    }
+    return tryStartWorker();
+  }
+
+  private boolean tryStartWorker() {
+    while (true) {
+      final int running = runningWorkers.get();
+      if (running >= maxWorkers) {
+        return false;
+      }
+      if (runningWorkers.compareAndSet(running, running + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Takes the latest converted frame, or returns null if there is none, in which case the worker
+   * has stopped.
+   */
+  public Frame takeForInference() {
+    final long now = clock.nanoTime();
+    final Frame frame;
+    synchronized (inferring) {
+      // Taken under the lock so that frames enter the in-flight queue in timestamp order.
+      frame = pending.getAndSet(null);
+      if (frame != null) {
+        frame.finished = false;
+        inferring.add(frame);
+      }
+    }
+    if (frame == null) {
+      runningWorkers.decrementAndGet();
+      // A frame published while this worker was still counted could not start a worker of its
+      // own, so pick it up.
+      return pending.get() != null && tryStartWorker() ? takeForInference() : null;
+    }
+    pendingOccupiedNs.addAndGet(now - frame.stageStartNs);
+    frame.stageStartNs = now;
+    return frame;
+  }
+
+  /**
+   * Marks a frame's inference as finished. Its result can then be collected through {@link
+   * #pollFinished()}.
+   *
+   * @return true if another frame is waiting and the caller must schedule the worker again;
+   *     otherwise the worker has stopped.
+   */
+  public boolean finishInference(final Frame frame) {
+    inferenceBusyNs.addAndGet(clock.nanoTime() - frame.stageStartNs);
+    inferredFrames.incrementAndGet();
+    synchronized (inferring) {
+      frame.finished = true;
+    }
+
+    if (pending.get() != null) {
+      return true;
+    }
+    runningWorkers.decrementAndGet();
+    // A frame may have been published between the check above and stopping.
+    return pending.get() != null && tryStartWorker();
+  }
+
+  /**
+   * Returns the oldest frame taken for inference if it has finished, or null if there is none or
+   * it is still being inferred. Finished frames past the maximum result age are recycled on the
+   * way. Pass the frame to {@link #recycle} once its result is consumed.
+   */
+  public Frame pollFinished() {
+    final long now = clock.nanoTime();
+    synchronized (inferring) {
+      Frame oldest;
+      while ((oldest = inferring.peek()) != null && oldest.finished) {
+        inferring.poll();
+        if (now - oldest.captureNs <= maxResultAgeNs) {
+          return oldest;
+        }
+        staleFrames.incrementAndGet();
+        free.offer(oldest);
+      }
+      return null;
+    }
+  }
+
+  /** Returns a frame from {@link #pollFinished()} to the pool. */
+  public void recycle(final Frame frame) {
+    free.offer(frame);
+  }
+
+  public long getInferredFrames() {
+    return inferredFrames.get();
+  }
+
+  /** Number of inferred frames whose results were dropped for being too old. */
+  public long getStaleFrames() {
+    return staleFrames.get();
+  }
+
+  /**
+   * Summarizes throughput, drops and the fraction of time each stage was occupied. Inference
+   * occupancy is averaged over the workers.
+   */
+  public String getStatString() {
+    final double elapsedNs = Math.max(1, clock.nanoTime() - startNs);
+    return String.format(
+        "converted %d, inferred %d (%.1f/s), superseded %d, starved %d, stale %d; "
+            + "occupancy convert %.0f%%, hand-off %.0f%%, inference %.0f%% of %d workers",
+        convertedFrames.get(),
+        inferredFrames.get(),
+        inferredFrames.get() * 1e9 / elapsedNs,
+        supersededFrames.get(),
+        starvedFrames.get(),
+        staleFrames.get(),
+        100 * convertBusyNs.get() / elapsedNs,
+        100 * pendingOccupiedNs.get() / elapsedNs,
+        100 * inferenceBusyNs.get() / elapsedNs / maxWorkers,
+        maxWorkers);
+  }
+}
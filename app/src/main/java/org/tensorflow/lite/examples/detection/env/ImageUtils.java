@@ -20,6 +20,8 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
@@ -30,6 +32,65 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  // Per-channel contributions for the table-driven kernel, pre-multiplied by the same integer
+  // coefficients YUV2RGB uses so that both paths are bit-exact.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+  // Saturating clamp to eight bits, indexed by (channel >> 10) + CLAMP_OFFSET. Channel sums range
+  // over roughly [-265000, 548000], so (channel >> 10) stays within [-259, 534].
+  private static final int CLAMP_OFFSET = 512;
+  private static final int[] CLAMP_TABLE = new int[1536];
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * ((i - 16) < 0 ? 0 : (i - 16));
+      RV_TABLE[i] = 1634 * (i - 128);
+      GV_TABLE[i] = -833 * (i - 128);
+      GU_TABLE[i] = -400 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP_TABLE.length; ++i) {
+      final int value = i - CLAMP_OFFSET;
+      CLAMP_TABLE[i] = value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+  }
+
+  private static volatile boolean useLookupTable = false;
+
+  // Splits full-frame conversions into row bands when parallelism is above one.
+  private static volatile RowBandExecutor bandExecutor = null;
+  // Band task of convertYUV420ToARGB8888Box2x2, reused by every call that splits into bands.
+  private static final Box2x2Task BOX_2X2_TASK = new Box2x2Task();
+  // Row of pixels the input tensor kernels convert before writing it through a lookup.
+  private static final ThreadLocal<InputRow> INPUT_ROW = new ThreadLocal<>();
+
+  /**
+   * Selects the table-driven YUV to RGB kernel instead of the multiply-and-clamp one. Both produce
+   * identical output; the table-driven kernel trades the per-pixel arithmetic for five table reads.
+   */
+  public static void setUseLookupTable(final boolean useLookupTable) {
+    ImageUtils.useLookupTable = useLookupTable;
+  }
+
+  /**
+   * Sets how many row bands, each on its own thread, full-frame YUV conversions are split into. A
+   * value of 1 converts on the calling thread only. Output is identical at every level.
+   */
+  public static synchronized void setConversionParallelism(final int parallelism) {
+    final RowBandExecutor current = bandExecutor;
+    final int currentParallelism = current == null ? 1 : current.getParallelism();
+    if (parallelism == currentParallelism) {
+      return;
+    }
+    bandExecutor = parallelism > 1 ? new RowBandExecutor(parallelism) : null;
+    if (current != null) {
+      current.shutdown();
+    }
+  }
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
    * dimensions.
@@ -45,6 +106,12 @@ public class ImageUtils {
     return ySize + uvSize;
   }
 
+  /** Returns the directory bitmaps and frame dumps are saved to for analysis. */
+  public static File getSaveDirectory() {
+    return new File(
+        Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "tensorflow");
+  }
+
   /**
    * Saves a Bitmap object to disk for analysis.
    *
@@ -61,10 +128,8 @@ public class ImageUtils {
    * @param filename The location to save the bitmap to.
    */
   public static void saveBitmap(final Bitmap bitmap, final String filename) {
-    final String root =
-        Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "tensorflow";
-    LOGGER.i("Saving %dx%d bitmap to %s.", bitmap.getWidth(), bitmap.getHeight(), root);
-    final File myDir = new File(root);
+    final File myDir = getSaveDirectory();
+    LOGGER.i("Saving %dx%d bitmap to %s.", bitmap.getWidth(), bitmap.getHeight(), myDir);
 
     if (!myDir.mkdirs()) {
       LOGGER.i("Make dir failed");
@@ -85,9 +150,24 @@ public class ImageUtils {
     }
   }
 
-  public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input, final int width, final int height, final int[] output) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420SPToARGB8888Rows(input, width, height, output, 0, height, lut);
+    } else {
+      executor.execute(
+          height,
+          (startRow, endRow) ->
+              convertYUV420SPToARGB8888Rows(input, width, height, output, startRow, endRow, lut));
+    }
+  }
+
+  private static void convertYUV420SPToARGB8888Rows(
+      byte[] input, int width, int height, int[] output, int startRow, int endRow, boolean lut) {
     final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
+    for (int j = startRow, yp = startRow * width; j < endRow; j++) {
       int uvp = frameSize + (j >> 1) * width;
       int u = 0;
       int v = 0;
@@ -99,12 +179,12 @@ public class ImageUtils {
           u = 0xff & input[uvp++];
         }
 
-        output[yp] = YUV2RGB(y, u, v);
+        output[yp] = YUV2RGB(y, u, v, lut);
       }
     }
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
@@ -128,26 +208,774 @@ public class ImageUtils {
     return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
   }
 
+  /** Table-driven equivalent of {@link #YUV2RGB(int, int, int)}. */
+  static int YUV2RGBLookup(int y, int u, int v) {
+    final int yContribution = Y_TABLE[y];
+    final int r = CLAMP_TABLE[((yContribution + RV_TABLE[v]) >> 10) + CLAMP_OFFSET];
+    final int g = CLAMP_TABLE[((yContribution + GV_TABLE[v] + GU_TABLE[u]) >> 10) + CLAMP_OFFSET];
+    final int b = CLAMP_TABLE[((yContribution + BU_TABLE[u]) >> 10) + CLAMP_OFFSET];
+    return 0xff000000 | (r << 16) | (g << 8) | b;
+  }
+
+  private static int YUV2RGB(int y, int u, int v, boolean lut) {
+    return lut ? YUV2RGBLookup(y, u, v) : YUV2RGB(y, u, v);
+  }
+
   public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420ToARGB8888Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, 0, height, lut);
+    } else {
+      executor.execute(
+          height,
+          (startRow, endRow) ->
+              convertYUV420ToARGB8888Rows(
+                  yData,
+                  uData,
+                  vData,
+                  width,
+                  yRowStride,
+                  uvRowStride,
+                  uvPixelStride,
+                  out,
+                  startRow,
+                  endRow,
+                  lut));
+    }
+  }
+
+  private static void convertYUV420ToARGB8888Rows(
       byte[] yData,
       byte[] uData,
       byte[] vData,
       int width,
-      int height,
       int yRowStride,
       int uvRowStride,
       int uvPixelStride,
-      int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    int yp = startRow * width;
+    for (int j = startRow; j < endRow; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+        out[yp++] =
+            YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset], lut);
+      }
+    }
+  }
+
+  /**
+   * Same as the array version, but reads the planes in place, e.g. straight from the buffers of a
+   * Camera2 {@code Image.Plane}, so they never have to be copied to the heap. Strides are applied
+   * as absolute indices, so buffer positions are ignored.
+   */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420ToARGB8888Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, 0, height, lut);
+    } else {
+      executor.execute(
+          height,
+          (startRow, endRow) ->
+              convertYUV420ToARGB8888Rows(
+                  yData,
+                  uData,
+                  vData,
+                  width,
+                  yRowStride,
+                  uvRowStride,
+                  uvPixelStride,
+                  out,
+                  startRow,
+                  endRow,
+                  lut));
+    }
+  }
+
+  private static void convertYUV420ToARGB8888Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    int yp = startRow * width;
+    for (int j = startRow; j < endRow; j++) {
       int pY = yRowStride * j;
       int pUV = uvRowStride * (j >> 1);
 
       for (int i = 0; i < width; i++) {
         int uv_offset = pUV + (i >> 1) * uvPixelStride;
 
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+        out[yp++] =
+            YUV2RGB(
+                0xff & yData.get(pY + i),
+                0xff & uData.get(uv_offset),
+                0xff & vData.get(uv_offset),
+                lut);
+      }
+    }
+  }
+
+  /**
+   * Converts a YUV_420_888 frame whose chroma is interleaved (NV12/NV21, chroma pixel stride of 2),
+   * the layout most Camera2 devices deliver. Each chroma sample is read once for the two pixels it
+   * covers and all stride arithmetic stays out of the inner loop.
+   */
+  public static void convertYUV420SemiPlanarToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420SemiPlanarToARGB8888Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, out, 0, height, lut);
+    } else {
+      executor.execute(
+          height,
+          (startRow, endRow) ->
+              convertYUV420SemiPlanarToARGB8888Rows(
+                  yData, uData, vData, width, yRowStride, uvRowStride, out, startRow, endRow, lut));
+    }
+  }
+
+  /**
+   * Converts a fully planar (I420, chroma pixel stride of 1) YUV_420_888 frame. See {@link
+   * #convertYUV420SemiPlanarToARGB8888}.
+   */
+  public static void convertYUV420PlanarToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420PlanarToARGB8888Rows(
+          yData, uData, vData, width, yRowStride, uvRowStride, out, 0, height, lut);
+    } else {
+      executor.execute(
+          height,
+          (startRow, endRow) ->
+              convertYUV420PlanarToARGB8888Rows(
+                  yData, uData, vData, width, yRowStride, uvRowStride, out, startRow, endRow, lut));
+    }
+  }
+
+  private static void convertYUV420SemiPlanarToARGB8888Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    final int pairedWidth = width & ~1;
+    int yp = startRow * width;
+    for (int j = startRow; j < endRow; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+      final int rowEnd = pY + pairedWidth;
+
+      for (; pY < rowEnd; pY += 2, pUV += 2) {
+        final int u = 0xff & uData.get(pUV);
+        final int v = 0xff & vData.get(pUV);
+        out[yp++] = YUV2RGB(0xff & yData.get(pY), u, v, lut);
+        out[yp++] = YUV2RGB(0xff & yData.get(pY + 1), u, v, lut);
+      }
+      if (pairedWidth != width) {
+        out[yp++] = YUV2RGB(0xff & yData.get(pY), 0xff & uData.get(pUV), 0xff & vData.get(pUV), lut);
+      }
+    }
+  }
+
+  private static void convertYUV420PlanarToARGB8888Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    final int pairedWidth = width & ~1;
+    int yp = startRow * width;
+    for (int j = startRow; j < endRow; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+      final int rowEnd = pY + pairedWidth;
+
+      for (; pY < rowEnd; pY += 2, pUV++) {
+        final int u = 0xff & uData.get(pUV);
+        final int v = 0xff & vData.get(pUV);
+        out[yp++] = YUV2RGB(0xff & yData.get(pY), u, v, lut);
+        out[yp++] = YUV2RGB(0xff & yData.get(pY + 1), u, v, lut);
+      }
+      if (pairedWidth != width) {
+        out[yp++] = YUV2RGB(0xff & yData.get(pY), 0xff & uData.get(pUV), 0xff & vData.get(pUV), lut);
+      }
+    }
+  }
+
+  /**
+   * Returns the length of one side of a frame downsampled by the given integer factor, as written
+   * by {@link #convertYUV420ToARGB8888Box2x2} and {@link #convertYUV420ToARGB8888Nearest}.
+   */
+  public static int getDownsampledLength(final int length, final int factor) {
+    return Math.max(1, length / factor);
+  }
+
+  /**
+   * Converts a YUV420 frame at half resolution in each dimension, averaging the four luminance
+   * samples of every 2x2 block. The block shares a single chroma sample, so no chroma filtering is
+   * needed. The output is {@code getDownsampledLength(width, 2)} pixels wide.
+   */
+  public static void convertYUV420ToARGB8888Box2x2(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final int outWidth = width / 2;
+    final int outHeight = height / 2;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420ToARGB8888Box2x2Rows(
+          yData,
+          uData,
+          vData,
+          outWidth,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          out,
+          0,
+          outHeight,
+          lut);
+    } else {
+      // The default RGB frame path, so its band task is reused rather than captured per frame.
+      synchronized (BOX_2X2_TASK) {
+        BOX_2X2_TASK.set(
+            yData, uData, vData, outWidth, yRowStride, uvRowStride, uvPixelStride, out, lut);
+        try {
+          executor.execute(outHeight, BOX_2X2_TASK);
+        } finally {
+          BOX_2X2_TASK.clear();
+        }
+      }
+    }
+  }
+
+  /** Arguments of a band-split {@link #convertYUV420ToARGB8888Box2x2} call. */
+  private static class Box2x2Task implements RowBandExecutor.RowBandTask {
+    private ByteBuffer yData;
+    private ByteBuffer uData;
+    private ByteBuffer vData;
+    private int outWidth;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private int[] out;
+    private boolean lut;
+
+    void set(
+        final ByteBuffer yData,
+        final ByteBuffer uData,
+        final ByteBuffer vData,
+        final int outWidth,
+        final int yRowStride,
+        final int uvRowStride,
+        final int uvPixelStride,
+        final int[] out,
+        final boolean lut) {
+      this.yData = yData;
+      this.uData = uData;
+      this.vData = vData;
+      this.outWidth = outWidth;
+      this.yRowStride = yRowStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+      this.out = out;
+      this.lut = lut;
+    }
+
+    /** Drops the frame references, so the planes can be released. */
+    void clear() {
+      yData = uData = vData = null;
+      out = null;
+    }
+
+    @Override
+    public void run(final int startRow, final int endRow) {
+      convertYUV420ToARGB8888Box2x2Rows(
+          yData,
+          uData,
+          vData,
+          outWidth,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          out,
+          startRow,
+          endRow,
+          lut);
+    }
+  }
+
+  private static void convertYUV420ToARGB8888Box2x2Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int outWidth,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    // Like the full-resolution kernels, dispatch on the chroma layout so that the common ones
+    // step through chroma by a constant.
+    if (uvPixelStride == 2) {
+      convertYUV420SemiPlanarToARGB8888Box2x2Rows(
+          yData, uData, vData, outWidth, yRowStride, uvRowStride, out, startRow, endRow, lut);
+      return;
+    }
+    if (uvPixelStride == 1) {
+      convertYUV420PlanarToARGB8888Box2x2Rows(
+          yData, uData, vData, outWidth, yRowStride, uvRowStride, out, startRow, endRow, lut);
+      return;
+    }
+    int op = startRow * outWidth;
+    for (int j = startRow; j < endRow; j++) {
+      int pY0 = yRowStride * 2 * j;
+      int pY1 = pY0 + yRowStride;
+      int pUV = uvRowStride * j;
+
+      for (int i = 0; i < outWidth; i++, pY0 += 2, pY1 += 2, pUV += uvPixelStride) {
+        final int ySum =
+            (0xff & yData.get(pY0))
+                + (0xff & yData.get(pY0 + 1))
+                + (0xff & yData.get(pY1))
+                + (0xff & yData.get(pY1 + 1));
+        out[op++] = YUV2RGB((ySum + 2) >> 2, 0xff & uData.get(pUV), 0xff & vData.get(pUV), lut);
+      }
+    }
+  }
+
+  /** Box2x2 rows of a frame with interleaved chroma (chroma pixel stride of 2). */
+  private static void convertYUV420SemiPlanarToARGB8888Box2x2Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int outWidth,
+      int yRowStride,
+      int uvRowStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    int op = startRow * outWidth;
+    for (int j = startRow; j < endRow; j++) {
+      int pY0 = yRowStride * 2 * j;
+      int pY1 = pY0 + yRowStride;
+      int pUV = uvRowStride * j;
+      final int rowEnd = op + outWidth;
+
+      for (; op < rowEnd; pY0 += 2, pY1 += 2, pUV += 2) {
+        final int ySum =
+            (0xff & yData.get(pY0))
+                + (0xff & yData.get(pY0 + 1))
+                + (0xff & yData.get(pY1))
+                + (0xff & yData.get(pY1 + 1));
+        out[op++] = YUV2RGB((ySum + 2) >> 2, 0xff & uData.get(pUV), 0xff & vData.get(pUV), lut);
+      }
+    }
+  }
+
+  /** Box2x2 rows of a fully planar frame (chroma pixel stride of 1). */
+  private static void convertYUV420PlanarToARGB8888Box2x2Rows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int outWidth,
+      int yRowStride,
+      int uvRowStride,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    int op = startRow * outWidth;
+    for (int j = startRow; j < endRow; j++) {
+      int pY0 = yRowStride * 2 * j;
+      int pY1 = pY0 + yRowStride;
+      int pUV = uvRowStride * j;
+      final int rowEnd = op + outWidth;
+
+      for (; op < rowEnd; pY0 += 2, pY1 += 2, pUV++) {
+        final int ySum =
+            (0xff & yData.get(pY0))
+                + (0xff & yData.get(pY0 + 1))
+                + (0xff & yData.get(pY1))
+                + (0xff & yData.get(pY1 + 1));
+        out[op++] = YUV2RGB((ySum + 2) >> 2, 0xff & uData.get(pUV), 0xff & vData.get(pUV), lut);
+      }
+    }
+  }
+
+  /**
+   * Converts a YUV420 frame into an output of arbitrary size using nearest-neighbour sampling, so
+   * only the pixels that survive the downscale are converted.
+   */
+  public static void convertYUV420ToARGB8888Nearest(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int outWidth,
+      final int outHeight,
+      final int[] out) {
+    final boolean lut = useLookupTable;
+    final RowBandExecutor executor = bandExecutor;
+    if (executor == null) {
+      convertYUV420ToARGB8888NearestRows(
+          yData,
+          uData,
+          vData,
+          width,
+          height,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          outWidth,
+          outHeight,
+          out,
+          0,
+          outHeight,
+          lut);
+    } else {
+      executor.execute(
+          outHeight,
+          (startRow, endRow) ->
+              convertYUV420ToARGB8888NearestRows(
+                  yData,
+                  uData,
+                  vData,
+                  width,
+                  height,
+                  yRowStride,
+                  uvRowStride,
+                  uvPixelStride,
+                  outWidth,
+                  outHeight,
+                  out,
+                  startRow,
+                  endRow,
+                  lut));
+    }
+  }
+
+  private static void convertYUV420ToARGB8888NearestRows(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int outWidth,
+      int outHeight,
+      int[] out,
+      int startRow,
+      int endRow,
+      boolean lut) {
+    // 16.16 fixed point source steps, sampling at output pixel centers.
+    final int stepX = (width << 16) / outWidth;
+    final int stepY = (height << 16) / outHeight;
+    int op = startRow * outWidth;
+    for (int j = startRow; j < endRow; j++) {
+      final int y = (j * stepY + (stepY >> 1)) >> 16;
+      final int pY = yRowStride * y;
+      final int pUV = uvRowStride * (y >> 1);
+
+      for (int i = 0, sx = stepX >> 1; i < outWidth; i++, sx += stepX) {
+        final int x = sx >> 16;
+        final int uvOffset = pUV + (x >> 1) * uvPixelStride;
+        out[op++] =
+            YUV2RGB(
+                0xff & yData.get(pY + x),
+                0xff & uData.get(uvOffset),
+                0xff & vData.get(uvOffset),
+                lut);
+      }
+    }
+  }
+
+  /**
+   * Converts a YUV420 frame straight into a packed RGB model input, sampling only the pixels the
+   * model consumes. Every input pixel is mapped back into the frame and resolved with
+   * nearest-neighbour sampling, which matches drawing the frame onto a Canvas with the forward
+   * transform and no filtering.
+   *
+   * @param inputToFrameValues The 9 values, as returned by {@link Matrix#getValues(float[])}, of
+   *     the affine transform from model input coordinates back into frame coordinates.
+   * @param inputSize Width and height of the square model input.
+   * @param quantizedLookup Input byte of every channel value, as returned by {@link
+   *     org.tensorflow.lite.examples.detection.tflite.Classifier#getQuantizedLookup()}, or null for
+   *     a float input.
+   * @param normalizedLookup Input float of every channel value, used when quantizedLookup is null.
+   * @param out Destination buffer, filled from its current position.
+   */
+  public static void convertYUV420ToInputTensor(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] inputToFrameValues,
+      int inputSize,
+      byte[] quantizedLookup,
+      float[] normalizedLookup,
+      ByteBuffer out) {
+    final boolean lut = useLookupTable;
+    final float[] m = inputToFrameValues;
+    final InputRow row = getInputRow(inputSize);
+    final int[] pixels = row.pixels;
+    for (int j = 0; j < inputSize; j++) {
+      // Sample at pixel centers and step along the row incrementally.
+      float fx = m[Matrix.MSCALE_X] * 0.5f + m[Matrix.MSKEW_X] * (j + 0.5f) + m[Matrix.MTRANS_X];
+      float fy = m[Matrix.MSKEW_Y] * 0.5f + m[Matrix.MSCALE_Y] * (j + 0.5f) + m[Matrix.MTRANS_Y];
+      for (int i = 0; i < inputSize; i++) {
+        final int x = clamp((int) fx, width - 1);
+        final int y = clamp((int) fy, height - 1);
+        final int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+
+        pixels[i] =
+            YUV2RGB(
+                0xff & yData[yRowStride * y + x],
+                0xff & uData[uvOffset],
+                0xff & vData[uvOffset],
+                lut);
+        fx += m[Matrix.MSCALE_X];
+        fy += m[Matrix.MSKEW_Y];
+      }
+      putInputRow(row, inputSize, quantizedLookup, normalizedLookup, out);
+    }
+  }
+
+  /**
+   * Same as the array version of {@link #convertYUV420ToInputTensor}, but reads the planes in
+   * place from their buffers.
+   */
+  public static void convertYUV420ToInputTensor(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] inputToFrameValues,
+      int inputSize,
+      byte[] quantizedLookup,
+      float[] normalizedLookup,
+      ByteBuffer out) {
+    final boolean lut = useLookupTable;
+    final float[] m = inputToFrameValues;
+    final InputRow row = getInputRow(inputSize);
+    final int[] pixels = row.pixels;
+    for (int j = 0; j < inputSize; j++) {
+      float fx = m[Matrix.MSCALE_X] * 0.5f + m[Matrix.MSKEW_X] * (j + 0.5f) + m[Matrix.MTRANS_X];
+      float fy = m[Matrix.MSKEW_Y] * 0.5f + m[Matrix.MSCALE_Y] * (j + 0.5f) + m[Matrix.MTRANS_Y];
+      for (int i = 0; i < inputSize; i++) {
+        final int x = clamp((int) fx, width - 1);
+        final int y = clamp((int) fy, height - 1);
+        final int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+
+        pixels[i] =
+            YUV2RGB(
+                0xff & yData.get(yRowStride * y + x),
+                0xff & uData.get(uvOffset),
+                0xff & vData.get(uvOffset),
+                lut);
+        fx += m[Matrix.MSCALE_X];
+        fy += m[Matrix.MSKEW_Y];
+      }
+      putInputRow(row, inputSize, quantizedLookup, normalizedLookup, out);
+    }
+  }
+
+  /**
+   * Semi-planar (NV21) counterpart of {@link #convertYUV420ToInputTensor}, for frames delivered by
+   * the legacy camera API.
+   */
+  public static void convertYUV420SPToInputTensor(
+      byte[] input,
+      int width,
+      int height,
+      float[] inputToFrameValues,
+      int inputSize,
+      byte[] quantizedLookup,
+      float[] normalizedLookup,
+      ByteBuffer out) {
+    final int frameSize = width * height;
+    final boolean lut = useLookupTable;
+    final float[] m = inputToFrameValues;
+    final InputRow row = getInputRow(inputSize);
+    final int[] pixels = row.pixels;
+    for (int j = 0; j < inputSize; j++) {
+      float fx = m[Matrix.MSCALE_X] * 0.5f + m[Matrix.MSKEW_X] * (j + 0.5f) + m[Matrix.MTRANS_X];
+      float fy = m[Matrix.MSKEW_Y] * 0.5f + m[Matrix.MSCALE_Y] * (j + 0.5f) + m[Matrix.MTRANS_Y];
+      for (int i = 0; i < inputSize; i++) {
+        final int x = clamp((int) fx, width - 1);
+        final int y = clamp((int) fy, height - 1);
+        final int uvp = frameSize + (y >> 1) * width + (x & ~1);
+
+        pixels[i] =
+            YUV2RGB(0xff & input[y * width + x], 0xff & input[uvp + 1], 0xff & input[uvp], lut);
+        fx += m[Matrix.MSCALE_X];
+        fy += m[Matrix.MSKEW_Y];
+      }
+      putInputRow(row, inputSize, quantizedLookup, normalizedLookup, out);
+    }
+  }
+
+  private static int clamp(final int value, final int max) {
+    return value < 0 ? 0 : (value > max ? max : value);
+  }
+
+  /** Returns the calling thread's input row, holding at least inputSize pixels. */
+  private static InputRow getInputRow(final int inputSize) {
+    InputRow row = INPUT_ROW.get();
+    if (row == null || row.pixels.length < inputSize) {
+      row = new InputRow(inputSize);
+      INPUT_ROW.set(row);
+    }
+    return row;
+  }
+
+  /**
+   * Writes a row of ARGB pixels into a model input through the classifier's per-value lookup, so
+   * the choice of input type is made once per row. Channels are staged and written with one bulk
+   * put.
+   */
+  private static void putInputRow(
+      final InputRow row,
+      final int count,
+      final byte[] quantizedLookup,
+      final float[] normalizedLookup,
+      final ByteBuffer out) {
+    final int[] pixels = row.pixels;
+    if (quantizedLookup != null) {
+      final byte[] bytes = row.bytes;
+      for (int i = 0, k = 0; i < count; ++i, k += 3) {
+        final int argb = pixels[i];
+        bytes[k] = quantizedLookup[(argb >> 16) & 0xFF];
+        bytes[k + 1] = quantizedLookup[(argb >> 8) & 0xFF];
+        bytes[k + 2] = quantizedLookup[argb & 0xFF];
+      }
+      out.put(bytes, 0, 3 * count);
+    } else {
+      final float[] floats = row.floats;
+      for (int i = 0, k = 0; i < count; ++i, k += 3) {
+        final int argb = pixels[i];
+        floats[k] = normalizedLookup[(argb >> 16) & 0xFF];
+        floats[k + 1] = normalizedLookup[(argb >> 8) & 0xFF];
+        floats[k + 2] = normalizedLookup[argb & 0xFF];
+      }
+      final FloatBuffer view = row.floatView(out);
+      view.position(out.position() / 4);
+      view.put(floats, 0, 3 * count);
+      out.position(out.position() + 12 * count);
+    }
+  }
+
+  /** Per-thread staging for the input tensor kernels. */
+  private static final class InputRow {
+    final int[] pixels;
+    // Channels of a row in the model's input type, written to the input with one bulk put.
+    final byte[] bytes;
+    final float[] floats;
+    // Float view over the whole of the last buffer written to, cached to avoid a view per row.
+    private ByteBuffer floatTarget;
+    private FloatBuffer floatView;
+
+    InputRow(final int size) {
+      pixels = new int[size];
+      bytes = new byte[3 * size];
+      floats = new float[3 * size];
+    }
+
+    FloatBuffer floatView(final ByteBuffer out) {
+      if (out != floatTarget) {
+        final ByteBuffer whole = out.duplicate().order(out.order());
+        whole.clear();
+        floatTarget = out;
+        floatView = whole.asFloatBuffer();
       }
+      return floatView;
     }
   }
 
@@ -0,0 +1,131 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits row-oriented image work into horizontal bands and runs them on a fixed pool of worker
+ * threads. Bands always start on an even row so that each band owns whole rows of 2x2 subsampled
+ * chroma.
+ */
+public class RowBandExecutor {
+  /** Work on the half-open row range [startRow, endRow). */
+  public interface RowBandTask {
+    void run(int startRow, int endRow);
+  }
+
+  private final int parallelism;
+  private final ExecutorService executor;
+  private final Band[] bands;
+  private final Semaphore finishedBands = new Semaphore(0);
+  private volatile RuntimeException bandFailure;
+
+  /**
+   * @param parallelism Number of bands a frame is split into. The calling thread processes the
+   *     first band itself, so parallelism - 1 worker threads are started.
+   */
+  public RowBandExecutor(final int parallelism) {
+    if (parallelism < 2) {
+      throw new IllegalArgumentException("Parallelism must be at least 2, got " + parallelism);
+    }
+    this.parallelism = parallelism;
+    executor =
+        Executors.newFixedThreadPool(
+            parallelism - 1,
+            new ThreadFactory() {
+              private int count = 0;
+
+              @Override
+              public synchronized Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "row-band-" + count++);
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    bands = new Band[parallelism];
+    for (int i = 0; i < parallelism; ++i) {
+      bands[i] = new Band();
+    }
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /** Runs the task over rows [0, rows) and returns once every band has completed. */
+  public synchronized void execute(final int rows, final RowBandTask task) {
+    // Round the band height up to an even number of rows.
+    final int bandRows = ((rows + 1) / 2 + parallelism - 1) / parallelism * 2;
+
+    int dispatched = 0;
+    for (int i = 1; i < parallelism; ++i) {
+      final int startRow = i * bandRows;
+      if (startRow >= rows) {
+        break;
+      }
+      bands[i].set(task, startRow, Math.min(rows, startRow + bandRows));
+      executor.execute(bands[i]);
+      ++dispatched;
+    }
+
+    final RuntimeException failure;
+    try {
+      task.run(0, Math.min(rows, bandRows));
+    } finally {
+      finishedBands.acquireUninterruptibly(dispatched);
+      // Cleared even when the calling thread's own band threw, so it cannot leak into the next
+      // call.
+      failure = bandFailure;
+      bandFailure = null;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /** Stops the worker threads. The executor must not be used afterwards. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private class Band implements Runnable {
+    private RowBandTask task;
+    private int startRow;
+    private int endRow;
+
+    void set(final RowBandTask task, final int startRow, final int endRow) {
+      this.task = task;
+      this.startRow = startRow;
+      this.endRow = endRow;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run(startRow, endRow);
+      } catch (final RuntimeException e) {
+        bandFailure = e;
+      } finally {
+        task = null;
+        finishedBands.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a frame is worth running the detector on by comparing a tiny luminance
+ * signature of it against that of the last frame the detector ran on. Frames of an unchanged
+ * scene are skipped, except that the detector is rerun at least every {@code maxInterval} frames.
+ *
+ * <p>A frame becomes the reference once its detections are used, not when it is sent to the
+ * detector, since it may still be dropped on the way. Its signature is kept in one of a fixed set
+ * of slots, one per frame in flight, until then. The gate may be used from the camera thread and
+ * the thread consuming detections at once.
+ *
+ * <p>The signature is the mean luminance of each cell of a {@link #GRID_WIDTH} by {@link
+ * #GRID_HEIGHT} grid, estimated from a few sampled pixels per cell, so computing it costs a few
+ * thousand reads regardless of the frame size.
+ */
+public class SceneChangeGate {
+  private static final int GRID_WIDTH = 16;
+  private static final int GRID_HEIGHT = 12;
+  // Pixels sampled along each side of a grid cell.
+  private static final int CELL_SAMPLES = 4;
+
+  private final int frameWidth;
+  private final int frameHeight;
+  private final float threshold;
+  private final int maxInterval;
+
+  // Sums of the sampled luminance per cell, of the last evaluated and the last inferred frame.
+  private final int[] signature = new int[GRID_WIDTH * GRID_HEIGHT];
+  private final int[] reference = new int[GRID_WIDTH * GRID_HEIGHT];
+  private long signatureTimestamp;
+  // Signatures of frames sent to the detector whose detections have not been used yet.
+  private final int[][] pendingSignatures;
+  private final long[] pendingTimestamps;
+  private boolean hasReference = false;
+  private long referenceTimestamp;
+  private float lastDifference;
+
+  private long evaluatedCount = 0;
+  private long skippedCount = 0;
+
+  /**
+   * @param threshold Mean absolute difference of cell luminance, in levels, from which the scene
+   *     counts as changed.
+   * @param maxInterval Frames after which the detector is rerun even on an unchanged scene.
+   * @param slots Number of frames that can be in flight to the detector at once.
+   */
+  public SceneChangeGate(
+      final int frameWidth,
+      final int frameHeight,
+      final float threshold,
+      final int maxInterval,
+      final int slots) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.threshold = threshold;
+    this.maxInterval = maxInterval;
+    pendingSignatures = new int[slots][GRID_WIDTH * GRID_HEIGHT];
+    pendingTimestamps = new long[slots];
+  }
+
+  /**
+   * Computes the signature of a frame and returns whether it shows the same scene as the reference
+   * frame, so that inference can be skipped. Call {@link #saveSignature} if the frame is sent to
+   * the detector instead.
+   */
+  public synchronized boolean isUnchanged(
+      final ByteBuffer luminance, final int rowStride, final long timestamp) {
+    ++evaluatedCount;
+    computeSignature(luminance, rowStride);
+    signatureTimestamp = timestamp;
+    if (!hasReference || timestamp - referenceTimestamp >= maxInterval) {
+      return false;
+    }
+
+    int difference = 0;
+    for (int i = 0; i < signature.length; ++i) {
+      difference += Math.abs(signature[i] - reference[i]);
+    }
+    lastDifference = difference / (float) (signature.length * CELL_SAMPLES * CELL_SAMPLES);
+    if (lastDifference < threshold) {
+      ++skippedCount;
+      return true;
+    }
+    return false;
+  }
+
+  /** Keeps the signature of the frame last passed to {@link #isUnchanged} in a slot. */
+  public synchronized void saveSignature(final int slot) {
+    System.arraycopy(signature, 0, pendingSignatures[slot], 0, signature.length);
+    pendingTimestamps[slot] = signatureTimestamp;
+  }
+
+  /**
+   * Makes the frame saved in a slot the one later frames are compared to, once its detections have
+   * been used.
+   */
+  public synchronized void markInferred(final int slot) {
+    if (hasReference && pendingTimestamps[slot] < referenceTimestamp) {
+      // Results are used in frame order, so an older frame is not expected; keep the newer one.
+      return;
+    }
+    System.arraycopy(pendingSignatures[slot], 0, reference, 0, reference.length);
+    referenceTimestamp = pendingTimestamps[slot];
+    hasReference = true;
+  }
+
+  /** Timestamp of the reference frame, or -1 if there is none yet. */
+  public synchronized long getReferenceTimestamp() {
+    return hasReference ? referenceTimestamp : -1;
+  }
+
+  private void computeSignature(final ByteBuffer luminance, final int rowStride) {
+    final int cellWidth = frameWidth / GRID_WIDTH;
+    final int cellHeight = frameHeight / GRID_HEIGHT;
+    // Samples sit in the middle of equal sub-cells.
+    final int stepX = cellWidth / CELL_SAMPLES;
+    final int stepY = cellHeight / CELL_SAMPLES;
+    for (int gy = 0, cell = 0; gy < GRID_HEIGHT; ++gy) {
+      for (int gx = 0; gx < GRID_WIDTH; ++gx, ++cell) {
+        int sum = 0;
+        for (int sy = 0; sy < CELL_SAMPLES; ++sy) {
+          final int y = gy * cellHeight + sy * stepY + stepY / 2;
+          for (int sx = 0, p = y * rowStride + gx * cellWidth + stepX / 2;
+              sx < CELL_SAMPLES;
+              ++sx, p += stepX) {
+            sum += 0xff & luminance.get(p);
+          }
+        }
+        signature[cell] = sum;
+      }
+    }
+  }
+
+  /** Fraction of evaluated frames that were skipped. */
+  public float getSkipRatio() {
+    return evaluatedCount > 0 ? skippedCount / (float) evaluatedCount : 0;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "skipped %d of %d frames (%.0f%%), last difference %.1f",
+        skippedCount, evaluatedCount, 100 * getSkipRatio(), lastDifference);
+  }
+}
@@ -0,0 +1,160 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rejects motion-blurred frames before they are converted and inferred. Sharpness is the variance
+ * of the Laplacian on a strided subsample of the luminance plane. A frame is rejected when it is
+ * much less sharp than the running average of recently accepted frames, unless no frame has been
+ * accepted for the maximum latency. Frames accepted that way pull the average down, so the
+ * threshold also follows a scene or lighting change that lowers sharpness for good.
+ */
+public class SharpnessGate {
+  // Weight of the newest accepted frame in the running average sharpness.
+  private static final float AVERAGE_WEIGHT = 0.1f;
+
+  private final int width;
+  private final int height;
+  private final int step;
+  private final float relativeThreshold;
+  private final long maxLatencyNs;
+  private final Clock clock;
+
+  private float averageSharpness = -1;
+  private float lastSharpness;
+  private long lastAcceptedNs;
+
+  private long acceptedCount = 0;
+  private long rejectedCount = 0;
+  private long forcedCount = 0;
+  private long unmeasuredCount = 0;
+
+  /**
+   * @param step Distance between sampled pixels in both directions.
+   * @param relativeThreshold Fraction of the average sharpness below which a frame is rejected.
+   * @param maxLatencyMs Longest time frames may be rejected for before one is accepted anyway.
+   */
+  public SharpnessGate(
+      final int width,
+      final int height,
+      final int step,
+      final float relativeThreshold,
+      final long maxLatencyMs) {
+    this(width, height, step, relativeThreshold, maxLatencyMs, Clock.ELAPSED_REALTIME);
+  }
+
+  /** @param clock Clock the maximum latency is measured on. */
+  public SharpnessGate(
+      final int width,
+      final int height,
+      final int step,
+      final float relativeThreshold,
+      final long maxLatencyMs,
+      final Clock clock) {
+    this.width = width;
+    this.height = height;
+    this.step = step;
+    this.relativeThreshold = relativeThreshold;
+    this.maxLatencyNs = maxLatencyMs * 1000000L;
+    this.clock = clock;
+    lastAcceptedNs = clock.nanoTime();
+  }
+
+  /**
+   * Measures a frame and returns whether it is sharp enough, or overdue, to be processed. A plane
+   * too small for the gate's size, as delivered around a preview size change before the gate is
+   * rebuilt, cannot be judged and is accepted without being measured.
+   */
+  public boolean accept(final ByteBuffer luminance, final int rowStride) {
+    final long now = clock.nanoTime();
+    if (rowStride < width || luminance.limit() < (height - 1) * rowStride + width) {
+      ++unmeasuredCount;
+      lastAcceptedNs = now;
+      return true;
+    }
+    lastSharpness = measure(luminance, rowStride);
+    if (averageSharpness < 0) {
+      averageSharpness = lastSharpness;
+    }
+    final boolean sharp = lastSharpness >= relativeThreshold * averageSharpness;
+    if (sharp || now - lastAcceptedNs >= maxLatencyNs) {
+      if (!sharp) {
+        ++forcedCount;
+      }
+      // Only accepted frames count, so a burst of blur does not lower the bar for itself.
+      averageSharpness += AVERAGE_WEIGHT * (lastSharpness - averageSharpness);
+      ++acceptedCount;
+      lastAcceptedNs = now;
+      return true;
+    }
+    ++rejectedCount;
+    return false;
+  }
+
+  /** Variance of the 4-neighbour Laplacian at every step-th pixel of every step-th row. */
+  private float measure(final ByteBuffer luminance, final int rowStride) {
+    long sum = 0;
+    long sumSquares = 0;
+    int count = 0;
+    for (int y = 1; y < height - 1; y += step) {
+      for (int x = 1, p = y * rowStride + 1; x < width - 1; x += step, p += step) {
+        final int laplacian =
+            4 * (0xff & luminance.get(p))
+                - (0xff & luminance.get(p - 1))
+                - (0xff & luminance.get(p + 1))
+                - (0xff & luminance.get(p - rowStride))
+                - (0xff & luminance.get(p + rowStride));
+        sum += laplacian;
+        sumSquares += laplacian * laplacian;
+        ++count;
+      }
+    }
+    if (count == 0) {
+      return 0;
+    }
+    final float mean = sum / (float) count;
+    return sumSquares / (float) count - mean * mean;
+  }
+
+  public float getLastSharpness() {
+    return lastSharpness;
+  }
+
+  /** Number of frames accepted because their plane did not match the gate's size. */
+  public long getUnmeasuredCount() {
+    return unmeasuredCount;
+  }
+
+  /** Fraction of measured frames that were rejected. */
+  public float getRejectRatio() {
+    final long total = acceptedCount + rejectedCount;
+    return total > 0 ? rejectedCount / (float) total : 0;
+  }
+
+  public String getStatString() {
+    return String.format(
+        "rejected %d of %d frames (%.0f%%), %d accepted only for latency, %d unmeasured, average"
+            + " sharpness %.0f",
+        rejectedCount,
+        acceptedCount + rejectedCount,
+        100 * getRejectRatio(),
+        forcedCount,
+        unmeasuredCount,
+        averageSharpness);
+  }
+}
@@ -0,0 +1,317 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.tensorflow.lite.examples.detection.env.Clock;
+import org.tensorflow.lite.examples.detection.env.FramePipeline;
+
+/**
+ * Runs a detector on pipeline frames on an executor and returns a cancellable future for every
+ * frame. A request still queued when its deadline passes is skipped rather than run, so a backlog
+ * of old frames cannot delay newer ones.
+ *
+ * <p>Each pipeline buffer has one request, reused whenever a frame in that buffer is submitted,
+ * so steady-state detection does not allocate. A request and its detections therefore stay valid
+ * only until its frame is recycled.
+ */
+public class AsyncDetector {
+  /** Told when a request is done, on the thread that finished it. */
+  public interface Listener {
+    /**
+     * Called once per submitted request, whether it ran, was skipped, was cancelled or failed.
+     * Until this is called the request's frame must not be recycled.
+     */
+    void onRequestDone(Request request);
+  }
+
+  private final Classifier detector;
+  private final Executor executor;
+  private final Listener listener;
+  private final Clock clock;
+  private final Request[] requests;
+
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong skippedCount = new AtomicLong();
+  private final AtomicLong cancelledCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * @param detector Detector to run. If the executor has several threads, it must allow concurrent
+   *     detection, as a {@link DetectorPool} does.
+   * @param pipelineDepth Number of buffers in the pipeline frames come from.
+   */
+  public AsyncDetector(
+      final Classifier detector,
+      final Executor executor,
+      final Listener listener,
+      final int pipelineDepth) {
+    this(detector, executor, listener, pipelineDepth, Clock.ELAPSED_REALTIME);
+  }
+
+  /** @param clock Clock that deadlines are given on. */
+  public AsyncDetector(
+      final Classifier detector,
+      final Executor executor,
+      final Listener listener,
+      final int pipelineDepth,
+      final Clock clock) {
+    this.detector = detector;
+    this.executor = executor;
+    this.listener = listener;
+    this.clock = clock;
+    requests = new Request[pipelineDepth];
+    for (int i = 0; i < pipelineDepth; ++i) {
+      requests[i] = new Request();
+    }
+  }
+
+  /**
+   * Queues detection on a converted frame. The frame's input must not be modified until the
+   * request is done. Cancelling the request before it starts keeps it from running, and so does
+   * the executor rejecting it.
+   *
+   * <p>The request fails with a {@link TimeoutException} if it had not started by the deadline.
+   *
+   * @param deadlineNs Time by which inference must have started, on the detector's clock.
+   */
+  public Request recognizeAsync(final FramePipeline.Frame frame, final long deadlineNs) {
+    final Request request = requests[frame.index];
+    request.reset(frame, deadlineNs);
+    try {
+      executor.execute(request);
+    } catch (final RejectedExecutionException e) {
+      request.cancel(false);
+      request.run();
+    }
+    return request;
+  }
+
+  /** Cancels every request that has not started yet. */
+  public void cancelQueued() {
+    for (final Request request : requests) {
+      request.cancel(false);
+    }
+  }
+
+  /** Number of requests that ran to completion. */
+  public long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  /** Number of requests skipped because they were still queued at their deadline. */
+  public long getSkippedCount() {
+    return skippedCount.get();
+  }
+
+  /** Number of requests cancelled or rejected before they started. */
+  public long getCancelledCount() {
+    return cancelledCount.get();
+  }
+
+  public String getStatString() {
+    return String.format(
+        "completed %d, skipped %d, cancelled %d, failed %d",
+        completedCount.get(), skippedCount.get(), cancelledCount.get(), failedCount.get());
+  }
+
+  /** Detection of the frame last submitted in one pipeline buffer. */
+  public final class Request implements Future<Detections>, Runnable {
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int COMPLETED = 3;
+    private static final int SKIPPED = 4;
+    private static final int CANCELLED = 5;
+    private static final int FAILED = 6;
+
+    private FramePipeline.Frame frame;
+    private long deadlineNs;
+    private int state = IDLE;
+    private Detections detections;
+    private RuntimeException failure;
+    private long inferenceTimeNs;
+
+    private Request() {}
+
+    private synchronized void reset(final FramePipeline.Frame frame, final long deadlineNs) {
+      if (state == QUEUED || state == RUNNING) {
+        throw new IllegalStateException("Frame " + frame.index + " is already being detected");
+      }
+      this.frame = frame;
+      this.deadlineNs = deadlineNs;
+      state = QUEUED;
+      failure = null;
+    }
+
+    public FramePipeline.Frame getFrame() {
+      return frame;
+    }
+
+    /**
+     * Returns the detections if the request ran to completion, or null otherwise. Unlike {@link
+     * #get()}, does not wait.
+     */
+    public synchronized Detections getDetections() {
+      return state == COMPLETED ? detections : null;
+    }
+
+    /** How long the detector took on this request's frame. */
+    public synchronized long getInferenceTimeNs() {
+      return inferenceTimeNs;
+    }
+
+    /** Returns what the detector threw, or null if it did not fail. */
+    public synchronized RuntimeException getFailure() {
+      return state == FAILED ? failure : null;
+    }
+
+    /** Whether the request was still queued at its deadline and so never ran. */
+    public synchronized boolean isSkipped() {
+      return state == SKIPPED;
+    }
+
+    /** Runs detection unless the request was cancelled or its deadline has passed. */
+    @Override
+    public void run() {
+      final boolean start;
+      synchronized (this) {
+        if (state == QUEUED && clock.nanoTime() > deadlineNs) {
+          finish(SKIPPED);
+        }
+        start = state == QUEUED;
+        if (start) {
+          state = RUNNING;
+        }
+      }
+
+      if (start) {
+        try {
+          final long startNs = clock.nanoTime();
+          final Detections result = detector.detect(frame.input);
+          synchronized (this) {
+            // The detector reuses its result, so keep a copy with the request.
+            if (detections == null) {
+              detections = result.copy();
+            } else {
+              detections.copyFrom(result);
+            }
+            inferenceTimeNs = clock.nanoTime() - startNs;
+            finish(COMPLETED);
+          }
+        } catch (final RuntimeException e) {
+          synchronized (this) {
+            failure = e;
+            finish(FAILED);
+          }
+        }
+      }
+
+      switch (getState()) {
+        case COMPLETED:
+          completedCount.incrementAndGet();
+          break;
+        case SKIPPED:
+          skippedCount.incrementAndGet();
+          break;
+        case CANCELLED:
+          cancelledCount.incrementAndGet();
+          break;
+        default:
+          failedCount.incrementAndGet();
+          break;
+      }
+      listener.onRequestDone(this);
+    }
+
+    private synchronized int getState() {
+      return state;
+    }
+
+    private void finish(final int doneState) {
+      state = doneState;
+      notifyAll();
+    }
+
+    /**
+     * Keeps a queued request from running. Its listener is still called, once the executor gets to
+     * it.
+     */
+    @Override
+    public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+      if (state != QUEUED) {
+        return false;
+      }
+      finish(CANCELLED);
+      return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+      return state >= COMPLETED;
+    }
+
+    @Override
+    public synchronized Detections get() throws InterruptedException, ExecutionException {
+      while (!isDone()) {
+        wait();
+      }
+      return result();
+    }
+
+    @Override
+    public synchronized Detections get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      final long endNs = System.nanoTime() + unit.toNanos(timeout);
+      long remainingNs;
+      while (!isDone()) {
+        remainingNs = endNs - System.nanoTime();
+        if (remainingNs <= 0) {
+          throw new TimeoutException("Detection still running");
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNs);
+      }
+      return result();
+    }
+
+    private Detections result() throws ExecutionException {
+      switch (state) {
+        case COMPLETED:
+          return detections;
+        case SKIPPED:
+          throw new ExecutionException(
+              new TimeoutException("Deadline passed before inference started"));
+        case CANCELLED:
+          throw new CancellationException();
+        default:
+          throw new ExecutionException(failure);
+      }
+    }
+  }
+}
@@ -0,0 +1,377 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Runs a detector over image files without a camera or an activity, for example to audit recorded
+ * sessions. Worker threads decode and preprocess the next batch while the current one is in
+ * inference, and the detections are written to a compact results file in input order, which
+ * {@link #read} reads back. {@code BatchDetectionService} runs it over a directory on the device.
+ *
+ * <p>The results file is a big-endian stream holding the int {@link #MAGIC} and the int {@link
+ * #VERSION}, then for every image its path in modified UTF-8, its width and height as ints and its
+ * detection count as an int, which is -1 if the image could not be decoded. Each detection follows
+ * as a short class id, a float score and four floats for left, top, right and bottom in image
+ * pixels.
+ */
+public class BatchDetectionRunner {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp"};
+
+  /** "DETS" in ASCII. */
+  public static final int MAGIC = 0x44455453;
+
+  public static final int VERSION = 1;
+
+  /** Totals of one {@link #run}. */
+  public static class Summary {
+    public final int images;
+    public final int failed;
+    public final long detections;
+    public final long elapsedMs;
+
+    public Summary(
+        final int images, final int failed, final long detections, final long elapsedMs) {
+      this.images = images;
+      this.failed = failed;
+      this.detections = detections;
+      this.elapsedMs = elapsedMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d images (%d not decoded), %d detections in %d ms, %.1f images/s",
+          images, failed, detections, elapsedMs, images * 1000.0f / Math.max(1, elapsedMs));
+    }
+  }
+
+  /** The detections of one image, as read back from a results file. */
+  public static class Record {
+    public final String path;
+    public final int width;
+    public final int height;
+    /** Detections with boxes in image pixels, or null if the image could not be decoded. */
+    public final Detections detections;
+
+    public Record(
+        final String path, final int width, final int height, final Detections detections) {
+      this.path = path;
+      this.width = width;
+      this.height = height;
+      this.detections = detections;
+    }
+  }
+
+  /** An input buffer and the image last prepared into it. */
+  private static class Slot {
+    final ByteBuffer input;
+    String path;
+    int width;
+    int height;
+    boolean decoded;
+
+    Slot(final ByteBuffer input) {
+      this.input = input;
+    }
+  }
+
+  private final Classifier detector;
+  private final int batchSize;
+  private final int numWorkers;
+
+  /**
+   * @param detector Detector to run, with its query already set. It must not be used elsewhere
+   *     while a run is in progress.
+   * @param batchSize Number of images passed to {@link Classifier#recognizeImages} at a time.
+   * @param numWorkers Number of threads decoding and preprocessing images.
+   */
+  public BatchDetectionRunner(
+      final Classifier detector, final int batchSize, final int numWorkers) {
+    this.detector = detector;
+    this.batchSize = batchSize;
+    this.numWorkers = numWorkers;
+  }
+
+  /**
+   * Returns the image files of a directory, sorted by name so that results come in a stable order.
+   */
+  public static File[] listImages(final File directory) throws IOException {
+    final File[] images =
+        directory.listFiles(
+            file -> {
+              final String name = file.getName().toLowerCase();
+              for (final String extension : IMAGE_EXTENSIONS) {
+                if (name.endsWith(extension)) {
+                  return file.isFile();
+                }
+              }
+              return false;
+            });
+    if (images == null) {
+      throw new IOException("Cannot list " + directory);
+    }
+    Arrays.sort(images);
+    return images;
+  }
+
+  /** Detects objects in every image and writes the results to output, replacing it. */
+  public Summary run(final File[] images, final File output) throws IOException {
+    final long startMs = SystemClock.elapsedRealtime();
+    // Two sets of slots, so one batch can be prepared while the other is in inference.
+    final Slot[][] slots = new Slot[2][batchSize];
+    for (final Slot[] set : slots) {
+      for (int i = 0; i < batchSize; ++i) {
+        set[i] = new Slot(detector.allocateInputBuffer());
+      }
+    }
+    final ByteBuffer[] inputs = new ByteBuffer[batchSize];
+    int failed = 0;
+    long detectionCount = 0;
+
+    final ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+      writeHeader(out);
+
+      Future<?>[] pending = prepareBatch(workers, images, 0, slots[0]);
+      for (int start = 0, set = 0; start < images.length; start += batchSize, set ^= 1) {
+        final int count = Math.min(batchSize, images.length - start);
+        await(pending, count);
+        final int next = start + batchSize;
+        if (next < images.length) {
+          pending = prepareBatch(workers, images, next, slots[set ^ 1]);
+        }
+
+        final Slot[] batch = slots[set];
+        int decodedCount = 0;
+        for (int i = 0; i < count; ++i) {
+          if (batch[i].decoded) {
+            inputs[decodedCount++] = batch[i].input;
+          }
+        }
+        final Detections[] results =
+            decodedCount > 0 ? detector.recognizeImages(inputs, decodedCount) : null;
+
+        for (int i = 0, k = 0; i < count; ++i) {
+          final Slot slot = batch[i];
+          final Detections detections = slot.decoded ? results[k++] : null;
+          writeRecord(
+              out, slot.path, slot.width, slot.height, detections, detector.getInputSize());
+          if (detections != null) {
+            detectionCount += detections.count;
+          } else {
+            ++failed;
+          }
+        }
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+
+    final Summary summary =
+        new Summary(
+            images.length, failed, detectionCount, SystemClock.elapsedRealtime() - startMs);
+    LOGGER.i("Batch detection: %s", summary);
+    return summary;
+  }
+
+  private Future<?>[] prepareBatch(
+      final ExecutorService workers, final File[] images, final int start, final Slot[] batch) {
+    final int count = Math.min(batchSize, images.length - start);
+    final Future<?>[] futures = new Future<?>[count];
+    for (int i = 0; i < count; ++i) {
+      final Slot slot = batch[i];
+      final File image = images[start + i];
+      futures[i] = workers.submit(() -> prepare(image, slot));
+    }
+    return futures;
+  }
+
+  private static void await(final Future<?>[] futures, final int count) throws IOException {
+    for (int i = 0; i < count; ++i) {
+      try {
+        futures[i].get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while preparing images");
+      } catch (final ExecutionException e) {
+        throw new IOException("Could not prepare image", e.getCause());
+      }
+    }
+  }
+
+  /** Decodes an image, scales it to the model input and preprocesses it into the slot. */
+  private void prepare(final File image, final Slot slot) {
+    slot.path = image.getPath();
+    slot.decoded = false;
+    final int inputSize = detector.getInputSize();
+
+    // Read the size first, so that large images are subsampled while decoding.
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(slot.path, options);
+    slot.width = options.outWidth;
+    slot.height = options.outHeight;
+    if (slot.width <= 0 || slot.height <= 0) {
+      LOGGER.w("Could not decode %s", slot.path);
+      return;
+    }
+    options.inJustDecodeBounds = false;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inSampleSize = 1;
+    while (slot.width / (2 * options.inSampleSize) >= inputSize
+        && slot.height / (2 * options.inSampleSize) >= inputSize) {
+      options.inSampleSize *= 2;
+    }
+    final Bitmap decoded = BitmapFactory.decodeFile(slot.path, options);
+    if (decoded == null) {
+      LOGGER.w("Could not decode %s", slot.path);
+      return;
+    }
+
+    // Stretched to the square input, as the camera frames are.
+    final Bitmap scaled = Bitmap.createScaledBitmap(decoded, inputSize, inputSize, true);
+    detector.preprocess(scaled, slot.input);
+    if (scaled != decoded) {
+      scaled.recycle();
+    }
+    decoded.recycle();
+    slot.decoded = true;
+  }
+
+  static void writeHeader(final DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  /**
+   * Writes the record of one image, scaling the boxes from the model input to the image size.
+   *
+   * @param detections Detections of the image, or null if it could not be decoded.
+   */
+  static void writeRecord(
+      final DataOutputStream out,
+      final String path,
+      final int width,
+      final int height,
+      final Detections detections,
+      final int inputSize)
+      throws IOException {
+    out.writeUTF(path);
+    out.writeInt(width);
+    out.writeInt(height);
+    if (detections == null) {
+      out.writeInt(-1);
+      return;
+    }
+    final float scaleX = (float) width / inputSize;
+    final float scaleY = (float) height / inputSize;
+    out.writeInt(detections.count);
+    for (int i = 0; i < detections.count; ++i) {
+      out.writeShort(detections.classIds[i]);
+      out.writeFloat(detections.scores[i]);
+      out.writeFloat(detections.boxes[4 * i] * scaleX);
+      out.writeFloat(detections.boxes[4 * i + 1] * scaleY);
+      out.writeFloat(detections.boxes[4 * i + 2] * scaleX);
+      out.writeFloat(detections.boxes[4 * i + 3] * scaleY);
+    }
+  }
+
+  /**
+   * Reads a results file.
+   *
+   * @param labels Label of every class id, for the returned detections.
+   */
+  public static List<Record> read(final File file, final String[] labels) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return read(in, labels);
+    }
+  }
+
+  /**
+   * Reads a results file from a stream, up to its end.
+   *
+   * @param labels Label of every class id, for the returned detections.
+   * @throws IOException If the stream is not a results file of this version or is truncated.
+   */
+  public static List<Record> read(final InputStream stream, final String[] labels)
+      throws IOException {
+    final BufferedInputStream buffered = new BufferedInputStream(stream);
+    final DataInputStream in = new DataInputStream(buffered);
+    final int magic = in.readInt();
+    if (magic != MAGIC) {
+      throw new IOException(String.format("Not a results file, magic 0x%08x", magic));
+    }
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported results file version " + version);
+    }
+    final List<Record> records = new ArrayList<>();
+    while (true) {
+      // Records are not counted up front, so the end of the file can only be told by peeking.
+      buffered.mark(1);
+      if (buffered.read() < 0) {
+        return records;
+      }
+      buffered.reset();
+      final String path = in.readUTF();
+      final int width = in.readInt();
+      final int height = in.readInt();
+      final int count = in.readInt();
+      if (count < -1) {
+        throw new IOException("Invalid detection count " + count + " for " + path);
+      }
+      Detections detections = null;
+      if (count >= 0) {
+        detections = new Detections(count, labels);
+        for (int i = 0; i < count; ++i) {
+          detections.classIds[i] = in.readShort();
+          detections.scores[i] = in.readFloat();
+          for (int j = 0; j < 4; ++j) {
+            detections.boxes[4 * i + j] = in.readFloat();
+          }
+        }
+        detections.count = count;
+      }
+      records.add(new Record(path, width, height, detections));
+    }
+  }
+}
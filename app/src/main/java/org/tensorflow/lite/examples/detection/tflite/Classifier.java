@@ -17,49 +17,131 @@ package org.tensorflow.lite.examples.detection.tflite;
 
 import android.graphics.Bitmap;
 import android.graphics.RectF;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /** Generic interface for interacting with different recognition engines. */
 public interface Classifier {
+  /**
+   * Runs recognition on a bitmap. The returned list and its recognitions may be reused by the next
+   * call.
+   */
   List<Recognition> recognizeImage(Bitmap bitmap);
 
+  /**
+   * Runs recognition on an input that has already been preprocessed into the model's layout, such
+   * as one produced by {@link #allocateInputBuffer()}. The result may be reused as for {@link
+   * #recognizeImage(Bitmap)}.
+   */
+  List<Recognition> recognizeImage(ByteBuffer input);
+
+  /**
+   * Runs detection on a preprocessed input, like {@link #recognizeImage(ByteBuffer)}, but returns
+   * the results as primitive arrays with boxes in input pixels. The returned instance is owned by
+   * the classifier and overwritten by the next call.
+   */
+  Detections detect(ByteBuffer input);
+
+  /**
+   * Runs detection on the first count preprocessed inputs, as one batched inference where the model
+   * takes a batch dimension above one, and one inference per input otherwise. Entry i of the
+   * returned array holds the detections of inputs[i]; the array and its entries are owned by the
+   * classifier and overwritten by the next call.
+   */
+  Detections[] recognizeImages(ByteBuffer[] inputs, int count);
+
+  /**
+   * Writes a bitmap of {@link #getInputSize()} square into an input buffer in the model's layout.
+   * Safe to call from several threads at once, including while another thread runs detection.
+   */
+  void preprocess(Bitmap bitmap, ByteBuffer input);
+
+  /** Allocates a direct buffer sized and ordered for the model input tensor. */
+  ByteBuffer allocateInputBuffer();
+
+  /** Width and height of the square model input. */
+  int getInputSize();
+
+  /** Whether the model input is one byte per channel rather than normalized floats. */
+  boolean isQuantized();
+
+  /**
+   * Returns the input byte of each channel value 0-255 of a quantized model, or null for a float
+   * model. Callers writing their own inputs must not modify it.
+   */
+  byte[] getQuantizedLookup();
+
+  /**
+   * Returns the normalized input float of each channel value 0-255 of a float model, or null for a
+   * quantized model. Callers writing their own inputs must not modify it.
+   */
+  float[] getNormalizedLookup();
+
   void enableStatLogging(final boolean debug);
 
   String getStatString();
 
   void close();
 
+  /**
+   * Sets which detections are returned by later calls. Should be called before detection starts,
+   * or on the thread running it.
+   */
+  void setDetectionQuery(DetectionQuery query);
+
   void setNumThreads(int num_threads);
 
   void setUseNNAPI(boolean isChecked);
 
-  /** An immutable result returned by a Classifier describing what was recognized. */
+  /**
+   * A result returned by a Classifier describing what was recognized. Classifiers may update and
+   * return the same instances on every call, so results must be consumed before the next one.
+   */
     public class Recognition {
     /**
      * A unique identifier for what has been recognized. Specific to the class, not the instance of
      * the object.
      */
-    private final String id;
+    private String id;
 
     /** Display name for the recognition. */
-    private final String title;
+    private String title;
 
     /**
      * A sortable score for how good the recognition is relative to others. Higher should be better.
      */
-    private final Float confidence;
+    private float confidence;
 
     /** Optional location within the source image for the location of the recognized object. */
     private RectF location;
 
     public Recognition(
-        final String id, final String title, final Float confidence, final RectF location) {
+        final String id, final String title, final float confidence, final RectF location) {
       this.id = id;
       this.title = title;
       this.confidence = confidence;
       this.location = location;
     }
 
+    /** Overwrites this recognition in place, reusing its location. */
+    public void set(
+        final String id,
+        final String title,
+        final float confidence,
+        final float left,
+        final float top,
+        final float right,
+        final float bottom) {
+      this.id = id;
+      this.title = title;
+      this.confidence = confidence;
+      if (location == null) {
+        location = new RectF(left, top, right, bottom);
+      } else {
+        location.set(left, top, right, bottom);
+      }
+    }
+
     public String getId() {
       return id;
     }
@@ -68,7 +150,7 @@ public interface Classifier {
       return title;
     }
 
-    public Float getConfidence() {
+    public float getConfidence() {
       return confidence;
     }
 
@@ -91,9 +173,7 @@ public interface Classifier {
         resultString += title + " ";
       }
 
-      if (confidence != null) {
-        resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-      }
+      resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
       if (location != null) {
         resultString += location + " ";
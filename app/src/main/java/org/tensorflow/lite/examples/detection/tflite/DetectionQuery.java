@@ -0,0 +1,91 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Which detections a {@link Classifier} should return. Classifiers apply the query while decoding
+ * the model output, so rejected detections never get boxes or labels.
+ */
+public class DetectionQuery {
+  private float minScore = 0.0f;
+  private int maxResults = Integer.MAX_VALUE;
+  private Set<String> allowedLabels = null;
+  private float minBoxWidth = 0.0f;
+  private float minBoxHeight = 0.0f;
+
+  /** Drops detections scoring below minScore. */
+  public DetectionQuery setMinScore(final float minScore) {
+    this.minScore = minScore;
+    return this;
+  }
+
+  /** Returns at most maxResults detections, keeping the earliest, i.e. best scoring, ones. */
+  public DetectionQuery setMaxResults(final int maxResults) {
+    this.maxResults = maxResults;
+    return this;
+  }
+
+  /** Only returns detections with one of these labels. All labels are allowed by default. */
+  public DetectionQuery setAllowedLabels(final String... labels) {
+    allowedLabels = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(labels)));
+    return this;
+  }
+
+  /** Drops degenerate boxes smaller than this, in model input pixels. */
+  public DetectionQuery setMinBoxSize(final float minWidth, final float minHeight) {
+    minBoxWidth = minWidth;
+    minBoxHeight = minHeight;
+    return this;
+  }
+
+  public float getMinScore() {
+    return minScore;
+  }
+
+  public int getMaxResults() {
+    return maxResults;
+  }
+
+  /** Returns the allowed labels, or null if every label is allowed. */
+  public Set<String> getAllowedLabels() {
+    return allowedLabels;
+  }
+
+  public float getMinBoxWidth() {
+    return minBoxWidth;
+  }
+
+  public float getMinBoxHeight() {
+    return minBoxHeight;
+  }
+
+  /**
+   * Resolves the allowed labels against a classifier's label list, returning which class ids are
+   * allowed.
+   */
+  public boolean[] resolveAllowedClasses(final String[] labels) {
+    final boolean[] allowed = new boolean[labels.length];
+    for (int i = 0; i < labels.length; ++i) {
+      allowed[i] = allowedLabels == null || allowedLabels.contains(labels[i]);
+    }
+    return allowed;
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.RectF;
+
+/**
+ * Detections of one frame stored as parallel primitive arrays, so they can be produced and
+ * consumed without allocating. Detection i occupies {@code boxes[4 * i]} to {@code boxes[4 * i +
+ * 3]} as left, top, right and bottom, {@code classIds[i]} and {@code scores[i]}. Only the first
+ * {@link #count} entries are valid.
+ */
+public class Detections {
+  public final float[] boxes;
+  /** Indices into the label array, resolved by {@link #getLabel(int)}. */
+  public final int[] classIds;
+  public final float[] scores;
+  public int count;
+
+  private final String[] labels;
+
+  /**
+   * @param capacity Maximum number of detections held.
+   * @param labels Label of every class id. The array is shared, not copied.
+   */
+  public Detections(final int capacity, final String[] labels) {
+    boxes = new float[4 * capacity];
+    classIds = new int[capacity];
+    scores = new float[capacity];
+    this.labels = labels;
+  }
+
+  /** Returns a new instance with the same capacity and labels, holding a copy of this one. */
+  public Detections copy() {
+    final Detections copy = new Detections(getCapacity(), labels);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  /** Overwrites this instance with the detections of other, which must fit. */
+  public void copyFrom(final Detections other) {
+    System.arraycopy(other.boxes, 0, boxes, 0, 4 * other.count);
+    System.arraycopy(other.classIds, 0, classIds, 0, other.count);
+    System.arraycopy(other.scores, 0, scores, 0, other.count);
+    count = other.count;
+  }
+
+  public int getCapacity() {
+    return scores.length;
+  }
+
+  /** Returns the label of detection i, or null if its class id has no label. */
+  public String getLabel(final int i) {
+    final int classId = classIds[i];
+    return classId >= 0 && classId < labels.length ? labels[classId] : null;
+  }
+
+  /** Copies the box of detection i into out. */
+  public void getBox(final int i, final RectF out) {
+    out.set(boxes[4 * i], boxes[4 * i + 1], boxes[4 * i + 2], boxes[4 * i + 3]);
+  }
+
+  /** Overwrites detection i. */
+  public void set(final int i, final RectF box, final int classId, final float score) {
+    boxes[4 * i] = box.left;
+    boxes[4 * i + 1] = box.top;
+    boxes[4 * i + 2] = box.right;
+    boxes[4 * i + 3] = box.bottom;
+    classIds[i] = classId;
+    scores[i] = score;
+  }
+}
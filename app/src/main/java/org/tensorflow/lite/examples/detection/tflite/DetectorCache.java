@@ -0,0 +1,182 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Process-wide, reference-counted cache of detectors, so that a recreated activity reuses the
+ * already loaded and warmed interpreter instead of building a new one. A detector is closed once
+ * its last user releases it and nobody acquires it again within {@link #CLOSE_DELAY_MS}.
+ *
+ * <p>A detector is created outside the cache lock, so that loading one model does not hold up
+ * acquiring or releasing another; callers acquiring a key that is still being created wait for it.
+ *
+ * <p>The cache does not make detectors thread-safe: users must still hand a detector over rather
+ * than run it concurrently.
+ */
+public final class DetectorCache {
+  private static final Logger LOGGER = new Logger();
+
+  // Long enough to bridge an activity being destroyed and recreated on a configuration change.
+  private static final long CLOSE_DELAY_MS = 5000;
+
+  /** Creates a detector on a cache miss. */
+  public interface Factory {
+    Classifier create() throws IOException;
+  }
+
+  private static final Map<String, Entry> entries = new HashMap<>();
+  private static Handler closeHandler;
+
+  private DetectorCache() {}
+
+  /**
+   * Builds a cache key from the model files and the options the detector is created with,
+   * including the number of interpreters it pools.
+   */
+  public static String key(
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final int numWorkers) {
+    return modelFilename + "|" + labelFilename + "|" + inputSize + "|x" + numWorkers;
+  }
+
+  /**
+   * Returns the cached detector for the key, or creates one with the factory. Every call must be
+   * balanced by {@link #release}.
+   */
+  public static Classifier acquire(final String key, final Factory factory) throws IOException {
+    final Entry entry;
+    final boolean creating;
+    synchronized (DetectorCache.class) {
+      Entry existing = entries.get(key);
+      creating = existing == null;
+      if (creating) {
+        existing = new Entry(key, new FutureTask<>(factory::create));
+        entries.put(key, existing);
+      } else {
+        LOGGER.i("Reusing detector %s", key);
+        if (closeHandler != null) {
+          // Cancel a pending close, so the grace period restarts from the next release.
+          closeHandler.removeCallbacks(existing);
+        }
+      }
+      ++existing.references;
+      entry = existing;
+    }
+
+    if (creating) {
+      entry.creation.run();
+    }
+    final Classifier detector;
+    try {
+      detector = getUninterruptibly(entry.creation);
+    } catch (final ExecutionException e) {
+      synchronized (DetectorCache.class) {
+        // Forget the failed entry so that the next acquire tries again.
+        if (--entry.references == 0 && entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    synchronized (DetectorCache.class) {
+      if (entry.detector == null) {
+        entry.detector = detector;
+        LOGGER.i("Created detector %s", key);
+      }
+    }
+    return detector;
+  }
+
+  private static Classifier getUninterruptibly(final FutureTask<Classifier> creation)
+      throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return creation.get();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Drops a reference taken by {@link #acquire}. */
+  public static synchronized void release(final Classifier detector) {
+    for (final Entry entry : entries.values()) {
+      if (entry.detector == detector) {
+        if (--entry.references == 0) {
+          if (closeHandler == null) {
+            closeHandler = new Handler(Looper.getMainLooper());
+          }
+          closeHandler.postDelayed(entry, CLOSE_DELAY_MS);
+        }
+        return;
+      }
+    }
+    LOGGER.w("Released a detector that is not cached");
+  }
+
+  private static synchronized void closeIfUnused(final Entry entry) {
+    if (entry.references == 0 && entry.detector != null && entries.get(entry.key) == entry) {
+      entries.remove(entry.key);
+      entry.detector.close();
+      LOGGER.i("Closed detector %s", entry.key);
+    }
+  }
+
+  private static class Entry implements Runnable {
+    final String key;
+    // Runs the factory on the first acquiring thread; later ones wait on it.
+    final FutureTask<Classifier> creation;
+    // Set once creation succeeds, before any acquirer returns it.
+    Classifier detector;
+    int references = 0;
+
+    Entry(final String key, final FutureTask<Classifier> creation) {
+      this.key = key;
+      this.creation = creation;
+    }
+
+    @Override
+    public void run() {
+      closeIfUnused(this);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A Classifier that hands each call to an idle one of several identical classifiers, so that
+ * different threads can run inference at the same time. A caller waits only when every member is
+ * busy, and a slow member does not hold up calls another member could take.
+ *
+ * <p>{@link #detect} is safe to call from several threads; its result belongs to the calling
+ * thread and stays valid until that thread calls it again. The {@link Recognition} adapters are
+ * only safe when called from a single thread.
+ */
+public class DetectorPool implements Classifier {
+  private final Classifier[] members;
+  // Members not checked out by a call. Every member is in here or held by exactly one thread.
+  private final BlockingQueue<Classifier> idle;
+  // Results are copied out of the member before it is handed to the next caller.
+  private final ThreadLocal<Detections> threadDetections = new ThreadLocal<>();
+  private final ThreadLocal<Detections[]> threadBatchDetections = new ThreadLocal<>();
+
+  public DetectorPool(final Classifier[] members) {
+    this.members = members;
+    idle = new ArrayBlockingQueue<>(members.length);
+    for (final Classifier member : members) {
+      idle.add(member);
+    }
+  }
+
+  public int getSize() {
+    return members.length;
+  }
+
+  /** Takes an idle member, waiting for one if all are busy. Must be balanced by checkIn. */
+  private Classifier checkOut() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return idle.take();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void checkIn(final Classifier member) {
+    idle.add(member);
+  }
+
+  /** Applies a setting to every member, waiting for each to finish its current call. */
+  private interface MemberAction {
+    void apply(Classifier member);
+  }
+
+  private void forEachMember(final MemberAction action) {
+    final Classifier[] checkedOut = new Classifier[members.length];
+    for (int i = 0; i < checkedOut.length; ++i) {
+      checkedOut[i] = checkOut();
+    }
+    try {
+      for (final Classifier member : checkedOut) {
+        action.apply(member);
+      }
+    } finally {
+      for (final Classifier member : checkedOut) {
+        checkIn(member);
+      }
+    }
+  }
+
+  @Override
+  public Detections detect(final ByteBuffer input) {
+    Detections out = threadDetections.get();
+    final Classifier member = checkOut();
+    try {
+      final Detections detections = member.detect(input);
+      if (out == null) {
+        out = detections.copy();
+        threadDetections.set(out);
+      } else {
+        out.copyFrom(detections);
+      }
+    } finally {
+      checkIn(member);
+    }
+    return out;
+  }
+
+  @Override
+  public Detections[] recognizeImages(final ByteBuffer[] inputs, final int count) {
+    Detections[] out = threadBatchDetections.get();
+    if (out == null || out.length < count) {
+      final Detections[] grown = new Detections[count];
+      if (out != null) {
+        System.arraycopy(out, 0, grown, 0, out.length);
+      }
+      out = grown;
+      threadBatchDetections.set(out);
+    }
+    final Classifier member = checkOut();
+    try {
+      final Detections[] detections = member.recognizeImages(inputs, count);
+      for (int i = 0; i < count; ++i) {
+        if (out[i] == null) {
+          out[i] = detections[i].copy();
+        } else {
+          out[i].copyFrom(detections[i]);
+        }
+      }
+    } finally {
+      checkIn(member);
+    }
+    return out;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    final Classifier member = checkOut();
+    try {
+      return member.recognizeImage(bitmap);
+    } finally {
+      checkIn(member);
+    }
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    final Classifier member = checkOut();
+    try {
+      return member.recognizeImage(input);
+    } finally {
+      checkIn(member);
+    }
+  }
+
+  /** Preprocessing never touches the interpreter, so any member can do it. */
+  @Override
+  public void preprocess(final Bitmap bitmap, final ByteBuffer input) {
+    members[0].preprocess(bitmap, input);
+  }
+
+  @Override
+  public ByteBuffer allocateInputBuffer() {
+    return members[0].allocateInputBuffer();
+  }
+
+  @Override
+  public int getInputSize() {
+    return members[0].getInputSize();
+  }
+
+  @Override
+  public boolean isQuantized() {
+    return members[0].isQuantized();
+  }
+
+  @Override
+  public byte[] getQuantizedLookup() {
+    return members[0].getQuantizedLookup();
+  }
+
+  @Override
+  public float[] getNormalizedLookup() {
+    return members[0].getNormalizedLookup();
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {
+    forEachMember(member -> member.enableStatLogging(debug));
+  }
+
+  @Override
+  public String getStatString() {
+    return members[0].getStatString();
+  }
+
+  @Override
+  public void close() {
+    forEachMember(Classifier::close);
+  }
+
+  @Override
+  public void setDetectionQuery(final DetectionQuery query) {
+    forEachMember(member -> member.setDetectionQuery(query));
+  }
+
+  @Override
+  public void setNumThreads(final int num_threads) {
+    forEachMember(member -> member.setNumThreads(num_threads));
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {
+    forEachMember(member -> member.setUseNNAPI(isChecked));
+  }
+}
@@ -0,0 +1,255 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.os.SystemClock;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Finds the fastest interpreter configuration for a model on this device by timing warm inferences
+ * across thread counts, with and without NNAPI. Inferences are timed with as many running at once
+ * as the app runs, so that interpreters competing for cores are measured as they will be used. The
+ * choice is persisted per model checksum, device build and concurrency, so later launches start
+ * from it without re-tuning.
+ */
+public class InterpreterAutoTuner {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String PREFERENCES_NAME = "interpreter_tuning";
+  // Untimed inferences run after every configuration change, and timed ones whose median is used.
+  private static final int WARMUP_RUNS = 2;
+  private static final int TIMED_RUNS = 5;
+
+  /** An interpreter configuration and its measured median inference time. */
+  public static class Configuration {
+    public final int numThreads;
+    public final boolean useNNAPI;
+    public final float inferenceMs;
+
+    public Configuration(final int numThreads, final boolean useNNAPI, final float inferenceMs) {
+      this.numThreads = numThreads;
+      this.useNNAPI = useNNAPI;
+      this.inferenceMs = inferenceMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d threads, %s: %.1f ms", numThreads, useNNAPI ? "NNAPI" : "TFLITE", inferenceMs);
+    }
+  }
+
+  private final SharedPreferences preferences;
+  private final String key;
+
+  /**
+   * @param key Identifies the model and device the configuration is tuned for, see {@link
+   *     #computeKey}.
+   */
+  public InterpreterAutoTuner(final Context context, final String key) {
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    this.key = key;
+  }
+
+  /**
+   * Returns a key made of the model file's CRC32, the device build and the number of inferences run
+   * at once, so that a new model, a system update or a new pool size triggers re-tuning.
+   */
+  public static String computeKey(
+      final AssetManager assets, final String modelFilename, final int concurrency)
+      throws IOException {
+    final CRC32 crc = new CRC32();
+    final byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = assets.open(modelFilename)) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+      }
+    }
+    return modelFilename
+        + ":"
+        + Long.toHexString(crc.getValue())
+        + ":"
+        + Build.FINGERPRINT
+        + ":x"
+        + concurrency;
+  }
+
+  /** Returns the persisted configuration, or null if this model has not been tuned here yet. */
+  public Configuration getCachedConfiguration() {
+    if (!preferences.contains(key + ".threads")) {
+      return null;
+    }
+    return new Configuration(
+        preferences.getInt(key + ".threads", 1),
+        preferences.getBoolean(key + ".nnapi", false),
+        Float.intBitsToFloat(preferences.getInt(key + ".ms", 0)));
+  }
+
+  /** Forgets the persisted configuration, so that the next {@link #getOrTune} re-tunes. */
+  public void clear() {
+    preferences
+        .edit()
+        .remove(key + ".threads")
+        .remove(key + ".nnapi")
+        .remove(key + ".ms")
+        .apply();
+  }
+
+  /**
+   * Applies the persisted configuration to the detector, tuning and persisting one first if there
+   * is none or if forced. Tuning blocks for several inferences per configuration, so this must run
+   * on the thread that runs detection.
+   *
+   * @param input A preprocessed input to time inference on. Its contents do not matter.
+   * @param maxThreads Largest thread count tried, per interpreter.
+   * @param concurrency Number of inferences run at once, at most the detector supports.
+   */
+  public Configuration getOrTune(
+      final Classifier detector,
+      final ByteBuffer input,
+      final int maxThreads,
+      final int concurrency,
+      final boolean force) {
+    Configuration configuration = force ? null : getCachedConfiguration();
+    if (configuration == null) {
+      configuration = tune(detector, input, maxThreads, concurrency);
+      preferences
+          .edit()
+          .putInt(key + ".threads", configuration.numThreads)
+          .putBoolean(key + ".nnapi", configuration.useNNAPI)
+          .putInt(key + ".ms", Float.floatToIntBits(configuration.inferenceMs))
+          .apply();
+      LOGGER.i("Tuned interpreter: %s", configuration);
+    } else {
+      LOGGER.i("Using cached interpreter configuration: %s", configuration);
+    }
+    detector.setUseNNAPI(configuration.useNNAPI);
+    detector.setNumThreads(configuration.numThreads);
+    return configuration;
+  }
+
+  private static Configuration tune(
+      final Classifier detector,
+      final ByteBuffer input,
+      final int maxThreads,
+      final int concurrency) {
+    // Every concurrent caller needs its own input.
+    final ByteBuffer[] inputs = new ByteBuffer[concurrency];
+    inputs[0] = input;
+    for (int i = 1; i < concurrency; ++i) {
+      inputs[i] = detector.allocateInputBuffer();
+    }
+    // NNAPI is only worth trying where it exists.
+    final boolean nnapiAvailable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1;
+    Configuration best = null;
+    for (int nnapi = 0; nnapi < (nnapiAvailable ? 2 : 1); ++nnapi) {
+      final boolean useNNAPI = nnapi == 1;
+      detector.setUseNNAPI(useNNAPI);
+      for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+        detector.setNumThreads(numThreads);
+        final float inferenceMs = timeInference(detector, inputs);
+        LOGGER.d("%d threads, NNAPI %b: %.1f ms", numThreads, useNNAPI, inferenceMs);
+        if (best == null || inferenceMs < best.inferenceMs) {
+          best = new Configuration(numThreads, useNNAPI, inferenceMs);
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns the median inference time with one caller per input running at once, the calling
+   * thread being one of them.
+   */
+  private static float timeInference(final Classifier detector, final ByteBuffer[] inputs) {
+    final int concurrency = inputs.length;
+    final float[] times = new float[TIMED_RUNS * concurrency];
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] helpers = new Thread[concurrency - 1];
+    for (int t = 1; t < concurrency; ++t) {
+      final int caller = t;
+      helpers[t - 1] =
+          new Thread(
+              () -> {
+                awaitUninterruptibly(start);
+                timeInferences(detector, inputs[caller], times, caller * TIMED_RUNS);
+              },
+              "tuner-" + t);
+      helpers[t - 1].start();
+    }
+    start.countDown();
+    timeInferences(detector, inputs[0], times, 0);
+    for (final Thread helper : helpers) {
+      joinUninterruptibly(helper);
+    }
+    Arrays.sort(times);
+    return times[times.length / 2];
+  }
+
+  /** Times TIMED_RUNS warm inferences into times, starting at offset. */
+  private static void timeInferences(
+      final Classifier detector, final ByteBuffer input, final float[] times, final int offset) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      detector.detect(input);
+    }
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      final long startNs = SystemClock.elapsedRealtimeNanos();
+      detector.detect(input);
+      times[offset + i] = (SystemClock.elapsedRealtimeNanos() - startNs) / 1e6f;
+    }
+  }
+
+  private static void awaitUninterruptibly(final CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void joinUninterruptibly(final Thread thread) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        thread.join();
+        break;
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
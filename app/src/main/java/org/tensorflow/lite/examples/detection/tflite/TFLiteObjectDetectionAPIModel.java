@@ -27,14 +27,16 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.detection.env.Logger;
 
 /**
@@ -44,33 +46,69 @@ import org.tensorflow.lite.examples.detection.env.Logger;
 public class TFLiteObjectDetectionAPIModel implements Classifier {
   private static final Logger LOGGER = new Logger();
 
-  // Only return this many results.
-  private static final int NUM_DETECTIONS = 10;
+  // Output tensor indices of the SSD postprocessing op.
+  private static final int OUTPUT_LOCATIONS = 0;
+  private static final int OUTPUT_CLASSES = 1;
+  private static final int OUTPUT_SCORES = 2;
+  private static final int OUTPUT_NUM_DETECTIONS = 3;
   // Float model
-  private static final float IMAGE_MEAN = 128.0f;
-  private static final float IMAGE_STD = 128.0f;
+  public static final float IMAGE_MEAN = 128.0f;
+  public static final float IMAGE_STD = 128.0f;
   // Number of threads in the java app
   private static final int NUM_THREADS = 4;
   private boolean isModelQuantized;
   // Config values.
   private int inputSize;
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
-  private int[] intValues;
-  // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
+  private String[] labels;
+  // Maximum number of detections the model outputs, read from its output shapes.
+  private int maxDetections;
+  // Outputs are bound as direct native-order buffers, which the interpreter fills with a single
+  // copy, and read through flat float views.
+  private ByteBuffer[] outputBuffers;
+  // outputLocations: shape [Batchsize, maxDetections, 4]
   // contains the location of detected boxes
-  private float[][][] outputLocations;
-  // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
+  private FloatBuffer outputLocations;
+  // outputClasses: shape [Batchsize, maxDetections]
   // contains the classes of detected boxes
-  private float[][] outputClasses;
-  // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
+  private FloatBuffer outputClasses;
+  // outputScores: shape [Batchsize, maxDetections]
   // contains the scores of detected boxes
-  private float[][] outputScores;
-  // numDetections: array of shape [Batchsize]
+  private FloatBuffer outputScores;
+  // numDetections: shape [Batchsize]
   // contains the number of detected boxes
-  private float[] numDetections;
+  private FloatBuffer numDetections;
+  // Bindings and results reused by every call, so steady-state inference does not allocate.
+  private final Object[] inputArray = new Object[1];
+  private final Map<Integer, Object> outputMap = new HashMap<>();
+  private Detections detections;
+  private DetectionQuery query = new DetectionQuery();
+  // Per class id, whether the query allows it.
+  private boolean[] allowedClasses;
+  private ArrayList<Recognition> recognitions;
+  private Recognition[] recognitionPool;
+  private String[] recognitionIds;
 
   private ByteBuffer imgData;
+  // Staging arrays of the threads calling preprocess(), so that inputs can be prepared in parallel.
+  private final ThreadLocal<Staging> staging = new ThreadLocal<>();
+  // Channel value to quantized input byte, for a quantized model.
+  private byte[] quantizedValues;
+  // Whether quantizedValues maps every channel value to itself, so that preprocess copies them.
+  private boolean quantizedIdentity;
+  // Channel value to normalized float input, for a float model.
+  private float[] normalizedValues;
+
+  // Batch size the input tensor is currently resized to.
+  private int currentBatchSize = 1;
+  // Whether the model accepts a batch dimension above 1; cleared the first time it does not.
+  private boolean batchingSupported = true;
+  // Buffers of the last batched inference, reallocated when the batch size changes.
+  private int batchCapacity = 0;
+  private ByteBuffer batchInput;
+  private ByteBuffer[] batchOutputBuffers;
+  private final Map<Integer, Object> batchOutputMap = new HashMap<>();
+  private Detections[] batchDetections = new Detections[0];
 
   private Interpreter tfLite;
 
@@ -87,6 +125,23 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
   }
 
+  /** Reads one label per line, interned so that labels can be compared by reference. */
+  private static String[] loadLabels(final AssetManager assetManager, final String labelFilename)
+      throws IOException {
+    InputStream labelsInput = null;
+    String actualFilename = labelFilename.split("file:///android_asset/")[1];
+    labelsInput = assetManager.open(actualFilename);
+    BufferedReader br = null;
+    br = new BufferedReader(new InputStreamReader(labelsInput));
+    String line;
+    final List<String> labelList = new ArrayList<>();
+    while ((line = br.readLine()) != null) {
+      labelList.add(line.intern());
+    }
+    br.close();
+    return labelList.toArray(new String[0]);
+  }
+
   /**
    * Initializes a native TensorFlow session for classifying images.
    *
@@ -94,98 +149,160 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
    * @param modelFilename The filepath of the model GraphDef protocol buffer.
    * @param labelFilename The filepath of label file for classes.
    * @param inputSize The size of image input
-   * @param isQuantized Boolean representing model is quantized or not
    */
   public static Classifier create(
       final AssetManager assetManager,
       final String modelFilename,
       final String labelFilename,
-      final int inputSize,
-      final boolean isQuantized)
+      final int inputSize)
       throws IOException {
-    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    return create(
+        loadModelFile(assetManager, modelFilename),
+        loadLabels(assetManager, labelFilename),
+        inputSize);
+  }
 
-    InputStream labelsInput = null;
-    String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    labelsInput = assetManager.open(actualFilename);
-    BufferedReader br = null;
-    br = new BufferedReader(new InputStreamReader(labelsInput));
-    String line;
-    while ((line = br.readLine()) != null) {
-      LOGGER.w(line);
-      d.labels.add(line);
+  /**
+   * Initializes a pool of interpreters that share one mapped copy of the model but have their own
+   * input and output buffers, so that up to poolSize inferences can run concurrently.
+   *
+   * @param poolSize Number of interpreters. A single interpreter is returned unpooled.
+   */
+  public static Classifier createPool(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final int poolSize)
+      throws IOException {
+    final MappedByteBuffer model = loadModelFile(assetManager, modelFilename);
+    final String[] labels = loadLabels(assetManager, labelFilename);
+    if (poolSize == 1) {
+      return create(model, labels, inputSize);
     }
-    br.close();
+    final Classifier[] members = new Classifier[poolSize];
+    for (int i = 0; i < poolSize; ++i) {
+      members[i] = create(model, labels, inputSize);
+    }
+    return new DetectorPool(members);
+  }
 
+  private static TFLiteObjectDetectionAPIModel create(
+      final ByteBuffer model, final String[] labels, final int inputSize) {
+    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    d.labels = labels;
     d.inputSize = inputSize;
 
     try {
-      d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+      d.tfLite = new Interpreter(model);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
 
-    d.isModelQuantized = isQuantized;
-    // Pre-allocate buffers.
-    int numBytesPerChannel;
-    if (isQuantized) {
-      numBytesPerChannel = 1; // Quantized
+    final Tensor inputTensor = d.tfLite.getInputTensor(0);
+    final DataType inputType = inputTensor.dataType();
+    if (inputType == DataType.UINT8) {
+      d.isModelQuantized = true;
+      final Tensor.QuantizationParams params = inputTensor.quantizationParams();
+      d.quantizedValues = createQuantizedLookup(params.getScale(), params.getZeroPoint());
+      d.quantizedIdentity = isIdentity(d.quantizedValues);
+      if (!d.quantizedIdentity) {
+        LOGGER.w(
+            "Input quantization scale %f, zero point %d remaps channel values",
+            params.getScale(),
+            params.getZeroPoint());
+      }
+    } else if (inputType == DataType.FLOAT32) {
+      d.isModelQuantized = false;
+      d.normalizedValues = createNormalizedLookup();
     } else {
-      numBytesPerChannel = 4; // Floating point
+      throw new IllegalArgumentException("Unsupported model input type " + inputType);
     }
-    d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-    d.imgData.order(ByteOrder.nativeOrder());
-    d.intValues = new int[d.inputSize * d.inputSize];
+    LOGGER.i("Model input is %s", inputType);
+
+    // Pre-allocate buffers.
+    d.imgData = d.allocateInputBuffer();
 
     d.tfLite.setNumThreads(NUM_THREADS);
-    d.outputLocations = new float[1][NUM_DETECTIONS][4];
-    d.outputClasses = new float[1][NUM_DETECTIONS];
-    d.outputScores = new float[1][NUM_DETECTIONS];
-    d.numDetections = new float[1];
+    d.outputBuffers = new ByteBuffer[d.tfLite.getOutputTensorCount()];
+    for (int i = 0; i < d.outputBuffers.length; ++i) {
+      d.outputBuffers[i] = allocateOutputBuffer(d.tfLite.getOutputTensor(i).shape(), 1);
+      d.outputMap.put(i, d.outputBuffers[i]);
+    }
+    d.outputLocations = d.outputBuffers[OUTPUT_LOCATIONS].asFloatBuffer();
+    d.outputClasses = d.outputBuffers[OUTPUT_CLASSES].asFloatBuffer();
+    d.outputScores = d.outputBuffers[OUTPUT_SCORES].asFloatBuffer();
+    d.numDetections = d.outputBuffers[OUTPUT_NUM_DETECTIONS].asFloatBuffer();
+
+    d.maxDetections = d.tfLite.getOutputTensor(OUTPUT_SCORES).shape()[1];
+    d.detections = new Detections(d.maxDetections, d.labels);
+    d.allowedClasses = d.query.resolveAllowedClasses(d.labels);
+    d.recognitions = new ArrayList<>(d.maxDetections);
+    d.recognitionPool = new Recognition[d.maxDetections];
+    d.recognitionIds = new String[d.maxDetections];
+    for (int i = 0; i < d.maxDetections; ++i) {
+      d.recognitionIds[i] = Integer.toString(i);
+      d.recognitionPool[i] = new Recognition(d.recognitionIds[i], null, 0, new RectF());
+    }
     return d;
   }
 
+  /**
+   * Allocates a direct buffer holding a float tensor of the given shape, with its leading batch
+   * dimension replaced by batchSize.
+   */
+  private static ByteBuffer allocateOutputBuffer(final int[] shape, final int batchSize) {
+    int numElements = batchSize;
+    for (int i = 1; i < shape.length; ++i) {
+      numElements *= shape[i];
+    }
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(numElements * 4);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
-    Trace.beginSection("preprocessBitmap");
-    // Preprocess the image data from 0-255 int to normalized float based
-    // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    preprocess(bitmap, imgData);
 
-    imgData.rewind();
-    for (int i = 0; i < inputSize; ++i) {
-      for (int j = 0; j < inputSize; ++j) {
-        int pixelValue = intValues[i * inputSize + j];
-        if (isModelQuantized) {
-          // Quantized model
-          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-          imgData.put((byte) (pixelValue & 0xFF));
-        } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        }
-      }
+    final List<Recognition> recognitions = recognizeImage(imgData);
+    Trace.endSection(); // "recognizeImage"
+    return recognitions;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    final Detections detections = detect(input);
+
+    recognitions.clear();
+    for (int i = 0; i < detections.count; ++i) {
+      final Recognition recognition = recognitionPool[i];
+      recognition.set(
+          recognitionIds[i],
+          detections.getLabel(i),
+          detections.scores[i],
+          detections.boxes[4 * i],
+          detections.boxes[4 * i + 1],
+          detections.boxes[4 * i + 2],
+          detections.boxes[4 * i + 3]);
+      recognitions.add(recognition);
     }
-    Trace.endSection(); // preprocessBitmap
+    return recognitions;
+  }
 
+  @Override
+  public Detections detect(final ByteBuffer input) {
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
-    outputLocations = new float[1][NUM_DETECTIONS][4];
-    outputClasses = new float[1][NUM_DETECTIONS];
-    outputScores = new float[1][NUM_DETECTIONS];
-    numDetections = new float[1];
-
-    Object[] inputArray = {imgData};
-    Map<Integer, Object> outputMap = new HashMap<>();
-    outputMap.put(0, outputLocations);
-    outputMap.put(1, outputClasses);
-    outputMap.put(2, outputScores);
-    outputMap.put(3, numDetections);
+    resizeBatch(1);
+    input.rewind();
+    inputArray[0] = input;
+    for (final ByteBuffer outputBuffer : outputBuffers) {
+      outputBuffer.rewind();
+    }
     Trace.endSection();
 
     // Run the inference call.
@@ -193,29 +310,324 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
     Trace.endSection();
 
-    // Show the best detections.
-    // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-    for (int i = 0; i < NUM_DETECTIONS; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[0][i][1] * inputSize,
-              outputLocations[0][i][0] * inputSize,
-              outputLocations[0][i][3] * inputSize,
-              outputLocations[0][i][2] * inputSize);
+    decode(0, outputLocations, outputClasses, outputScores, numDetections, detections);
+    return detections;
+  }
+
+  @Override
+  public Detections[] recognizeImages(final ByteBuffer[] inputs, final int count) {
+    if (batchDetections.length < count) {
+      final Detections[] grown = new Detections[count];
+      System.arraycopy(batchDetections, 0, grown, 0, batchDetections.length);
+      for (int i = batchDetections.length; i < count; ++i) {
+        grown[i] = new Detections(maxDetections, labels);
+      }
+      batchDetections = grown;
+    }
+    if (count > 1 && batchingSupported) {
+      try {
+        runBatch(inputs, count);
+        return batchDetections;
+      } catch (final IllegalArgumentException | IllegalStateException e) {
+        // The detection post-processing op of most exported models only handles a batch of one.
+        LOGGER.w("Model does not take a batch of %d, running inputs one by one: %s", count, e);
+        disableBatching();
+      }
+    }
+    for (int i = 0; i < count; ++i) {
+      batchDetections[i].copyFrom(detect(inputs[i]));
+    }
+    return batchDetections;
+  }
+
+  /** Returns whether recognizeImages still runs several inputs as one batched inference. */
+  boolean isBatchingSupported() {
+    return batchingSupported;
+  }
+
+  /** Makes recognizeImages run inputs one by one from now on, as when the model rejects a batch. */
+  void disableBatching() {
+    batchingSupported = false;
+    resizeBatch(1);
+  }
+
+  /** Runs the inputs as one batched inference and decodes every batch entry. */
+  private void runBatch(final ByteBuffer[] inputs, final int count) {
+    Trace.beginSection("feedBatch");
+    if (count != batchCapacity) {
+      allocateBatchBuffers(count);
+    }
+    batchInput.rewind();
+    for (int i = 0; i < count; ++i) {
+      inputs[i].rewind();
+      batchInput.put(inputs[i]);
+    }
+    batchInput.rewind();
+    inputArray[0] = batchInput;
+    for (final ByteBuffer outputBuffer : batchOutputBuffers) {
+      outputBuffer.rewind();
+    }
+    resizeBatch(count);
+    Trace.endSection();
+
+    Trace.beginSection("runBatch");
+    tfLite.runForMultipleInputsOutputs(inputArray, batchOutputMap);
+    Trace.endSection();
+
+    // Some models accept the resize but still emit a single result.
+    final int outputBatchSize = tfLite.getOutputTensor(OUTPUT_SCORES).shape()[0];
+    if (outputBatchSize != count) {
+      throw new IllegalStateException("Batch of " + count + " produced " + outputBatchSize);
+    }
+    final FloatBuffer locations = batchOutputBuffers[OUTPUT_LOCATIONS].asFloatBuffer();
+    final FloatBuffer classes = batchOutputBuffers[OUTPUT_CLASSES].asFloatBuffer();
+    final FloatBuffer scores = batchOutputBuffers[OUTPUT_SCORES].asFloatBuffer();
+    final FloatBuffer counts = batchOutputBuffers[OUTPUT_NUM_DETECTIONS].asFloatBuffer();
+    for (int b = 0; b < count; ++b) {
+      decode(b, locations, classes, scores, counts, batchDetections[b]);
+    }
+  }
+
+  private void allocateBatchBuffers(final int batchSize) {
+    batchInput = ByteBuffer.allocateDirect(batchSize * imgData.capacity());
+    batchInput.order(ByteOrder.nativeOrder());
+    batchOutputBuffers = new ByteBuffer[outputBuffers.length];
+    batchOutputMap.clear();
+    for (int i = 0; i < batchOutputBuffers.length; ++i) {
+      batchOutputBuffers[i] =
+          allocateOutputBuffer(tfLite.getOutputTensor(i).shape(), batchSize);
+      batchOutputMap.put(i, batchOutputBuffers[i]);
+    }
+    batchCapacity = batchSize;
+  }
+
+  /** Resizes the batch dimension of the input tensor, unless it already has that size. */
+  private void resizeBatch(final int batchSize) {
+    if (batchSize != currentBatchSize) {
+      tfLite.resizeInput(0, new int[] {batchSize, inputSize, inputSize, 3});
+      currentBatchSize = batchSize;
+    }
+  }
+
+  /**
+   * Decodes the detections of one batch entry into out, keeping the best ones that match the
+   * query.
+   */
+  private void decode(
+      final int batchIndex,
+      final FloatBuffer outputLocations,
+      final FloatBuffer outputClasses,
+      final FloatBuffer outputScores,
+      final FloatBuffer numDetections,
+      final Detections out) {
+    final int base = batchIndex * maxDetections;
+    // Keep the best detections that match the query, after scaling them back to the input size.
+    // Everything that can be rejected from the score and class alone is skipped before decoding
+    // the box.
+    final int count = Math.min((int) numDetections.get(batchIndex), maxDetections);
+    final int maxResults = query.getMaxResults();
+    final float minScore = query.getMinScore();
+    final float minBoxWidth = query.getMinBoxWidth();
+    final float minBoxHeight = query.getMinBoxHeight();
+    final float[] boxes = out.boxes;
+    int kept = 0;
+    for (int i = 0; i < count && kept < maxResults; ++i) {
+      final float score = outputScores.get(base + i);
+      if (score < minScore) {
+        continue;
+      }
       // SSD Mobilenet V1 Model assumes class 0 is background class
       // in label file and class labels start from 1 to number_of_classes+1,
       // while outputClasses correspond to class index from 0 to number_of_classes
       int labelOffset = 1;
-      recognitions.add(
-          new Recognition(
-              "" + i,
-              labels.get((int) outputClasses[0][i] + labelOffset),
-              outputScores[0][i],
-              detection));
+      final int classId = (int) outputClasses.get(base + i) + labelOffset;
+      if (classId < 0 || classId >= allowedClasses.length || !allowedClasses[classId]) {
+        continue;
+      }
+
+      // The model outputs top, left, bottom, right.
+      final float top = outputLocations.get(4 * (base + i));
+      final float left = outputLocations.get(4 * (base + i) + 1);
+      final float bottom = outputLocations.get(4 * (base + i) + 2);
+      final float right = outputLocations.get(4 * (base + i) + 3);
+      if ((right - left) * inputSize < minBoxWidth || (bottom - top) * inputSize < minBoxHeight) {
+        continue;
+      }
+      boxes[4 * kept] = left * inputSize;
+      boxes[4 * kept + 1] = top * inputSize;
+      boxes[4 * kept + 2] = right * inputSize;
+      boxes[4 * kept + 3] = bottom * inputSize;
+      out.classIds[kept] = classId;
+      out.scores[kept] = score;
+      ++kept;
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
+    out.count = kept;
+  }
+
+  /** Returns the lookup from channel value to normalized float input. */
+  static float[] createNormalizedLookup() {
+    final float[] lookup = new float[256];
+    for (int i = 0; i < 256; ++i) {
+      lookup[i] = (i - IMAGE_MEAN) / IMAGE_STD;
+    }
+    return lookup;
+  }
+
+  /**
+   * Returns the lookup from channel value to quantized input: the normalized value requantized with
+   * the input tensor's scale and zero point. A scale of zero means the input is not quantized after
+   * all, and channel values are taken as they are.
+   */
+  static byte[] createQuantizedLookup(final float scale, final int zeroPoint) {
+    final byte[] lookup = new byte[256];
+    for (int i = 0; i < 256; ++i) {
+      final int quantized =
+          scale == 0
+              ? i
+              : Math.max(
+                  0, Math.min(255, Math.round((i - IMAGE_MEAN) / IMAGE_STD / scale) + zeroPoint));
+      lookup[i] = (byte) quantized;
+    }
+    return lookup;
+  }
+
+  /** Whether a quantized lookup maps every channel value to itself. */
+  static boolean isIdentity(final byte[] lookup) {
+    for (int i = 0; i < 256; ++i) {
+      if ((lookup[i] & 0xFF) != i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void preprocess(final Bitmap bitmap, final ByteBuffer input) {
+    Trace.beginSection("preprocessBitmap");
+    // Preprocess the image data from 0-255 int to the model's input type, one kernel per type,
+    // staging the result so it is written to the buffer with a single bulk copy.
+    Staging staging = this.staging.get();
+    if (staging == null) {
+      staging = new Staging(inputSize, isModelQuantized);
+      this.staging.set(staging);
+    }
+    final int[] intValues = staging.pixels;
+    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    if (isModelQuantized) {
+      packQuantized(staging, inputSize * inputSize, quantizedValues, quantizedIdentity, input);
+    } else {
+      packFloat(staging, inputSize * inputSize, normalizedValues, input);
+    }
+    Trace.endSection(); // preprocessBitmap
+  }
+
+  /**
+   * Writes the first numPixels of the staged ARGB pixels as quantized channels, at the start of
+   * the input.
+   *
+   * @param identity Whether lookup maps every value to itself, in which case the channels are
+   *     copied without it.
+   */
+  static void packQuantized(
+      final Staging staging,
+      final int numPixels,
+      final byte[] lookup,
+      final boolean identity,
+      final ByteBuffer input) {
+    final int[] intValues = staging.pixels;
+    final byte[] bytes = staging.bytes;
+    if (identity) {
+      for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+        final int pixelValue = intValues[i];
+        bytes[k] = (byte) (pixelValue >> 16);
+        bytes[k + 1] = (byte) (pixelValue >> 8);
+        bytes[k + 2] = (byte) pixelValue;
+      }
+    } else {
+      for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+        final int pixelValue = intValues[i];
+        bytes[k] = lookup[(pixelValue >> 16) & 0xFF];
+        bytes[k + 1] = lookup[(pixelValue >> 8) & 0xFF];
+        bytes[k + 2] = lookup[pixelValue & 0xFF];
+      }
+    }
+    input.rewind();
+    input.put(bytes, 0, 3 * numPixels);
+  }
+
+  /**
+   * Writes the first numPixels of the staged ARGB pixels as normalized float channels, at the
+   * start of the input.
+   */
+  static void packFloat(
+      final Staging staging, final int numPixels, final float[] lookup, final ByteBuffer input) {
+    final int[] intValues = staging.pixels;
+    final float[] floats = staging.floats;
+    for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+      final int pixelValue = intValues[i];
+      floats[k] = lookup[(pixelValue >> 16) & 0xFF];
+      floats[k + 1] = lookup[(pixelValue >> 8) & 0xFF];
+      floats[k + 2] = lookup[pixelValue & 0xFF];
+    }
+    input.rewind();
+    if (input != staging.floatInput) {
+      staging.floatInput = input;
+      staging.floatInputView = input.asFloatBuffer();
+    }
+    staging.floatInputView.rewind();
+    staging.floatInputView.put(floats, 0, 3 * numPixels);
+  }
+
+  /** Buffers used by preprocess() on one thread. */
+  static class Staging {
+    final int[] pixels;
+    // Staging arrays for bulk copies into the input buffer; only the one matching the input type
+    // is allocated.
+    final byte[] bytes;
+    final float[] floats;
+    // Float view of the last buffer written to, cached to avoid a view per call.
+    ByteBuffer floatInput;
+    FloatBuffer floatInputView;
+
+    Staging(final int inputSize, final boolean quantized) {
+      pixels = new int[inputSize * inputSize];
+      bytes = quantized ? new byte[inputSize * inputSize * 3] : null;
+      floats = quantized ? null : new float[inputSize * inputSize * 3];
+    }
+  }
+
+  @Override
+  public ByteBuffer allocateInputBuffer() {
+    int numBytesPerChannel;
+    if (isModelQuantized) {
+      numBytesPerChannel = 1; // Quantized
+    } else {
+      numBytesPerChannel = 4; // Floating point
+    }
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * numBytesPerChannel);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
+
+  @Override
+  public boolean isQuantized() {
+    return isModelQuantized;
+  }
+
+  @Override
+  public byte[] getQuantizedLookup() {
+    return quantizedValues;
+  }
+
+  @Override
+  public float[] getNormalizedLookup() {
+    return normalizedValues;
   }
 
   @Override
@@ -227,7 +639,18 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    if (tfLite != null) {
+      tfLite.close();
+      tfLite = null;
+    }
+  }
+
+  @Override
+  public void setDetectionQuery(final DetectionQuery query) {
+    this.query = query;
+    allowedClasses = query.resolveAllowedClasses(labels);
+  }
 
   public void setNumThreads(int num_threads) {
     if (tfLite != null) tfLite.setNumThreads(num_threads);
@@ -0,0 +1,108 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Decides which camera frames are sent to the detector. Detection runs on every Nth frame, and
+ * {@link MultiBoxTracker#advance} predicts boxes on the frames in between. While nothing is
+ * tracked every frame is detected, so new objects are picked up without delay.
+ *
+ * <p>With an interval range, N follows the camera's angular speed: the tracker's predictions
+ * hold for long while the camera is steady, but drift quickly while it turns.
+ */
+public class DetectionScheduler {
+  private int interval;
+  // Interval range and the angular speeds, in rad/s, it spans; unused while maxInterval is 0.
+  private int minInterval;
+  private int maxInterval = 0;
+  private float steadySpeed;
+  private float fastSpeed;
+  private int framesSinceDetection = Integer.MAX_VALUE;
+
+  private long detectedFrames = 0;
+  private long skippedFrames = 0;
+
+  /** @param interval Detect every interval-th frame; 1 detects every frame. */
+  public DetectionScheduler(final int interval) {
+    setInterval(interval);
+  }
+
+  /** Sets a fixed interval, replacing any interval range. */
+  public synchronized void setInterval(final int interval) {
+    this.interval = Math.max(1, interval);
+    maxInterval = 0;
+  }
+
+  /**
+   * Makes the interval follow {@link #setAngularSpeed}: maxInterval at or below steadySpeed,
+   * minInterval at or above fastSpeed, and linearly in between. Starts at minInterval.
+   */
+  public synchronized void setIntervalRange(
+      final int minInterval, final int maxInterval, final float steadySpeed, final float fastSpeed) {
+    this.minInterval = Math.max(1, minInterval);
+    this.maxInterval = Math.max(this.minInterval, maxInterval);
+    this.steadySpeed = steadySpeed;
+    this.fastSpeed = Math.max(steadySpeed, fastSpeed);
+    interval = this.minInterval;
+  }
+
+  /** Updates the interval from the camera's angular speed, in rad/s, if a range is set. */
+  public synchronized void setAngularSpeed(final float speed) {
+    if (maxInterval == 0) {
+      return;
+    }
+    final float steadiness =
+        fastSpeed > steadySpeed
+            ? Math.max(0, Math.min(1, (fastSpeed - speed) / (fastSpeed - steadySpeed)))
+            : (speed <= steadySpeed ? 1 : 0);
+    interval = Math.round(minInterval + steadiness * (maxInterval - minInterval));
+  }
+
+  public synchronized int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Returns whether the next frame should be detected, counting it either way.
+   *
+   * @param tracking Whether the tracker currently follows any object.
+   */
+  public synchronized boolean shouldDetect(final boolean tracking) {
+    if (framesSinceDetection != Integer.MAX_VALUE) {
+      ++framesSinceDetection;
+    }
+    if (!tracking || framesSinceDetection >= interval) {
+      framesSinceDetection = 0;
+      ++detectedFrames;
+      return true;
+    }
+    ++skippedFrames;
+    return false;
+  }
+
+  /**
+   * Makes the next frame be detected, for example because the frame chosen for detection could
+   * not be processed.
+   */
+  public synchronized void requestDetection() {
+    framesSinceDetection = Integer.MAX_VALUE;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "every %d frames: detected %d, predicted %d", interval, detectedFrames, skippedFrames);
+  }
+}
@@ -0,0 +1,69 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tracking;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/** A {@link RotationSource} fed by the device's gyroscope while started. */
+public class GyroscopeRotationSource implements RotationSource, SensorEventListener {
+  // About two seconds of samples at the game sensor rate.
+  private static final int HISTORY_CAPACITY = 512;
+
+  private final SensorManager sensorManager;
+  private final Sensor gyroscope;
+  private final RotationHistory history = new RotationHistory(HISTORY_CAPACITY);
+
+  public GyroscopeRotationSource(final SensorManager sensorManager) {
+    this.sensorManager = sensorManager;
+    gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+  }
+
+  /** Starts listening to the gyroscope. Returns false if the device has none. */
+  public boolean start() {
+    return gyroscope != null
+        && sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_GAME);
+  }
+
+  public void stop() {
+    sensorManager.unregisterListener(this);
+  }
+
+  @Override
+  public void onSensorChanged(final SensorEvent event) {
+    synchronized (history) {
+      history.add(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+  }
+
+  @Override
+  public void onAccuracyChanged(final Sensor sensor, final int accuracy) {}
+
+  @Override
+  public boolean getRotation(final long fromNs, final long toNs, final float[] rotation) {
+    synchronized (history) {
+      return history.integrate(fromNs, toNs, rotation);
+    }
+  }
+
+  @Override
+  public float getAngularSpeed(final long atNs) {
+    synchronized (history) {
+      return history.getAngularSpeed(atNs);
+    }
+  }
+}
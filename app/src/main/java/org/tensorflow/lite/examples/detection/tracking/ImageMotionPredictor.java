@@ -0,0 +1,81 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import android.graphics.Matrix;
+
+/**
+ * Predicts how camera rotation shifts the image of a static scene, for a pinhole camera on the
+ * back of the device. Roll about the optical axis is ignored, as it turns boxes rather than
+ * shifting them and is small for a head-mounted camera.
+ */
+public class ImageMotionPredictor {
+  private final RotationSource rotationSource;
+  private final float focalLengthPx;
+  // Maps a shift of the upright image into the sensor's orientation.
+  private final Matrix uprightToSensor = new Matrix();
+  private final float[] rotation = new float[3];
+
+  /**
+   * @param focalLengthPx Focal length of the camera, in pixels of the frames predicted for.
+   * @param sensorOrientation Clockwise rotation, in degrees, that turns a frame upright relative
+   *     to the device's natural orientation.
+   */
+  public ImageMotionPredictor(
+      final RotationSource rotationSource, final float focalLengthPx, final int sensorOrientation) {
+    this.rotationSource = rotationSource;
+    this.focalLengthPx = focalLengthPx;
+    uprightToSensor.setRotate(-sensorOrientation);
+  }
+
+  /** Returns the focal length, in pixels, of a frame width spanning a horizontal field of view. */
+  public static float getFocalLength(final int frameWidth, final float horizontalFovDegrees) {
+    return 0.5f * frameWidth / (float) Math.tan(Math.toRadians(horizontalFovDegrees) / 2);
+  }
+
+  /**
+   * Returns the focal length, in pixels, of a frame width spanning the given width of the sensor
+   * behind a lens of the given focal length. Both lengths are in the same unit, such as mm.
+   */
+  public static float getFocalLength(
+      final int frameWidth, final float lensFocalLength, final float sensorWidth) {
+    return frameWidth * lensFocalLength / sensorWidth;
+  }
+
+  /**
+   * Predicts the shift of static content between two frames, in frame pixels.
+   *
+   * @param displacement Receives the shift as x, y.
+   * @return false if the rotation source has no samples for the interval, in which case
+   *     displacement is untouched.
+   */
+  public boolean predict(final long fromNs, final long toNs, final float[] displacement) {
+    if (!rotationSource.getRotation(fromNs, toNs, rotation)) {
+      return false;
+    }
+    // Turning left, counter-clockwise about y, moves the scene right; tilting up, about x, moves
+    // it down.
+    displacement[0] = focalLengthPx * (float) Math.tan(rotation[1]);
+    displacement[1] = focalLengthPx * (float) Math.tan(rotation[0]);
+    uprightToSensor.mapVectors(displacement);
+    return true;
+  }
+
+  /** Angular speed of the camera around the given time, in rad/s. */
+  public float getAngularSpeed(final long atNs) {
+    return rotationSource.getAngularSpeed(atNs);
+  }
+}
@@ -0,0 +1,204 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+
+/**
+ * Follows boxes from one camera frame to the next by matching a patch at the center of each box
+ * on the luminance plane, downsampled by {@link #DOWNSAMPLING} in each direction. Cheap enough to
+ * run on every camera frame, so that boxes move at camera rate between detections.
+ */
+public class LuminancePatchTracker {
+  /** Factor by which the luminance plane is downsampled before matching. */
+  public static final int DOWNSAMPLING = 4;
+
+  // Largest deviation from the expected displacement searched, in downsampled pixels per frame.
+  private static final int SEARCH_RADIUS = 4;
+  // Patch side limits, in downsampled pixels.
+  private static final int MIN_PATCH_SIZE = 4;
+  private static final int MAX_PATCH_SIZE = 12;
+  // Patches whose mean absolute deviation is below this are too flat to match reliably.
+  private static final int MIN_TEXTURE = 4;
+  // Matches whose mean absolute difference per pixel is above this are treated as lost, for
+  // example because the object was occluded.
+  private static final int MAX_MEAN_ERROR = 24;
+
+  private final int width;
+  private final int height;
+  private byte[] previous;
+  private byte[] current;
+  private long previousTimestamp = -1;
+  private long currentTimestamp = -1;
+  // SAD of every searched displacement, reused by every match.
+  private final int[] costs = new int[(2 * SEARCH_RADIUS + 1) * (2 * SEARCH_RADIUS + 1)];
+
+  private long matchedCount = 0;
+  private long rejectedCount = 0;
+
+  /** @param frameWidth Width of the luminance plane, in camera pixels; likewise frameHeight. */
+  public LuminancePatchTracker(final int frameWidth, final int frameHeight) {
+    width = frameWidth / DOWNSAMPLING;
+    height = frameHeight / DOWNSAMPLING;
+    previous = new byte[width * height];
+    current = new byte[width * height];
+  }
+
+  /**
+   * Downsamples the luminance plane of a new frame, which becomes the current frame; the current
+   * one becomes the previous frame that boxes are matched from.
+   */
+  public void nextFrame(final ByteBuffer luminance, final int rowStride, final long timestamp) {
+    final byte[] swap = previous;
+    previous = current;
+    current = swap;
+    previousTimestamp = currentTimestamp;
+    currentTimestamp = timestamp;
+
+    // Box filter every DOWNSAMPLING square, so that noise and aliasing do not disturb matching.
+    final int area = DOWNSAMPLING * DOWNSAMPLING;
+    for (int y = 0, out = 0; y < height; ++y) {
+      final int rowStart = y * DOWNSAMPLING * rowStride;
+      for (int x = 0; x < width; ++x) {
+        int sum = 0;
+        for (int dy = 0, p = rowStart + x * DOWNSAMPLING; dy < DOWNSAMPLING; ++dy, p += rowStride) {
+          for (int dx = 0; dx < DOWNSAMPLING; ++dx) {
+            sum += 0xff & luminance.get(p + dx);
+          }
+        }
+        current[out++] = (byte) ((sum + area / 2) / area);
+      }
+    }
+  }
+
+  /** Number of frames between the previous and current frame, or 0 if there is no previous one. */
+  public long getFrameGap() {
+    return previousTimestamp < 0 ? 0 : currentTimestamp - previousTimestamp;
+  }
+
+  /**
+   * Estimates how the content of a box moved from the previous frame to the current one.
+   *
+   * @param box Box on the previous frame, in camera pixels.
+   * @param displacement On input the expected motion, which the search is centered on, and on
+   *     output the measured one, both in camera pixels as x, y. Pass zeros without a guess.
+   * @return false if there is no previous frame or the box could not be followed reliably, in
+   *     which case displacement is untouched.
+   */
+  public boolean estimateMotion(final RectF box, final float[] displacement) {
+    if (getFrameGap() == 0) {
+      return false;
+    }
+    final int size =
+        Math.max(
+            MIN_PATCH_SIZE,
+            Math.min(
+                MAX_PATCH_SIZE,
+                (int) (Math.min(box.width(), box.height()) / (2 * DOWNSAMPLING))));
+    final int left = Math.round(box.centerX() / DOWNSAMPLING) - size / 2;
+    final int top = Math.round(box.centerY() / DOWNSAMPLING) - size / 2;
+    final int offsetX = Math.round(displacement[0] / DOWNSAMPLING);
+    final int offsetY = Math.round(displacement[1] / DOWNSAMPLING);
+    if (left < 0
+        || top < 0
+        || left + size > width
+        || top + size > height
+        || left + offsetX - SEARCH_RADIUS < 0
+        || top + offsetY - SEARCH_RADIUS < 0
+        || left + offsetX + size + SEARCH_RADIUS > width
+        || top + offsetY + size + SEARCH_RADIUS > height) {
+      // Too close to the edge to search every displacement.
+      ++rejectedCount;
+      return false;
+    }
+    if (meanAbsoluteDeviation(left, top, size) < MIN_TEXTURE) {
+      ++rejectedCount;
+      return false;
+    }
+
+    int best = 0;
+    for (int dy = -SEARCH_RADIUS, k = 0; dy <= SEARCH_RADIUS; ++dy) {
+      for (int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; ++dx, ++k) {
+        costs[k] = sad(left, top, left + offsetX + dx, top + offsetY + dy, size);
+        if (costs[k] < costs[best]) {
+          best = k;
+        }
+      }
+    }
+    if (costs[best] > MAX_MEAN_ERROR * size * size) {
+      ++rejectedCount;
+      return false;
+    }
+
+    // Refine to sub-pixel precision with a parabola through the neighbouring costs.
+    final int side = 2 * SEARCH_RADIUS + 1;
+    final int bestX = best % side;
+    final int bestY = best / side;
+    final float dx = offsetX + bestX - SEARCH_RADIUS + refine(bestX, best, 1, side);
+    final float dy = offsetY + bestY - SEARCH_RADIUS + refine(bestY, best, side, side);
+    displacement[0] = dx * DOWNSAMPLING;
+    displacement[1] = dy * DOWNSAMPLING;
+    ++matchedCount;
+    return true;
+  }
+
+  /** Offset, between -0.5 and 0.5, of the minimum of a parabola through the costs around best. */
+  private float refine(final int position, final int best, final int step, final int side) {
+    if (position == 0 || position == side - 1) {
+      return 0;
+    }
+    final int before = costs[best - step];
+    final int after = costs[best + step];
+    final int curvature = before - 2 * costs[best] + after;
+    return curvature > 0 ? 0.5f * (before - after) / curvature : 0;
+  }
+
+  /** Sum of absolute differences between a previous-frame patch and a current-frame patch. */
+  private int sad(
+      final int fromLeft, final int fromTop, final int toLeft, final int toTop, final int size) {
+    int sum = 0;
+    for (int y = 0; y < size; ++y) {
+      int p = (fromTop + y) * width + fromLeft;
+      int c = (toTop + y) * width + toLeft;
+      for (int x = 0; x < size; ++x, ++p, ++c) {
+        sum += Math.abs((0xff & previous[p]) - (0xff & current[c]));
+      }
+    }
+    return sum;
+  }
+
+  private int meanAbsoluteDeviation(final int left, final int top, final int size) {
+    int sum = 0;
+    for (int y = 0; y < size; ++y) {
+      for (int x = 0, p = (top + y) * width + left; x < size; ++x, ++p) {
+        sum += 0xff & previous[p];
+      }
+    }
+    final int mean = sum / (size * size);
+    int deviation = 0;
+    for (int y = 0; y < size; ++y) {
+      for (int x = 0, p = (top + y) * width + left; x < size; ++x, ++p) {
+        deviation += Math.abs((0xff & previous[p]) - mean);
+      }
+    }
+    return deviation / (size * size);
+  }
+
+  public String getStatString() {
+    return String.format("patches matched %d, lost %d", matchedCount, rejectedCount);
+  }
+}
@@ -29,25 +29,29 @@ import android.os.Vibrator;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
 import android.util.Log;
-import android.util.Pair;
 import android.util.TypedValue;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
-import org.tensorflow.lite.examples.detection.env.Logger;
-import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
 
 import static android.content.ContentValues.TAG;
 import static android.content.Context.VIBRATOR_SERVICE;
 import static java.lang.String.*;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * A tracker that matches new detections to existing objects by box overlap, and predicts where
+ * each object is on frames between detections with a constant-velocity model. Where the
+ * luminance plane is available, boxes are also followed from frame to frame by patch matching,
+ * which re-anchors the prediction at camera rate, and camera rotation measured by the gyroscope
+ * is added to the prediction, so that object velocities only model the objects' own motion.
+ * Objects keep their id, and so their color, for
+ * as long as they keep being matched.
+ */
 public class MultiBoxTracker {
 
   private static final float TEXT_SIZE_DIP = 18;
-  private static final float MIN_SIZE = 16.0f;
+  // Detections narrower or shorter than this many frame pixels are not tracked.
+  public static final float MIN_SIZE = 16.0f;
   private static final int[] COLORS = {
     Color.BLUE,
     Color.RED,
@@ -65,14 +69,58 @@ public class MultiBoxTracker {
     Color.parseColor("#AA33AA"),
     Color.parseColor("#0D0068")
   };
-  private final List<Pair<Float, RectF>> screenRects = new LinkedList<>();
-  private final Logger logger = new Logger();
-  private final Queue<Integer> availableColors = new LinkedList<>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<>();
+  // Class the user is alerted about. Labels are interned when loaded, so this literal is the same
+  // reference as the model's label.
+  private static final String PERSON_LABEL = "person";
+  // Upper bound on the detections a single frame can contribute to the debug overlay.
+  private static final int MAX_SCREEN_RECTS = 100;
+  // A detection continues a track if its box overlaps the track's predicted box at least this much.
+  private static final float MIN_ASSOCIATION_IOU = 0.3f;
+  // An unmatched detection overlapping a matched track this much duplicates it and is dropped.
+  private static final float DUPLICATE_IOU = 0.5f;
+  // Tracks are dropped after this many frames without a matching detection.
+  private static final long MAX_COAST_FRAMES = 15;
+  // Weight of the newest measurement in the velocity estimate.
+  private static final float VELOCITY_SMOOTHING = 0.5f;
+  // Results are written into these preallocated slots so that tracking a frame does not allocate.
+  private final RectF[] screenRects = new RectF[MAX_SCREEN_RECTS];
+  private final float[] screenConfidences = new float[MAX_SCREEN_RECTS];
+  private int screenRectCount = 0;
+  private final TrackedRecognition[] trackedObjects = new TrackedRecognition[COLORS.length];
+  private int trackedCount = 0;
+  private int nextTrackId = 0;
+  // Most recent frame passed to advance() or trackResults().
+  private long latestTimestamp = 0;
+  // Per detection of the frame being tracked, whether it is trackable and still unmatched.
+  private final boolean[] detectionUnmatched = new boolean[MAX_SCREEN_RECTS];
+  // Maps tracked boxes onto the luminance plane and back; null until set.
+  private Matrix trackerToLuminance;
+  private final Matrix luminanceToTracker = new Matrix();
+  private final RectF luminanceBox = new RectF();
+  private final float[] displacement = new float[2];
+  // Frames of camera motion kept; must cover the oldest anchor of a live track.
+  private static final int CAMERA_HISTORY = 64;
+  // Accumulated camera motion per frame, in tracker pixels, indexed by timestamp modulo the
+  // history size. Only valid from cameraHistoryStart to cameraTimestamp, which is -1 before any
+  // motion.
+  private final float[] cameraOffsetX = new float[CAMERA_HISTORY];
+  private final float[] cameraOffsetY = new float[CAMERA_HISTORY];
+  private long cameraHistoryStart = 0;
+  private long cameraTimestamp = -1;
+  private final float[] cameraStep = new float[2];
+  private final RectF predictedBox = new RectF();
+  private final RectF detectionFrameRect = new RectF();
   private final Paint boxPaint = new Paint();
   private final float textSizePx;
   private final BorderedText borderedText;
   private Matrix frameToCanvasMatrix;
+  // Canvas size frameToCanvasMatrix was computed for.
+  private int canvasWidth;
+  private int canvasHeight;
+  // Reused by every draw.
+  private final RectF midRect = new RectF();
+  private final RectF trackedPos = new RectF();
+  private final Matrix screenMatrix = new Matrix();
   private int frameWidth;
   private int frameHeight;
   private int sensorOrientation;
@@ -87,8 +135,11 @@ public class MultiBoxTracker {
 
   public MultiBoxTracker(final Context context) {
 
-    for (final int color : COLORS) {
-      availableColors.add(color);
+    for (int i = 0; i < MAX_SCREEN_RECTS; ++i) {
+      screenRects[i] = new RectF();
+    }
+    for (int i = 0; i < trackedObjects.length; ++i) {
+      trackedObjects[i] = new TrackedRecognition();
     }
     boxPaint.setColor(Color.RED);
     boxPaint.setStyle(Style.STROKE);
@@ -108,6 +159,7 @@ public class MultiBoxTracker {
     frameWidth = width;
     frameHeight = height;
     this.sensorOrientation = sensorOrientation;
+    frameToCanvasMatrix = null;
   }
 
   public synchronized void drawDebug(final Canvas canvas) {
@@ -120,17 +172,148 @@ public class MultiBoxTracker {
     boxPaint.setAlpha(200);
     boxPaint.setStyle(Style.STROKE);
 
-    for (final Pair<Float, RectF> detection : screenRects) {
-      final RectF rect = detection.second;
+    for (int i = 0; i < screenRectCount; ++i) {
+      final RectF rect = screenRects[i];
       canvas.drawRect(rect, boxPaint);
-      canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
-      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + detection.first);
+      canvas.drawText("" + screenConfidences[i], rect.left, rect.top, textPaint);
+      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + screenConfidences[i]);
+    }
+  }
+
+  /**
+   * Updates the tracks with the detections of a frame. Frames must be passed in timestamp order,
+   * but may be older than the latest frame passed to {@link #advance}.
+   *
+   * @param timestamp Frame number; motion is estimated in frame pixels per frame.
+   */
+  public synchronized void trackResults(final Detections results, final long timestamp) {
+    processResults(results, timestamp);
+  }
+
+  /**
+   * Moves every track to its predicted position on a frame without detections, dropping those
+   * that have gone unmatched for too long.
+   */
+  public synchronized void advance(final long timestamp) {
+    latestTimestamp = Math.max(latestTimestamp, timestamp);
+    expireTracks(latestTimestamp);
+    for (int i = 0; i < trackedCount; ++i) {
+      predict(trackedObjects[i], latestTimestamp, trackedObjects[i].location);
+    }
+  }
+
+  /**
+   * Sets how tracked boxes map onto the luminance plane, enabling {@link #advance(long,
+   * LuminancePatchTracker)}.
+   */
+  public synchronized void setLuminanceTransform(final Matrix trackerToLuminance) {
+    this.trackerToLuminance = new Matrix(trackerToLuminance);
+    trackerToLuminance.invert(luminanceToTracker);
+  }
+
+  /**
+   * Records how the camera's motion since the previous frame moved the image, for example as
+   * predicted from the gyroscope. The shift is added to every track's prediction from this frame
+   * on. Requires {@link #setLuminanceTransform}.
+   *
+   * @param dx Shift of static content along x, in luminance pixels.
+   * @param dy Shift of static content along y, in luminance pixels.
+   */
+  public synchronized void addCameraMotion(final long timestamp, final float dx, final float dy) {
+    if (trackerToLuminance == null || timestamp <= cameraTimestamp) {
+      return;
+    }
+    cameraStep[0] = dx;
+    cameraStep[1] = dy;
+    luminanceToTracker.mapVectors(cameraStep);
+    float x = 0;
+    float y = 0;
+    if (cameraTimestamp >= 0 && timestamp - cameraTimestamp < CAMERA_HISTORY) {
+      x = cameraOffsetX[index(cameraTimestamp)];
+      y = cameraOffsetY[index(cameraTimestamp)];
+      // Frames without a measurement saw no camera motion.
+      for (long t = cameraTimestamp + 1; t < timestamp; ++t) {
+        cameraOffsetX[index(t)] = x;
+        cameraOffsetY[index(t)] = y;
+      }
+    } else {
+      // Tracks anchored before the gap have expired, so the history can start over, from the
+      // frame before this one.
+      for (int i = 0; i < CAMERA_HISTORY; ++i) {
+        cameraOffsetX[i] = 0;
+        cameraOffsetY[i] = 0;
+      }
+      cameraHistoryStart = Math.max(0, timestamp - 1);
+    }
+    cameraOffsetX[index(timestamp)] = x + cameraStep[0];
+    cameraOffsetY[index(timestamp)] = y + cameraStep[1];
+    cameraTimestamp = timestamp;
+  }
+
+  /**
+   * Like {@link #advance(long)}, but first moves every track the patch tracker can follow by the
+   * motion it measured, re-anchoring the track's prediction there. The patch tracker's current
+   * frame must be the one with this timestamp.
+   */
+  public synchronized void advance(
+      final long timestamp, final LuminancePatchTracker patchTracker) {
+    final long frames = patchTracker.getFrameGap();
+    if (trackerToLuminance != null && frames > 0) {
+      for (int i = 0; i < trackedCount; ++i) {
+        final TrackedRecognition track = trackedObjects[i];
+        // The track is still where it was predicted on the previous frame. Search around where
+        // it is predicted on this one.
+        trackerToLuminance.mapRect(luminanceBox, track.location);
+        predict(track, timestamp, predictedBox);
+        displacement[0] = predictedBox.centerX() - track.location.centerX();
+        displacement[1] = predictedBox.centerY() - track.location.centerY();
+        trackerToLuminance.mapVectors(displacement);
+        if (!patchTracker.estimateMotion(luminanceBox, displacement)) {
+          continue;
+        }
+        luminanceToTracker.mapVectors(displacement);
+        // The object's own motion is what is left after the camera's.
+        final float ownX =
+            displacement[0] - getCameraOffsetX(timestamp) + getCameraOffsetX(timestamp - frames);
+        final float ownY =
+            displacement[1] - getCameraOffsetY(timestamp) + getCameraOffsetY(timestamp - frames);
+        track.velocityX += VELOCITY_SMOOTHING * (ownX / frames - track.velocityX);
+        track.velocityY += VELOCITY_SMOOTHING * (ownY / frames - track.velocityY);
+        track.anchorLocation.set(track.location);
+        track.anchorLocation.offset(displacement[0], displacement[1]);
+        track.anchorTimestamp = timestamp;
+      }
+    }
+    advance(timestamp);
+  }
+
+  /**
+   * Counts the tracks matched at the reference frame as detected again at timestamp, for a frame
+   * known to show the same scene, so that they do not coast out while detection is skipped. Tracks
+   * the reference frame did not match are left to expire, and every track keeps its velocity.
+   */
+  public synchronized void holdTracks(final long referenceTimestamp, final long timestamp) {
+    for (int i = 0; i < trackedCount; ++i) {
+      final TrackedRecognition track = trackedObjects[i];
+      // Tracks held since the reference frame were matched there too.
+      if (track.detectedTimestamp >= referenceTimestamp) {
+        track.detectedTimestamp = Math.max(track.detectedTimestamp, timestamp);
+      }
     }
   }
 
-  public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
-    logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
+  /** Number of objects currently tracked, including those only predicted. */
+  public synchronized int getTrackedCount() {
+    return trackedCount;
+  }
+
+  /**
+   * Writes where the track at index i, below {@link #getTrackedCount()}, is predicted on the
+   * latest frame, and returns its id. Indices change as tracks expire; ids do not.
+   */
+  synchronized int getTrack(final int i, final RectF location) {
+    location.set(trackedObjects[i].location);
+    return trackedObjects[i].id;
   }
 
   private Matrix getFrameToCanvasMatrix() {
@@ -148,34 +331,41 @@ public class MultiBoxTracker {
 //        final RectF midRect = new RectF((float)(canvas.getWidth()/2)-150,(float)0,(float)(canvas.getWidth()/2)-50,(float)canvas.getHeight());
 
     // Hardcoding values for EPSON-BT-300 device
-      final RectF midRect = new RectF((float)(865.0/2.0)-50,(float)0,(float)(865.0/2.0)+50,(float)canvas.getHeight());
+      midRect.set((float)(865.0/2.0)-50,(float)0,(float)(865.0/2.0)+50,(float)canvas.getHeight());
       boxPaint.setColor(Color.RED);
       canvas.drawRect(midRect, boxPaint);
 
     //===================================
 
-    final boolean rotated = sensorOrientation % 180 == 90;
-    final float multiplier =
-        Math.min(
-            canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
-            canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
-
-    frameToCanvasMatrix =
-        ImageUtils.getTransformationMatrix(
-            frameWidth,
-            frameHeight,
-            (int) (multiplier * (rotated ? frameHeight : frameWidth)),
-            (int) (multiplier * (rotated ? frameWidth : frameHeight)),
-            sensorOrientation,
-            false);
+    if (frameToCanvasMatrix == null
+        || canvas.getWidth() != canvasWidth
+        || canvas.getHeight() != canvasHeight) {
+      canvasWidth = canvas.getWidth();
+      canvasHeight = canvas.getHeight();
+      final boolean rotated = sensorOrientation % 180 == 90;
+      final float multiplier =
+          Math.min(
+              canvasHeight / (float) (rotated ? frameWidth : frameHeight),
+              canvasWidth / (float) (rotated ? frameHeight : frameWidth));
+
+      frameToCanvasMatrix =
+          ImageUtils.getTransformationMatrix(
+              frameWidth,
+              frameHeight,
+              (int) (multiplier * (rotated ? frameHeight : frameWidth)),
+              (int) (multiplier * (rotated ? frameWidth : frameHeight)),
+              sensorOrientation,
+              false);
+    }
 
     // Change of situation has occurred
     if (person_found == 1){
       person_found = 0;
     }
 
-    for (final TrackedRecognition recognition2 : trackedObjects){
-      if (recognition2.title.equals("person")){
+    for (int i = 0; i < trackedCount; ++i){
+      final TrackedRecognition recognition2 = trackedObjects[i];
+      if (recognition2.isPerson){
         person_found = 1; // meaning there is a person detected
       }
     }
@@ -190,14 +380,15 @@ public class MultiBoxTracker {
 
       los_or_out = 2; // Initialized at every frame
 
-      for (final TrackedRecognition recognition : trackedObjects) {
-        RectF trackedPos = new RectF(recognition.location);
-        if (!recognition.title.equals("person")) continue;
+      for (int i = 0; i < trackedCount; ++i) {
+        final TrackedRecognition recognition = trackedObjects[i];
+        if (!recognition.isPerson) continue;
+        trackedPos.set(recognition.location);
 
         float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 10.0f;
 
         // Scaling the rectangle matrix according to the screen size
-          Matrix matrix = new Matrix();
+          final Matrix matrix = screenMatrix;
 
           // For display size (640 * 480) having corresponding values as (865*640)
           matrix.setScale((float) (480.0 / 640.0), (float) (640.0 / 480.0), (float) (640.0 / 2.0), (float) (480.0 / 2.0));
@@ -224,13 +415,17 @@ public class MultiBoxTracker {
           canvas.drawRect(trackedPos, boxPaint); // -- To have rectangular edges
 
 
-          @SuppressLint("DefaultLocale") final String labelString =
-                  !TextUtils.isEmpty(recognition.title)
-                          ? format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-                          : format("%.2f", (100 * recognition.detectionConfidence));
+          // Built once per detection rather than on every draw.
+          if (recognition.label == null) {
+            @SuppressLint("DefaultLocale") final String labelString =
+                    !TextUtils.isEmpty(recognition.title)
+                            ? format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
+                            : format("%.2f", (100 * recognition.detectionConfidence));
+            recognition.label = labelString + "%";
+          }
 
           borderedText.drawText(
-                  canvas, trackedPos.left + cornerSize, trackedPos.top, labelString + "%", boxPaint);
+                  canvas, trackedPos.left + cornerSize, trackedPos.top, recognition.label, boxPaint);
 
         // These if and else if statements just recognize what is the scenario
         // Priority is given to Line of sight
@@ -270,57 +465,226 @@ public class MultiBoxTracker {
     }
   }
 
-  private void processResults(final List<Recognition> results) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<>();
-
-    screenRects.clear();
-    final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
-    for (final Recognition result : results) {
-      if (result.getLocation() == null) {
-        continue;
+  private void processResults(final Detections results, final long timestamp) {
+    screenRectCount = 0;
+    final Matrix rgbFrameToScreen = getFrameToCanvasMatrix();
+    final int detectionCount = Math.min(results.count, MAX_SCREEN_RECTS);
+    for (int i = 0; i < detectionCount; ++i) {
+      results.getBox(i, detectionFrameRect);
+
+      if (rgbFrameToScreen != null) {
+        rgbFrameToScreen.mapRect(screenRects[screenRectCount], detectionFrameRect);
+        screenConfidences[screenRectCount] = results.scores[i];
+        ++screenRectCount;
       }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
 
-      final RectF detectionScreenRect = new RectF();
-      rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
+      detectionUnmatched[i] = isTrackable(detectionFrameRect);
+    }
 
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+    // Associate against where the tracks should be on the detected frame.
+    for (int t = 0; t < trackedCount; ++t) {
+      final TrackedRecognition track = trackedObjects[t];
+      predict(track, timestamp, track.location);
+      track.matched = false;
+    }
 
-      screenRects.add(new Pair<>(result.getConfidence(), detectionScreenRect));
+    // Greedily match the most overlapping track and detection of the same class until no pair
+    // overlaps enough. There are few enough of either for the quadratic search per match.
+    final float[] boxes = results.boxes;
+    while (true) {
+      float bestIou = MIN_ASSOCIATION_IOU;
+      TrackedRecognition bestTrack = null;
+      int bestDetection = -1;
+      for (int t = 0; t < trackedCount; ++t) {
+        final TrackedRecognition track = trackedObjects[t];
+        if (track.matched) {
+          continue;
+        }
+        for (int i = 0; i < detectionCount; ++i) {
+          if (!detectionUnmatched[i] || results.classIds[i] != track.classId) {
+            continue;
+          }
+          final int b = 4 * i;
+          final float iou = iou(track.location, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+          if (iou > bestIou) {
+            bestIou = iou;
+            bestTrack = track;
+            bestDetection = i;
+          }
+        }
+      }
+      if (bestTrack == null) {
+        break;
+      }
+      updateTrack(bestTrack, results, bestDetection, timestamp);
+      bestTrack.matched = true;
+      detectionUnmatched[bestDetection] = false;
+    }
 
-      if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
-        logger.w("Degenerate rectangle! " + detectionFrameRect);
+    // Start tracks for the remaining detections, unless they duplicate a matched track.
+    for (int i = 0; i < detectionCount && trackedCount < trackedObjects.length; ++i) {
+      if (!detectionUnmatched[i] || duplicatesMatchedTrack(boxes, i)) {
         continue;
       }
-
-      rectsToTrack.add(new Pair<>(result.getConfidence(), result));
+      final TrackedRecognition track = trackedObjects[trackedCount++];
+      track.id = nextTrackId++;
+      track.color = COLORS[track.id % COLORS.length];
+      track.velocityX = 0;
+      track.velocityY = 0;
+      track.anchorTimestamp = timestamp;
+      track.detectedTimestamp = timestamp;
+      updateTrack(track, results, i, timestamp);
+      track.matched = true;
     }
 
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
+    advance(timestamp);
+  }
+
+  private boolean duplicatesMatchedTrack(final float[] boxes, final int i) {
+    final int b = 4 * i;
+    for (int t = 0; t < trackedCount; ++t) {
+      final TrackedRecognition track = trackedObjects[t];
+      if (track.matched
+          && iou(track.location, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3])
+              > DUPLICATE_IOU) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    trackedObjects.clear();
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-      trackedRecognition.color = COLORS[trackedObjects.size()];
-      trackedObjects.add(trackedRecognition);
+  /**
+   * Re-anchors a track on a matched detection, folding the displacement into its velocity.
+   * Detections are slower than patch matching, so the track may already be anchored on a newer
+   * frame; the detection is then carried forward to it at the track's velocity.
+   */
+  private void updateTrack(
+      final TrackedRecognition track,
+      final Detections results,
+      final int i,
+      final long timestamp) {
+    final float left = results.boxes[4 * i];
+    final float top = results.boxes[4 * i + 1];
+    final float right = results.boxes[4 * i + 2];
+    final float bottom = results.boxes[4 * i + 3];
+    final long frames = timestamp - track.anchorTimestamp;
+    // Camera motion between the anchor frame and the detected one.
+    final float cameraX = getCameraOffsetX(timestamp) - getCameraOffsetX(track.anchorTimestamp);
+    final float cameraY = getCameraOffsetY(timestamp) - getCameraOffsetY(track.anchorTimestamp);
+    if (frames > 0) {
+      final float measuredX =
+          ((left + right) - (track.anchorLocation.left + track.anchorLocation.right)
+                  - 2.0f * cameraX)
+              / (2.0f * frames);
+      final float measuredY =
+          ((top + bottom) - (track.anchorLocation.top + track.anchorLocation.bottom)
+                  - 2.0f * cameraY)
+              / (2.0f * frames);
+      track.velocityX += VELOCITY_SMOOTHING * (measuredX - track.velocityX);
+      track.velocityY += VELOCITY_SMOOTHING * (measuredY - track.velocityY);
+      track.anchorLocation.set(left, top, right, bottom);
+      track.anchorTimestamp = timestamp;
+    } else {
+      track.anchorLocation.set(left, top, right, bottom);
+      track.anchorLocation.offset(
+          -frames * track.velocityX - cameraX, -frames * track.velocityY - cameraY);
+    }
+    predict(track, timestamp, track.location);
+    track.detectedTimestamp = Math.max(track.detectedTimestamp, timestamp);
+    track.detectionConfidence = results.scores[i];
+    track.classId = results.classIds[i];
+    track.title = results.getLabel(i);
+    track.isPerson = track.title == PERSON_LABEL;
+    track.label = null;
+  }
 
-      if (trackedObjects.size() >= COLORS.length) {
-        break;
+  /** Drops tracks that have not been matched for too long, keeping the rest contiguous. */
+  private void expireTracks(final long timestamp) {
+    for (int t = trackedCount - 1; t >= 0; --t) {
+      final TrackedRecognition track = trackedObjects[t];
+      if (timestamp - track.detectedTimestamp > MAX_COAST_FRAMES) {
+        // Swap the expired instance to the end, so it is reused by the next new track.
+        trackedObjects[t] = trackedObjects[trackedCount - 1];
+        trackedObjects[trackedCount - 1] = track;
+        --trackedCount;
       }
     }
   }
 
+  /** Writes where a track's box is expected to be on the given frame. */
+  private void predict(final TrackedRecognition track, final long timestamp, final RectF out) {
+    final long frames = timestamp - track.anchorTimestamp;
+    out.set(track.anchorLocation);
+    out.offset(
+        track.velocityX * frames
+            + getCameraOffsetX(timestamp)
+            - getCameraOffsetX(track.anchorTimestamp),
+        track.velocityY * frames
+            + getCameraOffsetY(timestamp)
+            - getCameraOffsetY(track.anchorTimestamp));
+  }
+
+  /**
+   * Accumulated camera motion up to a frame. Frames after the latest measurement saw none, and
+   * frames before the history are clamped to its start.
+   */
+  private float getCameraOffsetX(final long timestamp) {
+    return cameraTimestamp < 0 ? 0 : cameraOffsetX[index(clampToHistory(timestamp))];
+  }
+
+  private float getCameraOffsetY(final long timestamp) {
+    return cameraTimestamp < 0 ? 0 : cameraOffsetY[index(clampToHistory(timestamp))];
+  }
+
+  private long clampToHistory(final long timestamp) {
+    return Math.max(
+        Math.max(cameraHistoryStart, cameraTimestamp - CAMERA_HISTORY + 1),
+        Math.min(cameraTimestamp, timestamp));
+  }
+
+  private static int index(final long timestamp) {
+    return (int) (timestamp % CAMERA_HISTORY);
+  }
+
+  /** Intersection over union of a rectangle and the box left, top, right, bottom. */
+  private static float iou(
+      final RectF a, final float left, final float top, final float right, final float bottom) {
+    final float intersectionWidth = Math.min(a.right, right) - Math.max(a.left, left);
+    final float intersectionHeight = Math.min(a.bottom, bottom) - Math.max(a.top, top);
+    if (intersectionWidth <= 0 || intersectionHeight <= 0) {
+      return 0;
+    }
+    final float intersection = intersectionWidth * intersectionHeight;
+    final float union = a.width() * a.height() + (right - left) * (bottom - top) - intersection;
+    return union > 0 ? intersection / union : 0;
+  }
+
+  /** Rejects degenerate rectangles that are too small to track. */
+  private static boolean isTrackable(final RectF frameRect) {
+    return frameRect.width() >= MIN_SIZE && frameRect.height() >= MIN_SIZE;
+  }
+
   private static class TrackedRecognition {
-    RectF location;
+    // Last measured box, by detection or patch matching, and the frame it was measured on.
+    final RectF anchorLocation = new RectF();
+    long anchorTimestamp;
+    // Latest frame the object was detected on.
+    long detectedTimestamp;
+    // Box predicted for the latest frame, which is what is drawn.
+    final RectF location = new RectF();
+    // Motion of the box center apart from the camera's, in frame pixels per frame.
+    float velocityX;
+    float velocityY;
+    int id;
+    int classId;
+    // Set during association once a detection has been assigned.
+    boolean matched;
     float detectionConfidence;
     int color;
     String title;
+    // Whether title is PERSON_LABEL, resolved once per detection rather than on every draw.
+    boolean isPerson;
+    // Drawn label, built lazily from title and detectionConfidence; null when stale.
+    String label;
   }
 }
@@ -0,0 +1,87 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link RotationSource} replaying a recorded gyroscope trace, for exercising the tracker and
+ * scheduler off the device or reproducibly on it. Queries use the trace's own timestamps.
+ */
+public class RecordedRotationSource implements RotationSource {
+  private final RotationHistory history;
+
+  /**
+   * @param timestampsNs Sample times in increasing order.
+   * @param rates x, y and z angular velocity of every sample in turn, in rad/s.
+   */
+  public RecordedRotationSource(final long[] timestampsNs, final float[] rates) {
+    history = new RotationHistory(Math.max(1, timestampsNs.length));
+    for (int i = 0; i < timestampsNs.length; ++i) {
+      history.add(timestampsNs[i], rates[3 * i], rates[3 * i + 1], rates[3 * i + 2]);
+    }
+  }
+
+  /**
+   * Reads a trace with one sample per line, as the timestamp in nanoseconds and the x, y and z
+   * rates in rad/s separated by commas. Blank lines and lines starting with # are skipped.
+   */
+  public static RecordedRotationSource load(final InputStream trace) throws IOException {
+    final List<String[]> samples = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(trace));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] fields = line.split(",");
+      if (fields.length != 4) {
+        throw new IOException("Expected timestamp,x,y,z but got: " + line);
+      }
+      samples.add(fields);
+    }
+
+    final long[] timestamps = new long[samples.size()];
+    final float[] rates = new float[3 * samples.size()];
+    try {
+      for (int i = 0; i < timestamps.length; ++i) {
+        final String[] fields = samples.get(i);
+        timestamps[i] = Long.parseLong(fields[0].trim());
+        for (int axis = 0; axis < 3; ++axis) {
+          rates[3 * i + axis] = Float.parseFloat(fields[axis + 1].trim());
+        }
+      }
+    } catch (final NumberFormatException e) {
+      throw new IOException("Malformed trace", e);
+    }
+    return new RecordedRotationSource(timestamps, rates);
+  }
+
+  @Override
+  public boolean getRotation(final long fromNs, final long toNs, final float[] rotation) {
+    return history.integrate(fromNs, toNs, rotation);
+  }
+
+  @Override
+  public float getAngularSpeed(final long atNs) {
+    return history.getAngularSpeed(atNs);
+  }
+}
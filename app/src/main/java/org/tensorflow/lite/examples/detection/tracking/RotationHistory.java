@@ -0,0 +1,107 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * A bounded history of angular velocity samples that rotation sources answer queries from. Each
+ * sample's rate is taken to hold since the previous sample. Not thread-safe.
+ */
+class RotationHistory {
+  // Window getAngularSpeed() averages over.
+  private static final long SPEED_WINDOW_NS = 100_000_000L;
+
+  private final long[] timestamps;
+  // x, y and z rate of every sample, in rad/s.
+  private final float[] rates;
+  // Index of the newest sample, and the number of samples held.
+  private int newest = -1;
+  private int size = 0;
+
+  RotationHistory(final int capacity) {
+    timestamps = new long[capacity];
+    rates = new float[3 * capacity];
+  }
+
+  /** Appends a sample, which must not be older than the newest one, dropping the oldest if full. */
+  void add(final long timestampNs, final float x, final float y, final float z) {
+    newest = (newest + 1) % timestamps.length;
+    timestamps[newest] = timestampNs;
+    rates[3 * newest] = x;
+    rates[3 * newest + 1] = y;
+    rates[3 * newest + 2] = z;
+    size = Math.min(size + 1, timestamps.length);
+  }
+
+  /**
+   * Integrates the rates over [fromNs, toNs]. The part of the interval after the newest sample is
+   * extrapolated at its rate, as the latest sensor events lag the frames they are queried for.
+   */
+  boolean integrate(final long fromNs, final long toNs, final float[] rotation) {
+    if (size < 2 || toNs <= fromNs || timestamps[oldest()] > fromNs) {
+      return false;
+    }
+    float x = 0;
+    float y = 0;
+    float z = 0;
+    long end = Math.max(toNs, timestamps[newest]);
+    for (int n = 0, i = newest; n < size - 1; ++n) {
+      final int previous = (i - 1 + timestamps.length) % timestamps.length;
+      // The rate of sample i holds from the previous sample on; the newest one also after itself.
+      final long start = timestamps[previous];
+      final long overlapNs = Math.min(end, toNs) - Math.max(start, fromNs);
+      if (overlapNs > 0) {
+        final float seconds = overlapNs / 1e9f;
+        x += rates[3 * i] * seconds;
+        y += rates[3 * i + 1] * seconds;
+        z += rates[3 * i + 2] * seconds;
+      }
+      if (start <= fromNs) {
+        break;
+      }
+      end = start;
+      i = previous;
+    }
+    rotation[0] = x;
+    rotation[1] = y;
+    rotation[2] = z;
+    return true;
+  }
+
+  /** Mean magnitude of the samples in the window ending at atNs, or 0 if there are none. */
+  float getAngularSpeed(final long atNs) {
+    float sum = 0;
+    int count = 0;
+    for (int n = 0, i = newest;
+        n < size;
+        ++n, i = (i - 1 + timestamps.length) % timestamps.length) {
+      if (timestamps[i] > atNs) {
+        continue;
+      }
+      if (timestamps[i] <= atNs - SPEED_WINDOW_NS) {
+        break;
+      }
+      final float x = rates[3 * i];
+      final float y = rates[3 * i + 1];
+      final float z = rates[3 * i + 2];
+      sum += (float) Math.sqrt(x * x + y * y + z * z);
+      ++count;
+    }
+    return count > 0 ? sum / count : 0;
+  }
+
+  private int oldest() {
+    return (newest - size + 1 + timestamps.length) % timestamps.length;
+  }
+}
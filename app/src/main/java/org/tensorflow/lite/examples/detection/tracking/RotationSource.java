@@ -0,0 +1,33 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Angular velocity of the device over time, from a live gyroscope or a recorded trace. Times are
+ * in nanoseconds on the {@link android.os.SystemClock#elapsedRealtimeNanos()} clock, which sensor
+ * event timestamps use. Rotations are about the device's x, y and z axes, counter-clockwise
+ * positive when looking down the axis, as for {@link android.hardware.Sensor#TYPE_GYROSCOPE}.
+ */
+public interface RotationSource {
+  /**
+   * Integrates the rotation between two times, in radians about x, y and z.
+   *
+   * @return false if no samples cover the interval, in which case rotation is untouched.
+   */
+  boolean getRotation(long fromNs, long toNs, float[] rotation);
+
+  /** Returns the mean angular speed over a short window ending at the given time, in rad/s. */
+  float getAngularSpeed(long atNs);
+}
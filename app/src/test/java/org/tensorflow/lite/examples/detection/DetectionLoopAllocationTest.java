@@ -0,0 +1,292 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.tensorflow.lite.examples.detection.env.Clock;
+import org.tensorflow.lite.examples.detection.env.FramePipeline;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.SceneChangeGate;
+import org.tensorflow.lite.examples.detection.tflite.AsyncDetector;
+import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.DetectionQuery;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
+import org.tensorflow.lite.examples.detection.tracking.DetectionScheduler;
+import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+
+/**
+ * Feeds synthetic YUV frames through {@link DetectionLoop} with a stub detector, and checks that
+ * its steady state allocates no bytes, from a frame arriving through its conversion, the detection
+ * request and the gates to {@link MultiBoxTracker#trackResults}.
+ *
+ * <p>Requests run on the calling thread, so the whole loop is measured on one thread. Patch
+ * tracking is left out: it maps boxes through Matrix, which the framework stand-ins on the JVM do
+ * not implement allocation-free.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DetectionLoopAllocationTest {
+  private static final int INPUT_SIZE = 300;
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int WORKERS = 2;
+  private static final int PIPELINE_DEPTH = WORKERS + 2;
+  private static final int DETECTION_INTERVAL = 3;
+  private static final long FRAME_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(33);
+  // Long enough for the JIT to settle; compiled code allocates less than interpreted code.
+  private static final int WARMUP_FRAMES = 3000;
+  private static final int MEASURED_FRAMES = 600;
+
+  // Two scenes, alternated so that the scene change gate lets detected frames through.
+  private final byte[][] yPlanes = new byte[2][FRAME_WIDTH * FRAME_HEIGHT];
+  private final ByteBuffer[] luminance = new ByteBuffer[2];
+  private final byte[] uPlane = new byte[FRAME_WIDTH * FRAME_HEIGHT / 4];
+  private final byte[] vPlane = new byte[FRAME_WIDTH * FRAME_HEIGHT / 4];
+  private final float[] inputToFrameValues = new float[9];
+  private final StubClassifier classifier = new StubClassifier();
+  private byte[] currentYPlane;
+  private long nowNs = TimeUnit.SECONDS.toNanos(10);
+  private long timestamp = 0;
+  private int requestsDone = 0;
+
+  private MultiBoxTracker tracker;
+  private DetectionLoop loop;
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(1);
+    for (int i = 0; i < yPlanes.length; ++i) {
+      random.nextBytes(yPlanes[i]);
+      luminance[i] = ByteBuffer.wrap(yPlanes[i]);
+    }
+    random.nextBytes(uPlane);
+    random.nextBytes(vPlane);
+    inputToFrameValues[Matrix.MSCALE_X] = FRAME_WIDTH / (float) INPUT_SIZE;
+    inputToFrameValues[Matrix.MSCALE_Y] = FRAME_HEIGHT / (float) INPUT_SIZE;
+    inputToFrameValues[Matrix.MPERSP_2] = 1;
+
+    tracker = new MultiBoxTracker(RuntimeEnvironment.application);
+    tracker.setFrameConfiguration(FRAME_WIDTH, FRAME_HEIGHT, 90);
+    final Matrix cropToFrame = new Matrix();
+    cropToFrame.setScale(FRAME_WIDTH / (float) INPUT_SIZE, FRAME_HEIGHT / (float) INPUT_SIZE);
+    final ByteBuffer[] inputs = new ByteBuffer[PIPELINE_DEPTH];
+    for (int i = 0; i < PIPELINE_DEPTH; ++i) {
+      inputs[i] = classifier.allocateInputBuffer();
+    }
+    final Clock clock = () -> nowNs;
+    loop =
+        new DetectionLoop(
+            classifier,
+            inputs,
+            WORKERS,
+            Runnable::run,
+            clock,
+            tracker,
+            new DetectionScheduler(DETECTION_INTERVAL),
+            cropToFrame,
+            new StubHost());
+    loop.setSceneChangeGate(
+        new SceneChangeGate(FRAME_WIDTH, FRAME_HEIGHT, 4.0f, 30, PIPELINE_DEPTH));
+    loop.setInferenceDeadline(TimeUnit.MILLISECONDS.toNanos(150));
+    loop.setMaxResultAge(TimeUnit.MILLISECONDS.toNanos(400));
+  }
+
+  @Test
+  public void steadyStateDoesNotAllocate() {
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    final long threadId = Thread.currentThread().getId();
+
+    for (int frame = 0; frame < WARMUP_FRAMES; ++frame) {
+      runFrame();
+    }
+    // Reading the counter may allocate itself.
+    final long readCost =
+        -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+
+    final int requestsBefore = requestsDone;
+    final long completedBefore = loop.getDetector().getCompletedCount();
+    final long start = threads.getThreadAllocatedBytes(threadId);
+    for (int frame = 0; frame < MEASURED_FRAMES; ++frame) {
+      runFrame();
+    }
+    final long allocated = threads.getThreadAllocatedBytes(threadId) - start - readCost;
+
+    // Every detected frame went all the way to the tracker.
+    assertEquals(MEASURED_FRAMES / DETECTION_INTERVAL, requestsDone - requestsBefore);
+    assertEquals(
+        MEASURED_FRAMES / DETECTION_INTERVAL,
+        loop.getDetector().getCompletedCount() - completedBefore);
+    assertTrue(tracker.getTrackedCount() > 0);
+    assertEquals("Bytes allocated over " + MEASURED_FRAMES + " frames", 0, allocated);
+  }
+
+  private void runFrame() {
+    ++timestamp;
+    nowNs += FRAME_INTERVAL_NS;
+    final int scene = (int) (timestamp % 2);
+    currentYPlane = yPlanes[scene];
+    loop.processFrame(timestamp, nowNs, luminance[scene], FRAME_WIDTH);
+  }
+
+  /** Converts the current synthetic frame as CameraActivity does for Camera2 frames. */
+  private class StubHost implements DetectionLoop.Host {
+    @Override
+    public boolean isFrameSharp() {
+      return true;
+    }
+
+    @Override
+    public void convert(final FramePipeline.Frame frame) {
+      frame.input.rewind();
+      ImageUtils.convertYUV420ToInputTensor(
+          currentYPlane,
+          uPlane,
+          vPlane,
+          FRAME_WIDTH,
+          FRAME_HEIGHT,
+          FRAME_WIDTH,
+          FRAME_WIDTH / 2,
+          1,
+          inputToFrameValues,
+          INPUT_SIZE,
+          classifier.getQuantizedLookup(),
+          classifier.getNormalizedLookup(),
+          frame.input);
+    }
+
+    @Override
+    public void onDetected(final Detections detections) {}
+
+    @Override
+    public void onRequestDone(final AsyncDetector.Request request) {
+      ++requestsDone;
+    }
+  }
+
+  /** Returns a few boxes drifting across the input, overwriting the same instance every call. */
+  private static class StubClassifier implements Classifier {
+    static final int CAPACITY = 10;
+    static final String[] LABELS = {"???", "person", "car"};
+
+    private final Detections detections = new Detections(CAPACITY, LABELS);
+    private final byte[] quantizedLookup = new byte[256];
+    private int calls = 0;
+
+    StubClassifier() {
+      for (int i = 0; i < quantizedLookup.length; ++i) {
+        quantizedLookup[i] = (byte) i;
+      }
+    }
+
+    @Override
+    public Detections detect(final ByteBuffer input) {
+      final float drift = calls++ % 50;
+      detections.count = 3;
+      for (int i = 0; i < detections.count; ++i) {
+        final float left = 20 + 90 * i + drift;
+        final float top = 40 + 30 * i;
+        detections.boxes[4 * i] = left;
+        detections.boxes[4 * i + 1] = top;
+        detections.boxes[4 * i + 2] = left + 60;
+        detections.boxes[4 * i + 3] = top + 120;
+        detections.classIds[i] = 1 + i % 2;
+        detections.scores[i] = 0.9f;
+      }
+      return detections;
+    }
+
+    @Override
+    public Detections[] recognizeImages(final ByteBuffer[] inputs, final int count) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(final Bitmap bitmap) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Recognition> recognizeImage(final ByteBuffer input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void preprocess(final Bitmap bitmap, final ByteBuffer input) {}
+
+    @Override
+    public ByteBuffer allocateInputBuffer() {
+      return ByteBuffer.allocateDirect(3 * INPUT_SIZE * INPUT_SIZE);
+    }
+
+    @Override
+    public int getInputSize() {
+      return INPUT_SIZE;
+    }
+
+    @Override
+    public boolean isQuantized() {
+      return true;
+    }
+
+    @Override
+    public byte[] getQuantizedLookup() {
+      return quantizedLookup;
+    }
+
+    @Override
+    public float[] getNormalizedLookup() {
+      return null;
+    }
+
+    @Override
+    public void enableStatLogging(final boolean debug) {}
+
+    @Override
+    public String getStatString() {
+      return "";
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void setDetectionQuery(final DetectionQuery query) {}
+
+    @Override
+    public void setNumThreads(final int num_threads) {}
+
+    @Override
+    public void setUseNNAPI(final boolean isChecked) {}
+  }
+}
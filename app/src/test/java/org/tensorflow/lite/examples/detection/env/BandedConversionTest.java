@@ -0,0 +1,219 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that splitting full-frame YUV conversions into row bands gives the same output as
+ * converting on one thread, including for odd heights and band counts that do not divide the rows.
+ */
+public class BandedConversionTest {
+  private static final int WIDTH = 66;
+  // Camera2 commonly pads rows.
+  private static final int Y_ROW_STRIDE = 80;
+  private static final int[] HEIGHTS = {1, 2, 3, 37, 64, 479};
+  private static final int[] PARALLELISMS = {2, 3, 5, 7};
+
+  private interface Conversion {
+    void convert(Frame frame, int[] out);
+  }
+
+  /** A random frame in each chroma layout, with its planes as arrays and as buffers. */
+  private static class Frame {
+    final int height;
+    final int chromaRows;
+    final byte[] nv21;
+    final byte[] y;
+    // I420: separate chroma planes, pixel stride 1.
+    final byte[] u;
+    final byte[] v;
+    // NV21 as Camera2 delivers it: interleaved V and U, pixel stride 2.
+    final byte[] vu;
+
+    Frame(final int height, final long seed) {
+      this.height = height;
+      chromaRows = (height + 1) / 2;
+      final Random random = new Random(seed);
+      nv21 = new byte[WIDTH * height + WIDTH * chromaRows];
+      random.nextBytes(nv21);
+      y = new byte[Y_ROW_STRIDE * height];
+      random.nextBytes(y);
+      u = new byte[Y_ROW_STRIDE / 2 * chromaRows];
+      random.nextBytes(u);
+      v = new byte[Y_ROW_STRIDE / 2 * chromaRows];
+      random.nextBytes(v);
+      vu = new byte[Y_ROW_STRIDE * chromaRows];
+      random.nextBytes(vu);
+    }
+
+    ByteBuffer vuPlane(final int offset) {
+      final ByteBuffer buffer = ByteBuffer.wrap(vu);
+      buffer.position(offset);
+      return buffer.slice();
+    }
+  }
+
+  @After
+  public void convertSerially() {
+    ImageUtils.setConversionParallelism(1);
+  }
+
+  @Test
+  public void nv21() {
+    check(
+        WIDTH,
+        1,
+        (frame, out) -> ImageUtils.convertYUV420SPToARGB8888(frame.nv21, WIDTH, frame.height, out));
+  }
+
+  @Test
+  public void planarArrays() {
+    check(
+        WIDTH,
+        1,
+        (frame, out) ->
+            ImageUtils.convertYUV420ToARGB8888(
+                frame.y,
+                frame.u,
+                frame.v,
+                WIDTH,
+                frame.height,
+                Y_ROW_STRIDE,
+                Y_ROW_STRIDE / 2,
+                1,
+                out));
+  }
+
+  @Test
+  public void semiPlanarArrays() {
+    check(
+        WIDTH,
+        1,
+        (frame, out) -> {
+          final byte[] v = frame.vu;
+          final byte[] u = new byte[v.length - 1];
+          System.arraycopy(v, 1, u, 0, u.length);
+          ImageUtils.convertYUV420ToARGB8888(
+              frame.y, u, v, WIDTH, frame.height, Y_ROW_STRIDE, Y_ROW_STRIDE, 2, out);
+        });
+  }
+
+  @Test
+  public void semiPlanarBuffers() {
+    check(
+        WIDTH,
+        1,
+        (frame, out) ->
+            ImageUtils.convertYUV420SemiPlanarToARGB8888(
+                ByteBuffer.wrap(frame.y),
+                frame.vuPlane(1),
+                frame.vuPlane(0),
+                WIDTH,
+                frame.height,
+                Y_ROW_STRIDE,
+                Y_ROW_STRIDE,
+                out));
+  }
+
+  @Test
+  public void planarBuffers() {
+    check(
+        WIDTH,
+        1,
+        (frame, out) ->
+            ImageUtils.convertYUV420PlanarToARGB8888(
+                ByteBuffer.wrap(frame.y),
+                ByteBuffer.wrap(frame.u),
+                ByteBuffer.wrap(frame.v),
+                WIDTH,
+                frame.height,
+                Y_ROW_STRIDE,
+                Y_ROW_STRIDE / 2,
+                out));
+  }
+
+  @Test
+  public void box2x2() {
+    check(
+        WIDTH / 2,
+        2,
+        (frame, out) ->
+            ImageUtils.convertYUV420ToARGB8888Box2x2(
+                ByteBuffer.wrap(frame.y),
+                frame.vuPlane(1),
+                frame.vuPlane(0),
+                WIDTH,
+                frame.height,
+                Y_ROW_STRIDE,
+                Y_ROW_STRIDE,
+                2,
+                out));
+  }
+
+  @Test
+  public void nearest() {
+    check(
+        WIDTH / 3,
+        3,
+        (frame, out) ->
+            ImageUtils.convertYUV420ToARGB8888Nearest(
+                ByteBuffer.wrap(frame.y),
+                ByteBuffer.wrap(frame.u),
+                ByteBuffer.wrap(frame.v),
+                WIDTH,
+                frame.height,
+                Y_ROW_STRIDE,
+                Y_ROW_STRIDE / 2,
+                1,
+                WIDTH / 3,
+                ImageUtils.getDownsampledLength(frame.height, 3),
+                out));
+  }
+
+  /**
+   * Converts every test height serially and at every parallelism, comparing the outputs.
+   *
+   * @param downsampling Factor the output height is divided by; heights it leaves empty are
+   *     skipped.
+   */
+  private static void check(
+      final int outWidth, final int downsampling, final Conversion conversion) {
+    for (final int height : HEIGHTS) {
+      final int outHeight =
+          downsampling == 1 ? height : ImageUtils.getDownsampledLength(height, downsampling);
+      if (height < downsampling) {
+        continue;
+      }
+      final Frame frame = new Frame(height, height);
+      ImageUtils.setConversionParallelism(1);
+      final int[] serial = new int[outWidth * outHeight];
+      conversion.convert(frame, serial);
+      for (final int parallelism : PARALLELISMS) {
+        ImageUtils.setConversionParallelism(parallelism);
+        final int[] banded = new int[serial.length];
+        conversion.convert(frame, banded);
+        assertArrayEquals(
+            "height " + height + ", " + parallelism + " bands", serial, banded);
+      }
+    }
+  }
+}
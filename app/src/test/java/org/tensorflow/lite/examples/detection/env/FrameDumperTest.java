@@ -0,0 +1,79 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Checks which frames {@link FrameDumper#sample()} selects. */
+public class FrameDumperTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private FrameDumper dumper;
+
+  @After
+  public void closeDumper() {
+    if (dumper != null) {
+      dumper.close();
+    }
+  }
+
+  @Test
+  public void samplesEveryNthFrame() {
+    dumper = createDumper(3);
+    assertEquals("ffTffTffT", sample(9));
+  }
+
+  @Test
+  public void triggerSamplesTheNextFrameOnce() {
+    dumper = createDumper(4);
+    assertEquals("f", sample(1));
+    dumper.trigger();
+    // The trigger takes the second frame and leaves the interval counting from the first.
+    assertEquals("TfTfffT", sample(7));
+  }
+
+  @Test
+  public void zeroIntervalSamplesOnlyTriggeredFrames() {
+    dumper = createDumper(0);
+    assertEquals("ffffffffff", sample(10));
+    dumper.trigger();
+    dumper.trigger();
+    assertTrue(dumper.sample());
+    assertFalse(dumper.sample());
+  }
+
+  private FrameDumper createDumper(final int sampleInterval) {
+    final File directory = new File(folder.getRoot(), "dumps");
+    return new FrameDumper(directory, 4, 4, 1, FrameDumper.Format.RAW, sampleInterval, 2);
+  }
+
+  /** Samples the given number of frames, returning a T for each selected frame and f otherwise. */
+  private String sample(final int frames) {
+    final StringBuilder selected = new StringBuilder();
+    for (int i = 0; i < frames; ++i) {
+      selected.append(dumper.sample() ? 'T' : 'f');
+    }
+    return selected.toString();
+  }
+}
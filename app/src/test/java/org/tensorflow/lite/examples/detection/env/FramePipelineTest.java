@@ -0,0 +1,161 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Walks frames through {@link FramePipeline} on a hand-advanced clock. */
+public class FramePipelineTest {
+  private static final int WORKERS = 2;
+  private static final long MAX_RESULT_AGE_NS = TimeUnit.MILLISECONDS.toNanos(400);
+
+  private long nowNs = TimeUnit.SECONDS.toNanos(10);
+  private final Clock clock = () -> nowNs;
+  private final FramePipeline pipeline = createPipeline();
+
+  @Test
+  public void handsOutFinishedFramesInCaptureOrder() {
+    final FramePipeline.Frame first = convert(nowNs);
+    assertTrue(pipeline.publish(first));
+    assertSame(first, pipeline.takeForInference());
+    final FramePipeline.Frame second = convert(nowNs);
+    assertTrue(pipeline.publish(second));
+    assertSame(second, pipeline.takeForInference());
+
+    // The second worker finishes first, but its frame waits for the older one.
+    assertFalse(pipeline.finishInference(second));
+    assertNull(pipeline.pollFinished());
+    assertFalse(pipeline.finishInference(first));
+    assertSame(first, pipeline.pollFinished());
+    assertSame(second, pipeline.pollFinished());
+    assertNull(pipeline.pollFinished());
+  }
+
+  @Test
+  public void newerFrameSupersedesWaitingOne() {
+    // Both workers are busy, so the next frames wait.
+    pipeline.publish(convert(nowNs));
+    pipeline.takeForInference();
+    pipeline.publish(convert(nowNs));
+    pipeline.takeForInference();
+
+    final FramePipeline.Frame older = convert(nowNs);
+    assertFalse(pipeline.publish(older));
+    final FramePipeline.Frame newer = convert(nowNs);
+    assertFalse(pipeline.publish(newer));
+    assertTrue(pipeline.getStatString().contains("superseded 1"));
+
+    assertSame(newer, pipeline.takeForInference());
+  }
+
+  @Test
+  public void dropsResultsPastMaxAge() {
+    final FramePipeline.Frame stale = convert(nowNs);
+    pipeline.publish(stale);
+    pipeline.takeForInference();
+    nowNs += MAX_RESULT_AGE_NS + 1;
+    final FramePipeline.Frame fresh = convert(nowNs);
+    pipeline.publish(fresh);
+    pipeline.takeForInference();
+
+    pipeline.finishInference(stale);
+    pipeline.finishInference(fresh);
+    assertSame(fresh, pipeline.pollFinished());
+    assertEquals(1, pipeline.getStaleFrames());
+    assertEquals(2, pipeline.getInferredFrames());
+  }
+
+  @Test
+  public void keepsResultOfExactlyMaxAge() {
+    final FramePipeline.Frame frame = convert(nowNs);
+    pipeline.publish(frame);
+    pipeline.takeForInference();
+    nowNs = frame.captureNs + MAX_RESULT_AGE_NS;
+    pipeline.finishInference(frame);
+    assertSame(frame, pipeline.pollFinished());
+    assertEquals(0, pipeline.getStaleFrames());
+  }
+
+  @Test
+  public void agesFramesFromCaptureRatherThanConversion() {
+    // Captured before the camera thread got to it, so the frame is already old on conversion.
+    final FramePipeline.Frame frame = convert(nowNs - MAX_RESULT_AGE_NS);
+    pipeline.publish(frame);
+    pipeline.takeForInference();
+    nowNs += 1;
+    pipeline.finishInference(frame);
+    assertNull(pipeline.pollFinished());
+    assertEquals(1, pipeline.getStaleFrames());
+  }
+
+  @Test
+  public void recyclesStaleFramesForConversion() {
+    final FramePipeline.Frame frame = convert(nowNs);
+    pipeline.publish(frame);
+    pipeline.takeForInference();
+    nowNs += MAX_RESULT_AGE_NS + 1;
+    pipeline.finishInference(frame);
+    assertNull(pipeline.pollFinished());
+
+    // Every buffer is free again.
+    for (int i = 0; i < WORKERS + 2; ++i) {
+      assertTrue(pipeline.acquireForConversion(nowNs) != null);
+    }
+    assertNull(pipeline.acquireForConversion(nowNs));
+  }
+
+  @Test
+  public void finishingWorkerPicksUpWaitingFrame() {
+    final FramePipeline single = new FramePipeline(createInputs(3), 1, clock);
+    final FramePipeline.Frame first = single.acquireForConversion(nowNs);
+    assertTrue(single.publish(first));
+    single.takeForInference();
+    assertFalse(single.publish(single.acquireForConversion(nowNs)));
+
+    assertTrue(single.finishInference(first));
+    assertTrue(single.takeForInference() != null);
+  }
+
+  private FramePipeline createPipeline() {
+    final FramePipeline pipeline = new FramePipeline(createInputs(WORKERS + 2), WORKERS, clock);
+    pipeline.setMaxResultAge(MAX_RESULT_AGE_NS);
+    return pipeline;
+  }
+
+  private FramePipeline.Frame convert(final long captureNs) {
+    final FramePipeline.Frame frame = pipeline.acquireForConversion(captureNs);
+    // Conversion takes a while.
+    nowNs += TimeUnit.MILLISECONDS.toNanos(20);
+    return frame;
+  }
+
+  private static ByteBuffer[] createInputs(final int count) {
+    final ByteBuffer[] inputs = new ByteBuffer[count];
+    for (int i = 0; i < count; ++i) {
+      inputs[i] = ByteBuffer.allocate(1);
+    }
+    return inputs;
+  }
+}
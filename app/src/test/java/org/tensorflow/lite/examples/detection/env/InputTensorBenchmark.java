@@ -0,0 +1,83 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Times the fused NV21-to-input kernel, which writes each channel through the detector's per-value
+ * lookup with a bulk put per row, against the per-pixel arithmetic it replaced. ART numbers differ,
+ * but the relative cost carries over. Not part of the test run; {@link InputTensorTest} checks
+ * that both write the same input. Run {@link #main} directly.
+ */
+public final class InputTensorBenchmark {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int INPUT_SIZE = 300;
+  private static final int WARMUP_RUNS = 20;
+  private static final int TIMED_RUNS = 50;
+
+  private interface Kernel {
+    void convert(ByteBuffer out);
+  }
+
+  private InputTensorBenchmark() {}
+
+  public static void main(final String[] args) {
+    final byte[] nv21 = InputTensorTest.randomFrame();
+    final float[] inputToFrame = InputTensorTest.inputToFrameValues();
+
+    final byte[] identity = InputTensorTest.identityLookup();
+    final ByteBuffer bytes = InputTensorTest.allocate(1);
+    time(
+        "quantized arithmetic",
+        bytes,
+        out -> InputTensorTest.convertWithArithmetic(nv21, inputToFrame, true, out));
+    time(
+        "quantized lookup",
+        bytes,
+        out ->
+            ImageUtils.convertYUV420SPToInputTensor(
+                nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, identity, null, out));
+
+    final float[] normalized = InputTensorTest.normalizedLookup();
+    final ByteBuffer floats = InputTensorTest.allocate(4);
+    time(
+        "float arithmetic",
+        floats,
+        out -> InputTensorTest.convertWithArithmetic(nv21, inputToFrame, false, out));
+    time(
+        "float lookup",
+        floats,
+        out ->
+            ImageUtils.convertYUV420SPToInputTensor(
+                nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, null, normalized, out));
+  }
+
+  private static void time(final String name, final ByteBuffer out, final Kernel kernel) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      out.rewind();
+      kernel.convert(out);
+    }
+    final long startNs = System.nanoTime();
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      out.rewind();
+      kernel.convert(out);
+    }
+    System.out.printf(
+        "%s: %.2f ms per frame%n", name, (System.nanoTime() - startNs) / 1e6 / TIMED_RUNS);
+  }
+}
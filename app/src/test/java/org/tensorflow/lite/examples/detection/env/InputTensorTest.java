@@ -0,0 +1,175 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the fused NV21-to-input kernel, which writes each channel through the detector's
+ * per-value lookup, writes the same input as the per-pixel arithmetic it replaced.
+ */
+public class InputTensorTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int INPUT_SIZE = 300;
+  private static final float IMAGE_MEAN = 128.0f;
+  private static final float IMAGE_STD = 128.0f;
+
+  private final byte[] nv21 = randomFrame();
+  private final float[] inputToFrame = inputToFrameValues();
+
+  @Test
+  public void quantizedIdentityMatchesArithmetic() {
+    final ByteBuffer expected = allocate(1);
+    convertWithArithmetic(nv21, inputToFrame, true, expected);
+    final ByteBuffer actual = allocate(1);
+    ImageUtils.convertYUV420SPToInputTensor(
+        nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, identityLookup(), null, actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+  }
+
+  @Test
+  public void quantizedLookupIsAppliedToEveryChannel() {
+    // Maps every value to its complement, so that a channel written around the table shows.
+    final byte[] lookup = new byte[256];
+    for (int i = 0; i < 256; ++i) {
+      lookup[i] = (byte) (255 - i);
+    }
+    final ByteBuffer expected = allocate(1);
+    convertWithArithmetic(nv21, inputToFrame, true, expected);
+    final byte[] expectedBytes = bytes(expected);
+    for (int i = 0; i < expectedBytes.length; ++i) {
+      expectedBytes[i] = lookup[expectedBytes[i] & 0xFF];
+    }
+    final ByteBuffer actual = allocate(1);
+    ImageUtils.convertYUV420SPToInputTensor(
+        nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, lookup, null, actual);
+    assertArrayEquals(expectedBytes, bytes(actual));
+  }
+
+  @Test
+  public void floatLookupMatchesArithmetic() {
+    final ByteBuffer expected = allocate(4);
+    convertWithArithmetic(nv21, inputToFrame, false, expected);
+    final ByteBuffer actual = allocate(4);
+    ImageUtils.convertYUV420SPToInputTensor(
+        nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, null, normalizedLookup(), actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+  }
+
+  @Test
+  public void floatInputIsWrittenFromCurrentPosition() {
+    // As when inputs are packed one after another into a batch buffer.
+    final int offset = 3 * INPUT_SIZE * 4;
+    final ByteBuffer expected = ByteBuffer.allocateDirect(offset + INPUT_SIZE * INPUT_SIZE * 12);
+    expected.order(ByteOrder.nativeOrder());
+    expected.position(offset);
+    convertWithArithmetic(nv21, inputToFrame, false, expected);
+    final ByteBuffer actual = ByteBuffer.allocateDirect(expected.capacity());
+    actual.order(ByteOrder.nativeOrder());
+    final float[] lookup = normalizedLookup();
+    // Write at the start first, so that the second call reuses a view created at position 0.
+    ImageUtils.convertYUV420SPToInputTensor(
+        nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, null, lookup, actual);
+    actual.clear();
+    actual.put(new byte[actual.capacity()]);
+    actual.position(offset);
+    ImageUtils.convertYUV420SPToInputTensor(
+        nv21, WIDTH, HEIGHT, inputToFrame, INPUT_SIZE, null, lookup, actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+    assertEquals(expected.position(), actual.position());
+  }
+
+  /** The fused kernel as it was before the lookup: one branch and one normalization per pixel. */
+  static void convertWithArithmetic(
+      final byte[] input, final float[] m, final boolean quantized, final ByteBuffer out) {
+    final int frameSize = WIDTH * HEIGHT;
+    for (int j = 0; j < INPUT_SIZE; j++) {
+      float fx = m[0] * 0.5f + m[1] * (j + 0.5f) + m[2];
+      float fy = m[3] * 0.5f + m[4] * (j + 0.5f) + m[5];
+      for (int i = 0; i < INPUT_SIZE; i++) {
+        final int x = Math.max(0, Math.min((int) fx, WIDTH - 1));
+        final int y = Math.max(0, Math.min((int) fy, HEIGHT - 1));
+        final int uvp = frameSize + (y >> 1) * WIDTH + (x & ~1);
+        final int argb =
+            ImageUtils.YUV2RGB(
+                0xff & input[y * WIDTH + x], 0xff & input[uvp + 1], 0xff & input[uvp]);
+        if (quantized) {
+          out.put((byte) (argb >> 16));
+          out.put((byte) (argb >> 8));
+          out.put((byte) argb);
+        } else {
+          out.putFloat((((argb >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          out.putFloat((((argb >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+          out.putFloat(((argb & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        }
+        fx += m[0];
+        fy += m[3];
+      }
+    }
+  }
+
+  static byte[] identityLookup() {
+    final byte[] lookup = new byte[256];
+    for (int i = 0; i < 256; ++i) {
+      lookup[i] = (byte) i;
+    }
+    return lookup;
+  }
+
+  static float[] normalizedLookup() {
+    final float[] lookup = new float[256];
+    for (int i = 0; i < 256; ++i) {
+      lookup[i] = (i - IMAGE_MEAN) / IMAGE_STD;
+    }
+    return lookup;
+  }
+
+  /** Maps the model input onto the frame, scaled to fit, as the activity's matrix does. */
+  static float[] inputToFrameValues() {
+    // Row-major affine matrix: x' = m[0] x + m[1] y + m[2], y' = m[3] x + m[4] y + m[5].
+    return new float[] {
+      (float) WIDTH / INPUT_SIZE, 0, 0, 0, (float) HEIGHT / INPUT_SIZE, 0, 0, 0, 1
+    };
+  }
+
+  static ByteBuffer allocate(final int bytesPerChannel) {
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * bytesPerChannel);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  private static byte[] bytes(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.capacity()];
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.rewind();
+    duplicate.get(bytes);
+    return bytes;
+  }
+
+  static byte[] randomFrame() {
+    final byte[] bytes = new byte[WIDTH * HEIGHT * 3 / 2];
+    new Random(1).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,44 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class RowBandExecutorTest {
+  @Test
+  public void failureOfEveryBandDoesNotLeakIntoNextCall() {
+    final RowBandExecutor executor = new RowBandExecutor(2);
+    try {
+      executor.execute(
+          8,
+          (startRow, endRow) -> {
+            throw new IllegalStateException("band " + startRow);
+          });
+      fail("Expected the calling thread's band to throw");
+    } catch (final IllegalStateException expected) {
+      // Either band's failure may surface.
+    }
+
+    final AtomicInteger rows = new AtomicInteger();
+    executor.execute(8, (startRow, endRow) -> rows.addAndGet(endRow - startRow));
+    assertEquals(8, rows.get());
+    executor.shutdown();
+  }
+}
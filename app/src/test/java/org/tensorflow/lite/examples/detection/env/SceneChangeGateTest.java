@@ -0,0 +1,98 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Checks which frame {@link SceneChangeGate} compares against and when it lets frames through. */
+public class SceneChangeGateTest {
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final float THRESHOLD = 4;
+  private static final int MAX_INTERVAL = 30;
+  private static final int SLOTS = 2;
+
+  @Test
+  public void referenceIsSetWhenDetectionsAreUsed() {
+    final SceneChangeGate gate = createGate();
+    final ByteBuffer scene = uniformFrame(100);
+
+    assertFalse(gate.isUnchanged(scene, WIDTH, 1));
+    gate.saveSignature(0);
+    // Sent to the detector, but its detections have not been used yet.
+    assertFalse(gate.isUnchanged(scene, WIDTH, 2));
+    assertEquals(-1, gate.getReferenceTimestamp());
+
+    gate.markInferred(0);
+    assertEquals(1, gate.getReferenceTimestamp());
+    assertTrue(gate.isUnchanged(scene, WIDTH, 3));
+    assertFalse(gate.isUnchanged(uniformFrame(140), WIDTH, 4));
+  }
+
+  @Test
+  public void droppedFrameDoesNotBecomeReference() {
+    final SceneChangeGate gate = createGate();
+    gate.isUnchanged(uniformFrame(100), WIDTH, 1);
+    gate.saveSignature(0);
+    gate.markInferred(0);
+
+    // A changed frame sent to the detector but dropped before its detections were used.
+    gate.isUnchanged(uniformFrame(200), WIDTH, 2);
+    gate.saveSignature(1);
+    assertTrue(gate.isUnchanged(uniformFrame(100), WIDTH, 3));
+    assertFalse(gate.isUnchanged(uniformFrame(200), WIDTH, 4));
+  }
+
+  @Test
+  public void olderFrameDoesNotReplaceReference() {
+    final SceneChangeGate gate = createGate();
+    gate.isUnchanged(uniformFrame(100), WIDTH, 1);
+    gate.saveSignature(0);
+    gate.isUnchanged(uniformFrame(200), WIDTH, 2);
+    gate.saveSignature(1);
+    gate.markInferred(1);
+    gate.markInferred(0);
+    assertEquals(2, gate.getReferenceTimestamp());
+    assertTrue(gate.isUnchanged(uniformFrame(200), WIDTH, 3));
+  }
+
+  @Test
+  public void unchangedSceneIsRecheckedAfterMaxInterval() {
+    final SceneChangeGate gate = createGate();
+    final ByteBuffer scene = uniformFrame(100);
+    gate.isUnchanged(scene, WIDTH, 1);
+    gate.saveSignature(0);
+    gate.markInferred(0);
+    assertTrue(gate.isUnchanged(scene, WIDTH, MAX_INTERVAL));
+    assertFalse(gate.isUnchanged(scene, WIDTH, 1 + MAX_INTERVAL));
+  }
+
+  private static SceneChangeGate createGate() {
+    return new SceneChangeGate(WIDTH, HEIGHT, THRESHOLD, MAX_INTERVAL, SLOTS);
+  }
+
+  private static ByteBuffer uniformFrame(final int luminance) {
+    final byte[] bytes = new byte[WIDTH * HEIGHT];
+    Arrays.fill(bytes, (byte) luminance);
+    return ByteBuffer.wrap(bytes);
+  }
+}
@@ -0,0 +1,123 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/** Feeds {@link SharpnessGate} synthetic sharp and blurred luminance planes. */
+public class SharpnessGateTest {
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  // Rows are padded, as Camera2 planes often are.
+  private static final int ROW_STRIDE = 336;
+  private static final int STEP = 4;
+  private static final float THRESHOLD = 0.5f;
+  private static final long MAX_LATENCY_MS = 150;
+
+  // Advanced by hand; frames are 33 ms apart unless a test says otherwise.
+  private long nowNs = 0;
+  private final Clock clock = () -> nowNs;
+
+  @Test
+  public void rejectsBlurredFrameAfterSharpOnes() {
+    final SharpnessGate gate = createGate(WIDTH, HEIGHT);
+    final ByteBuffer sharp = noiseFrame(1);
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(accept(gate, sharp));
+    }
+    assertFalse(accept(gate, blur(noiseFrame(2))));
+    assertTrue(accept(gate, noiseFrame(3)));
+  }
+
+  @Test
+  public void acceptsBlurredFrameOnceOverdue() {
+    final SharpnessGate gate = createGate(WIDTH, HEIGHT);
+    final ByteBuffer blurred = blur(noiseFrame(2));
+    assertTrue(accept(gate, noiseFrame(1)));
+    // Four more frames 33 ms apart fall within the latency, the fifth does not.
+    for (int i = 0; i < 4; ++i) {
+      assertFalse(accept(gate, blurred));
+    }
+    assertTrue(accept(gate, blurred));
+    // The forced frame restarts the latency window.
+    assertFalse(accept(gate, blurred));
+  }
+
+  @Test
+  public void acceptsPlaneTooSmallForGateUnmeasured() {
+    // As between a preview size change and the gate being rebuilt for it.
+    final SharpnessGate gate = createGate(2 * WIDTH, 2 * HEIGHT);
+    assertTrue(accept(gate, noiseFrame(1)));
+    assertTrue(accept(gate, blur(noiseFrame(2))));
+    assertEquals(2, gate.getUnmeasuredCount());
+    assertEquals(0, gate.getRejectRatio(), 0);
+  }
+
+  @Test
+  public void acceptsRowStrideNarrowerThanGateUnmeasured() {
+    final SharpnessGate gate = createGate(ROW_STRIDE + 1, HEIGHT / 2);
+    assertTrue(accept(gate, noiseFrame(1)));
+    assertEquals(1, gate.getUnmeasuredCount());
+  }
+
+  @Test
+  public void measuresPlaneOfExactlyTheGateSize() {
+    // The last row need not be padded.
+    final SharpnessGate gate = createGate(WIDTH, HEIGHT);
+    final ByteBuffer frame = noiseFrame(1);
+    frame.limit((HEIGHT - 1) * ROW_STRIDE + WIDTH);
+    assertTrue(accept(gate, frame));
+    assertEquals(0, gate.getUnmeasuredCount());
+    assertTrue(gate.getLastSharpness() > 0);
+  }
+
+  private SharpnessGate createGate(final int width, final int height) {
+    return new SharpnessGate(width, height, STEP, THRESHOLD, MAX_LATENCY_MS, clock);
+  }
+
+  private boolean accept(final SharpnessGate gate, final ByteBuffer frame) {
+    nowNs += 33000000L;
+    return gate.accept(frame, ROW_STRIDE);
+  }
+
+  private static ByteBuffer noiseFrame(final long seed) {
+    final byte[] bytes = new byte[ROW_STRIDE * HEIGHT];
+    new Random(seed).nextBytes(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  /** Box-blurs a plane horizontally over 9 pixels, as a fast pan would. */
+  private static ByteBuffer blur(final ByteBuffer frame) {
+    final byte[] in = frame.array();
+    final byte[] out = new byte[in.length];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        int sum = 0;
+        for (int dx = -4; dx <= 4; ++dx) {
+          sum += 0xff & in[y * ROW_STRIDE + Math.max(0, Math.min(WIDTH - 1, x + dx))];
+        }
+        out[y * ROW_STRIDE + x] = (byte) (sum / 9);
+      }
+    }
+    return ByteBuffer.wrap(out);
+  }
+}
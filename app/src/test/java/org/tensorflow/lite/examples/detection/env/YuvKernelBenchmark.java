@@ -0,0 +1,112 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Times the layout-specialized YUV_420_888 kernels against the generic one on the JVM. ART numbers
+ * differ, but the relative cost carries over. Not part of the test run; {@link YuvKernelTest}
+ * checks that the kernels agree. Run {@link #main} directly.
+ */
+public final class YuvKernelBenchmark {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  // Camera2 commonly pads rows.
+  private static final int Y_ROW_STRIDE = 672;
+  private static final int WARMUP_RUNS = 20;
+  private static final int TIMED_RUNS = 50;
+
+  private interface Kernel {
+    void convert(int[] out);
+  }
+
+  private YuvKernelBenchmark() {}
+
+  public static void main(final String[] args) {
+    final ByteBuffer y = randomPlane(Y_ROW_STRIDE * HEIGHT, 1);
+
+    // Interleaved chroma as NV21 delivers it: V then U, viewed as two planes one byte apart.
+    final ByteBuffer vu = randomPlane(Y_ROW_STRIDE * HEIGHT / 2, 2);
+    final ByteBuffer u = slice(vu, 1);
+    final ByteBuffer v = slice(vu, 0);
+    time(
+        "semi-planar generic",
+        WIDTH * HEIGHT,
+        out ->
+            ImageUtils.convertYUV420ToARGB8888(
+                y, u, v, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE, 2, out));
+    time(
+        "semi-planar specialized",
+        WIDTH * HEIGHT,
+        out ->
+            ImageUtils.convertYUV420SemiPlanarToARGB8888(
+                y, u, v, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE, out));
+    time(
+        "semi-planar box 2x2",
+        WIDTH * HEIGHT / 4,
+        out ->
+            ImageUtils.convertYUV420ToARGB8888Box2x2(
+                y, u, v, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE, 2, out));
+
+    final ByteBuffer pu = randomPlane(Y_ROW_STRIDE / 2 * HEIGHT / 2, 3);
+    final ByteBuffer pv = randomPlane(Y_ROW_STRIDE / 2 * HEIGHT / 2, 4);
+    time(
+        "planar generic",
+        WIDTH * HEIGHT,
+        out ->
+            ImageUtils.convertYUV420ToARGB8888(
+                y, pu, pv, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE / 2, 1, out));
+    time(
+        "planar specialized",
+        WIDTH * HEIGHT,
+        out ->
+            ImageUtils.convertYUV420PlanarToARGB8888(
+                y, pu, pv, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE / 2, out));
+    time(
+        "planar box 2x2",
+        WIDTH * HEIGHT / 4,
+        out ->
+            ImageUtils.convertYUV420ToARGB8888Box2x2(
+                y, pu, pv, WIDTH, HEIGHT, Y_ROW_STRIDE, Y_ROW_STRIDE / 2, 1, out));
+  }
+
+  private static void time(final String name, final int outputSize, final Kernel kernel) {
+    final int[] out = new int[outputSize];
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      kernel.convert(out);
+    }
+    final long startNs = System.nanoTime();
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      kernel.convert(out);
+    }
+    System.out.printf(
+        "%s: %.2f ms per frame%n", name, (System.nanoTime() - startNs) / 1e6 / TIMED_RUNS);
+  }
+
+  private static ByteBuffer randomPlane(final int size, final long seed) {
+    final byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static ByteBuffer slice(final ByteBuffer buffer, final int offset) {
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    return duplicate.slice();
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks the layout-specialized YUV_420_888 kernels against the generic ones. */
+public class YuvKernelTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  // Camera2 commonly pads rows.
+  private static final int Y_ROW_STRIDE = 672;
+  private static final int CHROMA_WIDTH = WIDTH / 2;
+  private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+  private final ByteBuffer y = randomPlane(Y_ROW_STRIDE * HEIGHT, 1);
+  private final byte[] uSamples = randomBytes(CHROMA_WIDTH * CHROMA_HEIGHT, 2);
+  private final byte[] vSamples = randomBytes(CHROMA_WIDTH * CHROMA_HEIGHT, 3);
+
+  @Test
+  public void semiPlanarMatchesGeneric() {
+    final ByteBuffer[] uv = chromaPlanes(2);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    final int[] actual = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(
+        y, uv[0], uv[1], WIDTH, HEIGHT, Y_ROW_STRIDE, uvRowStride(2), 2, expected);
+    ImageUtils.convertYUV420SemiPlanarToARGB8888(
+        y, uv[0], uv[1], WIDTH, HEIGHT, Y_ROW_STRIDE, uvRowStride(2), actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void planarMatchesGeneric() {
+    final ByteBuffer[] uv = chromaPlanes(1);
+    final int[] expected = new int[WIDTH * HEIGHT];
+    final int[] actual = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(
+        y, uv[0], uv[1], WIDTH, HEIGHT, Y_ROW_STRIDE, uvRowStride(1), 1, expected);
+    ImageUtils.convertYUV420PlanarToARGB8888(
+        y, uv[0], uv[1], WIDTH, HEIGHT, Y_ROW_STRIDE, uvRowStride(1), actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void box2x2LayoutsMatchGeneric() {
+    // A pixel stride of 4 takes the generic loop; 1 and 2 take the specialized ones.
+    final int[] expected = box2x2(4);
+    assertArrayEquals("planar", expected, box2x2(1));
+    assertArrayEquals("semi-planar", expected, box2x2(2));
+  }
+
+  /** Downsamples the frame with its chroma samples laid out at the given pixel stride. */
+  private int[] box2x2(final int pixelStride) {
+    final ByteBuffer[] uv = chromaPlanes(pixelStride);
+    final int[] out = new int[CHROMA_WIDTH * CHROMA_HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888Box2x2(
+        y,
+        uv[0],
+        uv[1],
+        WIDTH,
+        HEIGHT,
+        Y_ROW_STRIDE,
+        uvRowStride(pixelStride),
+        pixelStride,
+        out);
+    return out;
+  }
+
+  /**
+   * Lays the same chroma samples out at a pixel stride. A stride of 2 interleaves them in one
+   * buffer, as NV21 does, with U one byte after V.
+   */
+  private ByteBuffer[] chromaPlanes(final int pixelStride) {
+    final int rowStride = uvRowStride(pixelStride);
+    if (pixelStride == 2) {
+      final byte[] vu = new byte[rowStride * CHROMA_HEIGHT];
+      for (int j = 0; j < CHROMA_HEIGHT; ++j) {
+        for (int i = 0; i < CHROMA_WIDTH; ++i) {
+          vu[j * rowStride + 2 * i] = vSamples[j * CHROMA_WIDTH + i];
+          vu[j * rowStride + 2 * i + 1] = uSamples[j * CHROMA_WIDTH + i];
+        }
+      }
+      final ByteBuffer v = ByteBuffer.wrap(vu);
+      final ByteBuffer u = v.duplicate();
+      u.position(1);
+      return new ByteBuffer[] {u.slice(), v};
+    }
+    return new ByteBuffer[] {
+      spread(uSamples, pixelStride, rowStride), spread(vSamples, pixelStride, rowStride)
+    };
+  }
+
+  private static ByteBuffer spread(
+      final byte[] samples, final int pixelStride, final int rowStride) {
+    final byte[] plane = new byte[rowStride * CHROMA_HEIGHT];
+    for (int j = 0; j < CHROMA_HEIGHT; ++j) {
+      for (int i = 0; i < CHROMA_WIDTH; ++i) {
+        plane[j * rowStride + i * pixelStride] = samples[j * CHROMA_WIDTH + i];
+      }
+    }
+    return ByteBuffer.wrap(plane);
+  }
+
+  /** Chroma rows are padded like the luminance rows. */
+  private static int uvRowStride(final int pixelStride) {
+    return CHROMA_WIDTH * pixelStride + (Y_ROW_STRIDE - WIDTH);
+  }
+
+  private static ByteBuffer randomPlane(final int size, final long seed) {
+    return ByteBuffer.wrap(randomBytes(size, seed));
+  }
+
+  private static byte[] randomBytes(final int size, final long seed) {
+    final byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,210 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.Clock;
+import org.tensorflow.lite.examples.detection.env.FramePipeline;
+
+/**
+ * Submits frames to {@link AsyncDetector} on an executor the test runs by hand, against a
+ * hand-advanced clock.
+ */
+public class AsyncDetectorTest {
+  private static final int PIPELINE_DEPTH = 4;
+  private static final long DEADLINE_NS = TimeUnit.MILLISECONDS.toNanos(150);
+
+  private long nowNs = TimeUnit.SECONDS.toNanos(10);
+  private final Clock clock = () -> nowNs;
+  private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+  private final List<AsyncDetector.Request> done = new ArrayList<>();
+  private final SleepingClassifier classifier = new SleepingClassifier(0);
+  private final FramePipeline pipeline = createPipeline();
+  private final AsyncDetector detector =
+      new AsyncDetector(classifier, queued::add, done::add, PIPELINE_DEPTH, clock);
+
+  @Test
+  public void runsQueuedRequestBeforeDeadline() throws Exception {
+    classifier.detections.count = 1;
+    classifier.detections.scores[0] = 0.75f;
+    final AsyncDetector.Request request = submit(nowNs + DEADLINE_NS);
+    assertFalse(request.isDone());
+
+    nowNs += DEADLINE_NS;
+    runQueued();
+    assertTrue(request.isDone());
+    assertEquals(1, classifier.calls.get());
+    assertEquals(1, request.get().count);
+    assertEquals(0.75f, request.getDetections().scores[0], 0);
+    // The result is the request's own, not the detector's reused one.
+    assertFalse(request.get() == classifier.detections);
+    assertEquals(1, detector.getCompletedCount());
+    assertEquals(1, done.size());
+  }
+
+  @Test
+  public void skipsRequestStillQueuedAtDeadline() throws Exception {
+    final AsyncDetector.Request request = submit(nowNs + DEADLINE_NS);
+    nowNs += DEADLINE_NS + 1;
+    runQueued();
+
+    assertEquals(0, classifier.calls.get());
+    assertTrue(request.isDone());
+    assertTrue(request.isSkipped());
+    assertNull(request.getDetections());
+    try {
+      request.get();
+      fail();
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertEquals(1, detector.getSkippedCount());
+    assertSame(request, done.get(0));
+  }
+
+  @Test
+  public void cancelledRequestDoesNotRun() throws Exception {
+    final AsyncDetector.Request request = submit(nowNs + DEADLINE_NS);
+    assertTrue(request.cancel(false));
+    assertTrue(request.isCancelled());
+    assertTrue(request.isDone());
+    // The listener hears of it once the executor gets to the request.
+    assertTrue(done.isEmpty());
+
+    runQueued();
+    assertEquals(0, classifier.calls.get());
+    assertEquals(1, detector.getCancelledCount());
+    assertSame(request, done.get(0));
+    try {
+      request.get();
+      fail();
+    } catch (final CancellationException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void cannotCancelFinishedRequest() {
+    final AsyncDetector.Request request = submit(nowNs + DEADLINE_NS);
+    runQueued();
+    assertFalse(request.cancel(false));
+    assertFalse(request.isCancelled());
+    assertEquals(1, detector.getCompletedCount());
+  }
+
+  @Test
+  public void cancelQueuedLeavesFinishedRequests() {
+    final AsyncDetector.Request finished = submit(nowNs + DEADLINE_NS);
+    runQueued();
+    final AsyncDetector.Request waiting = submit(nowNs + DEADLINE_NS);
+
+    detector.cancelQueued();
+    runQueued();
+    assertFalse(finished.isCancelled());
+    assertTrue(waiting.isCancelled());
+    assertEquals(1, classifier.calls.get());
+  }
+
+  @Test
+  public void rejectedRequestCompletesCancelled() {
+    final AsyncDetector rejecting =
+        new AsyncDetector(
+            classifier,
+            command -> {
+              throw new RejectedExecutionException();
+            },
+            done::add,
+            PIPELINE_DEPTH,
+            clock);
+    final AsyncDetector.Request request =
+        rejecting.recognizeAsync(take(), nowNs + DEADLINE_NS);
+    assertTrue(request.isCancelled());
+    assertSame(request, done.get(0));
+    assertEquals(1, rejecting.getCancelledCount());
+    assertEquals(0, classifier.calls.get());
+  }
+
+  @Test
+  public void reusesRequestOfEachPipelineBuffer() {
+    final AsyncDetector.Request first = submit(nowNs + DEADLINE_NS);
+    runQueued();
+    final FramePipeline.Frame frame = first.getFrame();
+    pipeline.finishInference(frame);
+    pipeline.recycle(pipeline.pollFinished());
+
+    // Cycle through every buffer back to the first one.
+    AsyncDetector.Request request = null;
+    for (int i = 0; i < PIPELINE_DEPTH; ++i) {
+      request = submit(nowNs + DEADLINE_NS);
+      runQueued();
+      pipeline.finishInference(request.getFrame());
+      pipeline.recycle(pipeline.pollFinished());
+      if (request.getFrame() == frame) {
+        break;
+      }
+    }
+    assertSame(first, request);
+    assertFalse(request.isCancelled());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rejectsFrameAlreadyBeingDetected() {
+    final FramePipeline.Frame frame = take();
+    detector.recognizeAsync(frame, nowNs + DEADLINE_NS);
+    detector.recognizeAsync(frame, nowNs + DEADLINE_NS);
+  }
+
+  private AsyncDetector.Request submit(final long deadlineNs) {
+    return detector.recognizeAsync(take(), deadlineNs);
+  }
+
+  private FramePipeline.Frame take() {
+    pipeline.publish(pipeline.acquireForConversion(nowNs));
+    return pipeline.takeForInference();
+  }
+
+  private void runQueued() {
+    Runnable command;
+    while ((command = queued.poll()) != null) {
+      command.run();
+    }
+  }
+
+  private FramePipeline createPipeline() {
+    final ByteBuffer[] inputs = new ByteBuffer[PIPELINE_DEPTH];
+    for (int i = 0; i < PIPELINE_DEPTH; ++i) {
+      inputs[i] = ByteBuffer.allocate(1);
+    }
+    return new FramePipeline(inputs, PIPELINE_DEPTH, clock);
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/** Round-trips records through the results file format of {@link BatchDetectionRunner}. */
+public class BatchDetectionRunnerTest {
+  private static final String[] LABELS = {"???", "person", "bicycle", "car"};
+  private static final int INPUT_SIZE = 300;
+
+  @Test
+  public void readsBackWrittenRecords() throws IOException {
+    final Detections two = new Detections(4, LABELS);
+    two.count = 2;
+    two.classIds[0] = 1;
+    two.scores[0] = 0.875f;
+    setBox(two, 0, 30, 60, 150, 240);
+    two.classIds[1] = 3;
+    two.scores[1] = 0.5f;
+    setBox(two, 1, 0, 0, 300, 300);
+    final Detections none = new Detections(4, LABELS);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    BatchDetectionRunner.writeHeader(out);
+    // Twice the input width and the same height, so boxes are stretched horizontally only.
+    BatchDetectionRunner.writeRecord(out, "/sdcard/a.jpg", 600, 300, two, INPUT_SIZE);
+    BatchDetectionRunner.writeRecord(out, "/sdcard/broken.png", 0, 0, null, INPUT_SIZE);
+    BatchDetectionRunner.writeRecord(out, "/sdcard/\u00e9t\u00e9.png", 150, 75, none, INPUT_SIZE);
+    out.flush();
+
+    final List<BatchDetectionRunner.Record> records =
+        BatchDetectionRunner.read(new ByteArrayInputStream(bytes.toByteArray()), LABELS);
+    assertEquals(3, records.size());
+
+    final BatchDetectionRunner.Record first = records.get(0);
+    assertEquals("/sdcard/a.jpg", first.path);
+    assertEquals(600, first.width);
+    assertEquals(300, first.height);
+    assertEquals(2, first.detections.count);
+    assertEquals("person", first.detections.getLabel(0));
+    assertEquals("car", first.detections.getLabel(1));
+    assertEquals(0.875f, first.detections.scores[0], 0);
+    assertEquals(0.5f, first.detections.scores[1], 0);
+    assertArrayEquals(
+        new float[] {60, 60, 300, 240, 0, 0, 600, 300}, first.detections.boxes, 0);
+
+    final BatchDetectionRunner.Record second = records.get(1);
+    assertEquals("/sdcard/broken.png", second.path);
+    assertNull(second.detections);
+
+    final BatchDetectionRunner.Record third = records.get(2);
+    assertEquals("/sdcard/\u00e9t\u00e9.png", third.path);
+    assertEquals(150, third.width);
+    assertEquals(75, third.height);
+    assertEquals(0, third.detections.count);
+  }
+
+  @Test
+  public void readsEmptyFile() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BatchDetectionRunner.writeHeader(new DataOutputStream(bytes));
+
+    assertEquals(
+        0,
+        BatchDetectionRunner.read(new ByteArrayInputStream(bytes.toByteArray()), LABELS).size());
+  }
+
+  @Test
+  public void rejectsOtherFiles() {
+    final byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    try {
+      BatchDetectionRunner.read(new ByteArrayInputStream(png), LABELS);
+      fail("read a PNG header as results");
+    } catch (final IOException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedRecord() throws IOException {
+    final Detections one = new Detections(1, LABELS);
+    one.count = 1;
+    one.classIds[0] = 2;
+    one.scores[0] = 0.75f;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    BatchDetectionRunner.writeHeader(out);
+    BatchDetectionRunner.writeRecord(out, "a.jpg", 300, 300, one, INPUT_SIZE);
+    out.flush();
+    // Cut off the last coordinate of the box.
+    final byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+
+    try {
+      BatchDetectionRunner.read(new ByteArrayInputStream(truncated), LABELS);
+      fail("read a truncated record");
+    } catch (final EOFException expected) {
+      // Expected.
+    }
+  }
+
+  private static void setBox(
+      final Detections detections,
+      final int i,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom) {
+    detections.boxes[4 * i] = left;
+    detections.boxes[4 * i + 1] = top;
+    detections.boxes[4 * i + 2] = right;
+    detections.boxes[4 * i + 3] = bottom;
+  }
+}
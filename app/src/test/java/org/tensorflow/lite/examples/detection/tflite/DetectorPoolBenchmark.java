@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of a {@link DetectorPool} of members with unequal inference times
+ * against handing calls out round-robin. Members sleep instead of inferring, so the numbers are
+ * about scheduling rather than any device; {@code DetectorPoolThroughputTest} measures real
+ * interpreters. Not part of the test run; run {@link #main} directly.
+ */
+public final class DetectorPoolBenchmark {
+  private static final long[] MEMBER_COST_MS = {8, 2};
+  private static final int CALLERS = 2;
+  private static final int CALLS_PER_CALLER = 200;
+
+  private interface Detector {
+    void detect(ByteBuffer input);
+  }
+
+  private DetectorPoolBenchmark() {}
+
+  public static void main(final String[] args) throws InterruptedException {
+    final DetectorPool pool = new DetectorPool(createMembers());
+    final double poolRate = callsPerSecond(pool::detect);
+
+    final SleepingClassifier[] roundRobinMembers = createMembers();
+    final AtomicInteger next = new AtomicInteger();
+    final double roundRobinRate =
+        callsPerSecond(
+            input -> {
+              final Classifier member =
+                  roundRobinMembers[next.getAndIncrement() % roundRobinMembers.length];
+              synchronized (member) {
+                member.detect(input);
+              }
+            });
+    System.out.printf(
+        "pool: %.0f calls/s, round-robin: %.0f calls/s%n", poolRate, roundRobinRate);
+  }
+
+  private static SleepingClassifier[] createMembers() {
+    final SleepingClassifier[] members = new SleepingClassifier[MEMBER_COST_MS.length];
+    for (int i = 0; i < members.length; ++i) {
+      members[i] = new SleepingClassifier(MEMBER_COST_MS[i]);
+    }
+    return members;
+  }
+
+  private static double callsPerSecond(final Detector detector) throws InterruptedException {
+    final Thread[] callers = new Thread[CALLERS];
+    for (int t = 0; t < CALLERS; ++t) {
+      callers[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < CALLS_PER_CALLER; ++i) {
+                  detector.detect(null);
+                }
+              });
+    }
+    final long startNs = System.nanoTime();
+    for (final Thread caller : callers) {
+      caller.start();
+    }
+    for (final Thread caller : callers) {
+      caller.join();
+    }
+    return CALLERS * CALLS_PER_CALLER / ((System.nanoTime() - startNs) / 1e9);
+  }
+}
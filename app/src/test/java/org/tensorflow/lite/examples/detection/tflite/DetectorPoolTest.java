@@ -0,0 +1,83 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that a {@link DetectorPool} of members with unequal inference times, as when one
+ * interpreter's threads land on little cores, never shares a member and lets the faster one take
+ * more calls. {@link DetectorPoolBenchmark} times it against handing calls out round-robin.
+ */
+public class DetectorPoolTest {
+  private static final long[] MEMBER_COST_MS = {8, 2};
+  private static final int CALLERS = 2;
+  private static final int CALLS_PER_CALLER = 100;
+
+  @Test
+  public void idleMemberTakesTheCall() throws InterruptedException {
+    final SleepingClassifier[] members = createMembers();
+    final DetectorPool pool = new DetectorPool(members);
+    final Thread[] callers = new Thread[CALLERS];
+    for (int t = 0; t < CALLERS; ++t) {
+      callers[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < CALLS_PER_CALLER; ++i) {
+                  pool.detect(null);
+                }
+              });
+      callers[t].start();
+    }
+    for (final Thread caller : callers) {
+      caller.join();
+    }
+
+    int calls = 0;
+    for (final SleepingClassifier member : members) {
+      assertFalse("member used by two threads at once", member.overlapped);
+      calls += member.calls.get();
+    }
+    assertEquals(CALLERS * CALLS_PER_CALLER, calls);
+    // The faster member takes more than its share instead of waiting behind the slower one.
+    assertTrue(members[1].calls.get() > members[0].calls.get());
+  }
+
+  @Test
+  public void settingsReachEveryMember() {
+    final SleepingClassifier[] members = createMembers();
+    final DetectorPool pool = new DetectorPool(members);
+    pool.setNumThreads(3);
+    for (final SleepingClassifier member : members) {
+      assertEquals(3, member.numThreads);
+    }
+    // Every member is back in the pool afterwards.
+    pool.detect(null);
+    pool.detect(null);
+  }
+
+  private static SleepingClassifier[] createMembers() {
+    final SleepingClassifier[] members = new SleepingClassifier[MEMBER_COST_MS.length];
+    for (int i = 0; i < members.length; ++i) {
+      members[i] = new SleepingClassifier(MEMBER_COST_MS[i]);
+    }
+    return members;
+  }
+}
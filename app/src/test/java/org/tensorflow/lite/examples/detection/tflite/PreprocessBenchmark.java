@@ -0,0 +1,77 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Times the kernels of {@link TFLiteObjectDetectionAPIModel#preprocess} on a 300x300 input: the
+ * uint8 bulk pack and the float lookup with a bulk {@link java.nio.FloatBuffer#put}, against the
+ * per-pixel loop they replaced. ART numbers differ, but the relative cost carries over. Not part of
+ * the test run; {@link PreprocessTest} checks that the kernels agree. Run {@link #main} directly.
+ */
+public final class PreprocessBenchmark {
+  private static final int WARMUP_RUNS = 200;
+  private static final int TIMED_RUNS = 1000;
+
+  private interface Kernel {
+    void write(ByteBuffer out);
+  }
+
+  private PreprocessBenchmark() {}
+
+  public static void main(final String[] args) {
+    final int[] pixels = PreprocessTest.randomPixels(300 * 300);
+
+    final TFLiteObjectDetectionAPIModel.Staging quantized = PreprocessTest.stage(pixels, true);
+    final byte[] identity = TFLiteObjectDetectionAPIModel.createQuantizedLookup(1 / 128.0f, 128);
+    final ByteBuffer bytes = PreprocessTest.allocate(1);
+    time("uint8 per-pixel", bytes, out -> PreprocessTest.writePerPixel(pixels, true, out));
+    time(
+        "uint8 bulk pack",
+        bytes,
+        out ->
+            TFLiteObjectDetectionAPIModel.packQuantized(
+                quantized, pixels.length, null, true, out));
+    time(
+        "uint8 lookup bulk pack",
+        bytes,
+        out ->
+            TFLiteObjectDetectionAPIModel.packQuantized(
+                quantized, pixels.length, identity, false, out));
+
+    final TFLiteObjectDetectionAPIModel.Staging floats = PreprocessTest.stage(pixels, false);
+    final float[] normalized = TFLiteObjectDetectionAPIModel.createNormalizedLookup();
+    final ByteBuffer floatInput = PreprocessTest.allocate(4);
+    time("float per-pixel", floatInput, out -> PreprocessTest.writePerPixel(pixels, false, out));
+    time(
+        "float lookup bulk put",
+        floatInput,
+        out -> TFLiteObjectDetectionAPIModel.packFloat(floats, pixels.length, normalized, out));
+  }
+
+  private static void time(final String name, final ByteBuffer out, final Kernel kernel) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      kernel.write(out);
+    }
+    final long startNs = System.nanoTime();
+    for (int i = 0; i < TIMED_RUNS; ++i) {
+      kernel.write(out);
+    }
+    System.out.printf(
+        "%s: %.3f ms per input%n", name, (System.nanoTime() - startNs) / 1e6 / TIMED_RUNS);
+  }
+}
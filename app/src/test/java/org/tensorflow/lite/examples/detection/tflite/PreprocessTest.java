@@ -0,0 +1,125 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the staged bulk-copy kernels of {@link TFLiteObjectDetectionAPIModel#preprocess}
+ * write the same input as the per-pixel loop they replaced.
+ */
+public class PreprocessTest {
+  private static final int INPUT_SIZE = 300;
+
+  private final int[] pixels = randomPixels(INPUT_SIZE * INPUT_SIZE);
+
+  @Test
+  public void quantizedCopyMatchesPerPixelLoop() {
+    final ByteBuffer expected = allocate(1);
+    writePerPixel(pixels, true, expected);
+    final ByteBuffer actual = allocate(1);
+    TFLiteObjectDetectionAPIModel.packQuantized(
+        stage(pixels, true), pixels.length, null, true, actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+  }
+
+  @Test
+  public void quantizedLookupMatchesPerPixelLoop() {
+    // The prepackaged model's parameters, taken through the table instead of the copy.
+    final ByteBuffer expected = allocate(1);
+    writePerPixel(pixels, true, expected);
+    final ByteBuffer actual = allocate(1);
+    TFLiteObjectDetectionAPIModel.packQuantized(
+        stage(pixels, true),
+        pixels.length,
+        TFLiteObjectDetectionAPIModel.createQuantizedLookup(1 / 128.0f, 128),
+        false,
+        actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+  }
+
+  @Test
+  public void floatLookupMatchesPerPixelLoop() {
+    final ByteBuffer expected = allocate(4);
+    writePerPixel(pixels, false, expected);
+    final ByteBuffer actual = allocate(4);
+    final TFLiteObjectDetectionAPIModel.Staging staging = stage(pixels, false);
+    final float[] lookup = TFLiteObjectDetectionAPIModel.createNormalizedLookup();
+    // The input is filled from the start wherever its position was left.
+    actual.position(actual.capacity());
+    TFLiteObjectDetectionAPIModel.packFloat(staging, pixels.length, lookup, actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+    // A second call reuses the cached float view of the same buffer, whatever its position.
+    actual.clear();
+    actual.put(new byte[actual.capacity()]);
+    TFLiteObjectDetectionAPIModel.packFloat(staging, pixels.length, lookup, actual);
+    assertArrayEquals(bytes(expected), bytes(actual));
+  }
+
+  /** The loop preprocess() used to run: one branch and one buffer put per channel. */
+  static void writePerPixel(final int[] pixels, final boolean quantized, final ByteBuffer out) {
+    final float mean = TFLiteObjectDetectionAPIModel.IMAGE_MEAN;
+    final float std = TFLiteObjectDetectionAPIModel.IMAGE_STD;
+    out.rewind();
+    for (final int pixelValue : pixels) {
+      if (quantized) {
+        out.put((byte) ((pixelValue >> 16) & 0xFF));
+        out.put((byte) ((pixelValue >> 8) & 0xFF));
+        out.put((byte) (pixelValue & 0xFF));
+      } else {
+        out.putFloat((((pixelValue >> 16) & 0xFF) - mean) / std);
+        out.putFloat((((pixelValue >> 8) & 0xFF) - mean) / std);
+        out.putFloat(((pixelValue & 0xFF) - mean) / std);
+      }
+    }
+  }
+
+  static TFLiteObjectDetectionAPIModel.Staging stage(final int[] pixels, final boolean quantized) {
+    final TFLiteObjectDetectionAPIModel.Staging staging =
+        new TFLiteObjectDetectionAPIModel.Staging(INPUT_SIZE, quantized);
+    System.arraycopy(pixels, 0, staging.pixels, 0, pixels.length);
+    return staging;
+  }
+
+  static ByteBuffer allocate(final int bytesPerChannel) {
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * bytesPerChannel);
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  static int[] randomPixels(final int count) {
+    final int[] pixels = new int[count];
+    final Random random = new Random(1);
+    for (int i = 0; i < count; ++i) {
+      pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    return pixels;
+  }
+
+  private static byte[] bytes(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.capacity()];
+    final ByteBuffer duplicate = buffer.duplicate();
+    duplicate.rewind();
+    duplicate.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the quantized input lookup against channel values requantized by hand: the value is
+ * normalized to (v - 128) / 128, divided by the scale, rounded, offset by the zero point and
+ * clamped to a byte.
+ */
+public class QuantizedLookupTest {
+  @Test
+  public void requantizesWithScaleAndZeroPoint() {
+    // 0 -> -1 / 0.02 = -50; 255 -> 0.9921875 / 0.02 = 49.6; 200 -> 0.5625 / 0.02 = 28.1.
+    assertLookup(0.02f, 100, new int[][] {{0, 50}, {64, 75}, {128, 100}, {200, 128}, {255, 150}});
+    // 95 -> -0.2578 / 0.5 = -0.52; 255 -> 1.98.
+    assertLookup(0.5f, 3, new int[][] {{0, 1}, {64, 2}, {95, 2}, {128, 3}, {255, 5}});
+  }
+
+  @Test
+  public void clampsToByteRange() {
+    // 0 -> -200 + 128; 255 -> 198.4 + 128; 130 -> 0.015625 / 0.005 = 3.1.
+    assertLookup(0.005f, 128, new int[][] {{0, 0}, {1, 0}, {130, 131}, {254, 255}, {255, 255}});
+  }
+
+  @Test
+  public void prepackagedModelQuantizationIsIdentity() {
+    assertTrue(
+        TFLiteObjectDetectionAPIModel.isIdentity(
+            TFLiteObjectDetectionAPIModel.createQuantizedLookup(1 / 128.0f, 128)));
+    assertTrue(
+        TFLiteObjectDetectionAPIModel.isIdentity(
+            TFLiteObjectDetectionAPIModel.createQuantizedLookup(0, 0)));
+    assertFalse(
+        TFLiteObjectDetectionAPIModel.isIdentity(
+            TFLiteObjectDetectionAPIModel.createQuantizedLookup(0.02f, 100)));
+  }
+
+  /** Checks lookup entries given as {channel value, expected input byte} pairs. */
+  private static void assertLookup(final float scale, final int zeroPoint, final int[][] expected) {
+    final byte[] lookup = TFLiteObjectDetectionAPIModel.createQuantizedLookup(scale, zeroPoint);
+    for (final int[] entry : expected) {
+      assertEquals("scale " + scale + " value " + entry[0], entry[1], lookup[entry[0]] & 0xFF);
+    }
+  }
+}
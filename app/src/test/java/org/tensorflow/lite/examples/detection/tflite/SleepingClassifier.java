@@ -0,0 +1,116 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A pool member whose inference sleeps for a fixed time and which records overlapping use. */
+class SleepingClassifier implements Classifier {
+  final long costMs;
+  final AtomicInteger calls = new AtomicInteger();
+  final AtomicBoolean busy = new AtomicBoolean();
+  final Detections detections = new Detections(1, new String[0]);
+  volatile boolean overlapped;
+  int numThreads;
+
+  SleepingClassifier(final long costMs) {
+    this.costMs = costMs;
+  }
+
+  @Override
+  public Detections detect(final ByteBuffer input) {
+    if (!busy.compareAndSet(false, true)) {
+      overlapped = true;
+    }
+    try {
+      Thread.sleep(costMs);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    calls.incrementAndGet();
+    busy.set(false);
+    return detections;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final ByteBuffer input) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Detections[] recognizeImages(final ByteBuffer[] inputs, final int count) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void preprocess(final Bitmap bitmap, final ByteBuffer input) {}
+
+  @Override
+  public ByteBuffer allocateInputBuffer() {
+    return ByteBuffer.allocate(1);
+  }
+
+  @Override
+  public int getInputSize() {
+    return 1;
+  }
+
+  @Override
+  public boolean isQuantized() {
+    return true;
+  }
+
+  @Override
+  public byte[] getQuantizedLookup() {
+    return null;
+  }
+
+  @Override
+  public float[] getNormalizedLookup() {
+    return null;
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {}
+
+  @Override
+  public String getStatString() {
+    return "";
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public void setDetectionQuery(final DetectionQuery query) {}
+
+  @Override
+  public void setNumThreads(final int num_threads) {
+    numThreads = num_threads;
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean isChecked) {}
+}
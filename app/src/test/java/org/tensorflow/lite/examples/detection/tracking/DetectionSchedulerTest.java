@@ -0,0 +1,108 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Checks which frames {@link DetectionScheduler} picks for detection. */
+public class DetectionSchedulerTest {
+  @Test
+  public void detectsEveryFrameWhileNothingIsTracked() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    assertEquals("DDDDD", schedule(scheduler, false, 5));
+  }
+
+  @Test
+  public void detectsEveryIntervalthFrameWhileTracking() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    assertEquals("D..D..D..D", schedule(scheduler, true, 10));
+    assertEquals("every 3 frames: detected 4, predicted 6", scheduler.getStatString());
+  }
+
+  @Test
+  public void intervalOfOneDetectsEveryFrame() {
+    final DetectionScheduler scheduler = new DetectionScheduler(0);
+    assertEquals(1, scheduler.getInterval());
+    assertEquals("DDDD", schedule(scheduler, true, 4));
+  }
+
+  @Test
+  public void requestedDetectionRunsOnNextFrameAndRestartsInterval() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    assertEquals("D.", schedule(scheduler, true, 2));
+    // For example, the frame picked for detection was blurred.
+    scheduler.requestDetection();
+    assertEquals("D..D", schedule(scheduler, true, 4));
+  }
+
+  @Test
+  public void lostTracksAreDetectedAtOnce() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    assertEquals("D.", schedule(scheduler, true, 2));
+    assertEquals("D", schedule(scheduler, false, 1));
+    assertEquals("..D", schedule(scheduler, true, 3));
+  }
+
+  @Test
+  public void intervalRangeFollowsAngularSpeed() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    scheduler.setIntervalRange(1, 6, 0.1f, 1.0f);
+    assertEquals(1, scheduler.getInterval());
+    scheduler.setAngularSpeed(0);
+    assertEquals(6, scheduler.getInterval());
+    scheduler.setAngularSpeed(0.1f);
+    assertEquals(6, scheduler.getInterval());
+    // Halfway between the speeds: 1 + 0.5 * 5 rounds to 4.
+    scheduler.setAngularSpeed(0.55f);
+    assertEquals(4, scheduler.getInterval());
+    scheduler.setAngularSpeed(1.0f);
+    assertEquals(1, scheduler.getInterval());
+    scheduler.setAngularSpeed(5.0f);
+    assertEquals(1, scheduler.getInterval());
+  }
+
+  @Test
+  public void fixedIntervalReplacesRange() {
+    final DetectionScheduler scheduler = new DetectionScheduler(3);
+    scheduler.setIntervalRange(1, 6, 0.1f, 1.0f);
+    scheduler.setInterval(2);
+    scheduler.setAngularSpeed(0);
+    assertEquals(2, scheduler.getInterval());
+    assertEquals("D.D.D", schedule(scheduler, true, 5));
+  }
+
+  @Test
+  public void shorterIntervalAppliesToFramesAlreadyCounted() {
+    final DetectionScheduler scheduler = new DetectionScheduler(6);
+    assertEquals("D..", schedule(scheduler, true, 3));
+    // The head starts turning: three frames since the last detection are now overdue.
+    scheduler.setInterval(2);
+    assertEquals("D.D", schedule(scheduler, true, 3));
+  }
+
+  /** Runs frames through the scheduler: D for each detected frame, . for each predicted one. */
+  private static String schedule(
+      final DetectionScheduler scheduler, final boolean tracking, final int frames) {
+    final StringBuilder schedule = new StringBuilder();
+    for (int i = 0; i < frames; ++i) {
+      schedule.append(scheduler.shouldDetect(tracking) ? 'D' : '.');
+    }
+    return schedule.toString();
+  }
+}
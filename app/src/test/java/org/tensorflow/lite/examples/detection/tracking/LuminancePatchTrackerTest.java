@@ -0,0 +1,197 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
+
+/**
+ * Matches patches between synthetic luminance planes whose content is shifted by known amounts,
+ * including fractions of a downsampled cell.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LuminancePatchTrackerTest {
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  // Rows are padded, as Camera2 planes often are.
+  private static final int ROW_STRIDE = 336;
+  // Centered, and large enough for the largest patch.
+  private static final RectF BOX = new RectF(112, 72, 208, 168);
+  // One downsampled cell is 4 camera pixels; sub-cell refinement should get well within it.
+  private static final float TOLERANCE = 1.0f;
+
+  // Direction, period in pixels and phase of the waves making up the texture. Periods and
+  // directions are spread so that no shift within the search window matches nearly as well as
+  // the true one.
+  private static final double[][] WAVES = {
+    {1, 0, 23, 0}, {0, 1, 31, 1}, {0.6, 0.8, 41, 2}, {0.8, -0.6, 17, 3}, {-0.3, 0.95, 61, 4}
+  };
+
+  private final LuminancePatchTracker patchTracker = new LuminancePatchTracker(WIDTH, HEIGHT);
+  private final float[] displacement = new float[2];
+
+  @Test
+  public void followsShiftOfWholeCells() {
+    track(texture(0, 0), texture(8, -4));
+    assertTrue(patchTracker.estimateMotion(BOX, displacement));
+    assertEquals(8, displacement[0], TOLERANCE);
+    assertEquals(-4, displacement[1], TOLERANCE);
+  }
+
+  @Test
+  public void refinesShiftBetweenCells() {
+    // 1.5 and -0.5 cells: the best whole cell is 2 camera pixels off either way.
+    track(texture(0, 0), texture(6, -2));
+    assertTrue(patchTracker.estimateMotion(BOX, displacement));
+    assertEquals(6, displacement[0], TOLERANCE);
+    assertEquals(-2, displacement[1], TOLERANCE);
+  }
+
+  @Test
+  public void searchesAroundExpectedDisplacement() {
+    // Ten cells, beyond the search radius of four around no motion.
+    track(texture(0, 0), texture(40, 0));
+    displacement[0] = 36;
+    displacement[1] = 0;
+    assertTrue(patchTracker.estimateMotion(BOX, displacement));
+    assertEquals(40, displacement[0], TOLERANCE);
+    assertEquals(0, displacement[1], TOLERANCE);
+  }
+
+  @Test
+  public void rejectsBoxWithoutPreviousFrame() {
+    patchTracker.nextFrame(texture(0, 0), ROW_STRIDE, 1);
+    assertEquals(0, patchTracker.getFrameGap());
+    assertFalse(patchTracker.estimateMotion(BOX, displacement));
+  }
+
+  @Test
+  public void rejectsBoxTooCloseToEdgeToSearch() {
+    track(texture(0, 0), texture(4, 0));
+    // The patch fits, but not every displacement around it does.
+    final RectF box = new RectF(0, 72, 48, 168);
+    displacement[0] = 1;
+    displacement[1] = 2;
+    assertFalse(patchTracker.estimateMotion(box, displacement));
+    assertEquals(1, displacement[0], 0);
+    assertEquals(2, displacement[1], 0);
+    assertEquals("patches matched 0, lost 1", patchTracker.getStatString());
+  }
+
+  @Test
+  public void rejectsFlatPatch() {
+    final ByteBuffer flat = plane();
+    track(flat, flat);
+    assertFalse(patchTracker.estimateMotion(BOX, displacement));
+  }
+
+  @Test
+  public void rejectsOccludedPatch() {
+    final ByteBuffer occluded = texture(0, 0);
+    // A checkerboard of whole cells at the extremes differs from the texture everywhere.
+    for (int y = 32; y < 208; ++y) {
+      for (int x = 72; x < 248; ++x) {
+        occluded.put(y * ROW_STRIDE + x, ((x / 4 + y / 4) % 2 == 0) ? (byte) 0 : (byte) 255);
+      }
+    }
+    track(texture(0, 0), occluded);
+    assertFalse(patchTracker.estimateMotion(BOX, displacement));
+  }
+
+  @Test
+  public void measuresFrameGapBetweenTimestamps() {
+    patchTracker.nextFrame(texture(0, 0), ROW_STRIDE, 4);
+    patchTracker.nextFrame(texture(0, 0), ROW_STRIDE, 7);
+    assertEquals(3, patchTracker.getFrameGap());
+  }
+
+  @Test
+  public void reanchorsTrackOnMeasuredMotion() {
+    final MultiBoxTracker tracker = new MultiBoxTracker(RuntimeEnvironment.application);
+    // Tracks and luminance share coordinates.
+    tracker.setLuminanceTransform(new Matrix());
+    final Detections detections = new Detections(1, new String[] {"???", "person"});
+    detections.count = 1;
+    detections.set(0, BOX, 1, 0.9f);
+
+    patchTracker.nextFrame(texture(0, 0), ROW_STRIDE, 1);
+    tracker.advance(1, patchTracker);
+    tracker.trackResults(detections, 1);
+
+    // The object moves on a frame without detection.
+    patchTracker.nextFrame(texture(8, 4), ROW_STRIDE, 2);
+    tracker.advance(2, patchTracker);
+    final RectF location = new RectF();
+    tracker.getTrack(0, location);
+    assertEquals(BOX.left + 8, location.left, TOLERANCE);
+    assertEquals(BOX.top + 4, location.top, TOLERANCE);
+
+    // And stops. The search starts from where the track's velocity predicts it, but the track is
+    // re-anchored where it was found.
+    patchTracker.nextFrame(texture(8, 4), ROW_STRIDE, 3);
+    tracker.advance(3, patchTracker);
+    tracker.getTrack(0, location);
+    assertEquals(BOX.left + 8, location.left, TOLERANCE);
+    assertEquals(BOX.top + 4, location.top, TOLERANCE);
+    assertEquals(BOX.right + 8, location.right, TOLERANCE);
+    assertEquals(BOX.bottom + 4, location.bottom, TOLERANCE);
+  }
+
+  private void track(final ByteBuffer previous, final ByteBuffer current) {
+    patchTracker.nextFrame(previous, ROW_STRIDE, 1);
+    patchTracker.nextFrame(current, ROW_STRIDE, 2);
+  }
+
+  /**
+   * A smooth texture with its content moved by shiftX, shiftY camera pixels, sampled exactly at
+   * every pixel so that fractional shifts are represented faithfully.
+   */
+  private static ByteBuffer texture(final float shiftX, final float shiftY) {
+    final ByteBuffer plane = plane();
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        final double u = x - shiftX;
+        final double v = y - shiftY;
+        double value = 128;
+        for (final double[] wave : WAVES) {
+          value += 25 * Math.sin(2 * Math.PI * (wave[0] * u + wave[1] * v) / wave[2] + wave[3]);
+        }
+        plane.put(y * ROW_STRIDE + x, (byte) Math.round(value));
+      }
+    }
+    return plane;
+  }
+
+  /** A flat mid-grey plane. */
+  private static ByteBuffer plane() {
+    final ByteBuffer plane = ByteBuffer.allocate(ROW_STRIDE * HEIGHT);
+    for (int i = 0; i < plane.capacity(); ++i) {
+      plane.put(i, (byte) 128);
+    }
+    return plane;
+  }
+}
@@ -0,0 +1,186 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.graphics.RectF;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.tensorflow.lite.examples.detection.tflite.Detections;
+
+/**
+ * Tracks synthetic boxes moving at constant velocity through {@link MultiBoxTracker}, detecting
+ * every third frame as DetectorActivity does and advancing the tracker on the others.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MultiBoxTrackerTest {
+  private static final String[] LABELS = {"???", "person", "car"};
+  private static final int PERSON = 1;
+  private static final int CAR = 2;
+  private static final int DETECTION_INTERVAL = 3;
+  // MultiBoxTracker.MAX_COAST_FRAMES.
+  private static final int MAX_COAST_FRAMES = 15;
+  // Velocity converges geometrically from zero, so allow for what is left of it after this many
+  // detections.
+  private static final int SETTLING_DETECTIONS = 12;
+  private static final float TOLERANCE = 0.01f;
+
+  private final MultiBoxTracker tracker = new MultiBoxTracker(RuntimeEnvironment.application);
+  private final Detections detections = new Detections(4, LABELS);
+  private final RectF location = new RectF();
+
+  @Test
+  public void keepsIdsWhileDetectingEveryThirdFrame() {
+    long timestamp = 0;
+    for (int detection = 0; detection < SETTLING_DETECTIONS; ++detection) {
+      for (int i = 1; i < DETECTION_INTERVAL; ++i) {
+        tracker.advance(++timestamp);
+      }
+      ++timestamp;
+      detect(timestamp, person(timestamp), car(timestamp));
+      assertEquals(2, tracker.getTrackedCount());
+      assertLocation(0, person(timestamp));
+      assertLocation(1, car(timestamp));
+    }
+
+    // Predicted between detections, at the velocity the detections have shown.
+    tracker.advance(++timestamp);
+    assertLocation(0, person(timestamp));
+    assertLocation(1, car(timestamp));
+  }
+
+  @Test
+  public void carriesOlderDetectionForwardToNewerAnchor() {
+    long timestamp = settle();
+    // A slow inference delivers an older frame's detection after a newer one.
+    final long newer = timestamp + DETECTION_INTERVAL;
+    detect(newer, person(newer), car(newer));
+    final long older = timestamp + 1;
+    detect(older, person(older), car(older));
+
+    assertEquals(2, tracker.getTrackedCount());
+    // The older detection agrees with the newer one once carried forward at the track's velocity,
+    // so the tracks stay where the newer one put them.
+    assertLocation(0, person(newer));
+    assertLocation(1, car(newer));
+  }
+
+  @Test
+  public void detectionOfFrameBeforeLatestAdvanceIsPredictedForward() {
+    long timestamp = settle();
+    final long detected = timestamp + DETECTION_INTERVAL;
+    tracker.advance(detected + 1);
+    tracker.advance(detected + 2);
+    // Inference finishes two frames after the one it ran on.
+    detect(detected, person(detected), car(detected));
+
+    assertLocation(0, person(detected + 2));
+    assertLocation(1, car(detected + 2));
+  }
+
+  @Test
+  public void expiresTrackAfterMaxCoastFrames() {
+    final long timestamp = settle();
+    // Only the person is seen from here on.
+    final long lastCar = timestamp;
+    long t = timestamp;
+    while (t < lastCar + MAX_COAST_FRAMES) {
+      t += 1;
+      if (t % DETECTION_INTERVAL == 0) {
+        detect(t, person(t));
+      } else {
+        tracker.advance(t);
+      }
+    }
+    assertEquals(2, tracker.getTrackedCount());
+
+    tracker.advance(++t);
+    assertEquals(1, tracker.getTrackedCount());
+    assertEquals(0, tracker.getTrack(0, location));
+
+    // The car coming back is a new object.
+    detect(++t, person(t), car(t));
+    assertEquals(2, tracker.getTrackedCount());
+    assertEquals(2, findTrack(2).id);
+  }
+
+  /** Detects both objects until the track velocities have settled; returns the last frame. */
+  private long settle() {
+    long timestamp = 0;
+    for (int detection = 0; detection < SETTLING_DETECTIONS; ++detection) {
+      timestamp += DETECTION_INTERVAL;
+      detect(timestamp, person(timestamp), car(timestamp));
+    }
+    return timestamp;
+  }
+
+  /** A person walking right at 3 pixels per frame. */
+  private static float[] person(final long timestamp) {
+    return box(PERSON, 100 + 3 * timestamp, 200, 60, 120);
+  }
+
+  /** A car moving up and left, well apart from the person. */
+  private static float[] car(final long timestamp) {
+    return box(CAR, 400 - 2 * timestamp, 300 - timestamp, 120, 80);
+  }
+
+  /** Class id, left, top, right and bottom of a box. */
+  private static float[] box(
+      final int classId, final float left, final float top, final float width, final float height) {
+    return new float[] {classId, left, top, left + width, top + height};
+  }
+
+  private void detect(final long timestamp, final float[]... boxes) {
+    detections.count = boxes.length;
+    for (int i = 0; i < boxes.length; ++i) {
+      detections.classIds[i] = (int) boxes[i][0];
+      System.arraycopy(boxes[i], 1, detections.boxes, 4 * i, 4);
+      detections.scores[i] = 0.9f;
+    }
+    tracker.trackResults(detections, timestamp);
+  }
+
+  /** Checks the box of the track with the given id, which is the order objects first appeared. */
+  private void assertLocation(final int id, final float[] expected) {
+    final RectF actual = findTrack(id).location;
+    assertEquals(expected[1], actual.left, TOLERANCE);
+    assertEquals(expected[2], actual.top, TOLERANCE);
+    assertEquals(expected[3], actual.right, TOLERANCE);
+    assertEquals(expected[4], actual.bottom, TOLERANCE);
+  }
+
+  private Track findTrack(final int id) {
+    for (int i = 0; i < tracker.getTrackedCount(); ++i) {
+      final Track track = new Track();
+      track.id = tracker.getTrack(i, track.location);
+      if (track.id == id) {
+        return track;
+      }
+    }
+    fail("No track " + id);
+    return null;
+  }
+
+  private static class Track {
+    int id;
+    final RectF location = new RectF();
+  }
+}